@@ -45,7 +45,11 @@ import com.cloud.storage.dao.VMTemplatePoolDao;
 import com.cloud.storage.dao.VolumeDao;
 import com.cloud.storage.dao.VolumeDetailsDao;
 import com.cloud.utils.StringUtils;
+import com.cloud.utils.db.GenericSearchBuilder;
 import com.cloud.utils.db.GlobalLock;
+import com.cloud.utils.db.JoinBuilder;
+import com.cloud.utils.db.SearchBuilder;
+import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.google.common.base.Preconditions;
 import com.google.common.primitives.Ints;
@@ -64,25 +68,42 @@ import org.apache.cloudstack.framework.async.AsyncCompletionCallback;
 import org.apache.cloudstack.storage.command.CommandResult;
 import org.apache.cloudstack.storage.command.CreateObjectAnswer;
 import org.apache.cloudstack.storage.datastore.db.PrimaryDataStoreDao;
-import org.apache.cloudstack.storage.datastore.db.StoragePoolDetailVO;
 import org.apache.cloudstack.storage.datastore.db.StoragePoolDetailsDao;
 import org.apache.cloudstack.storage.datastore.db.StoragePoolVO;
+import org.apache.cloudstack.storage.datastore.util.DateraAclUpdates;
+import org.apache.cloudstack.storage.datastore.util.DateraAsyncClient;
+import org.apache.cloudstack.storage.datastore.util.DateraInitiatorIndex;
+import org.apache.cloudstack.storage.datastore.util.DateraIopsLedger;
+import org.apache.cloudstack.storage.datastore.util.DateraListIterator;
 import org.apache.cloudstack.storage.datastore.util.DateraObject;
+import org.apache.cloudstack.storage.datastore.util.DateraPoller;
+import org.apache.cloudstack.storage.datastore.util.DateraPoolSettings;
 import org.apache.cloudstack.storage.datastore.util.DateraUtil;
+import org.apache.cloudstack.storage.datastore.util.DateraUsedBytesLedger;
 import org.apache.cloudstack.storage.to.SnapshotObjectTO;
 import org.apache.log4j.Logger;
 
 import javax.inject.Inject;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 public class DateraPrimaryDataStoreDriver implements PrimaryDataStoreDriver {
     private static final Logger s_logger = Logger.getLogger(DateraPrimaryDataStoreDriver.class);
     private static final int s_lockTimeInSeconds = 300;
     private static final int s_lowestHypervisorSnapshotReserve = 10;
+    private static final int s_maxConcurrentAclUpdates = 16;
 
     @Inject
     private ClusterDao _clusterDao;
@@ -204,133 +225,267 @@ public class DateraPrimaryDataStoreDriver implements PrimaryDataStoreDriver {
 
         ClusterVO cluster = _clusterDao.findById(clusterId);
 
-        GlobalLock lock = GlobalLock.getInternLock(cluster.getUuid());
+        List<HostVO> hosts = _hostDao.findByClusterId(clusterId);
 
-        if (!lock.lock(s_lockTimeInSeconds)) {
-            s_logger.debug("Couldn't lock the DB (in grantAccess) on the following string: " + cluster.getUuid());
+        if (!DateraUtil.hostsSupport_iScsi(hosts)) {
+            s_logger.debug("hostsSupport_iScsi() :Host does NOT support iscsci");
+            return false;
         }
 
+        String initiatorGroupName = DateraUtil.INITIATOR_GROUP_PREFIX + "-" + cluster.getUuid();
+        s_logger.debug("Will use initiator group " + String.valueOf(initiatorGroupName));
+
+        DateraObject.InitiatorGroup initiatorGroup;
+
         try {
+            initiatorGroup = setupInitiatorGroup(conn, storagePoolId, cluster, host, hosts, initiatorGroupName);
+        } catch (DateraObject.DateraError | UnsupportedEncodingException dateraError) {
+            s_logger.warn(dateraError.getMessage(), dateraError);
+            throw new CloudRuntimeException("Unable to grant access to volume " + dateraError.getMessage());
+        }
 
-            DateraObject.InitiatorGroup initiatorGroup = null;
-            String initiatorGroupKey = DateraUtil.getInitiatorGroupKey(storagePoolId);
+        Preconditions.checkNotNull(initiatorGroup, "initiatorGroup should not be Null");
 
-            List<HostVO> hosts = _hostDao.findByClusterId(clusterId);
+        // assign the initiator group to the appInstance, unless it already is
+        RuntimeException failure = assignInitiatorGroup(conn, storagePoolId, initiatorGroup,
+                Collections.singletonMap(dataObject, appInstanceName)).getFailures().get(dataObject);
 
-            if (!DateraUtil.hostsSupport_iScsi(hosts)) {
-                s_logger.debug("hostsSupport_iScsi() :Host does NOT support iscsci");
-                return false;
-            }
+        if (failure != null) {
+            s_logger.warn(failure.getMessage(), failure);
+            throw new CloudRuntimeException("Unable to grant access to volume " + failure.getMessage());
+        }
 
-            // We don't have the initiator group, create one
-            String initiatorGroupName = DateraUtil.INITIATOR_GROUP_PREFIX + "-" + cluster.getUuid();
-            s_logger.debug("Will use initiator group " + String.valueOf(initiatorGroupName));
+        return true;
+    }
 
-            initiatorGroup = DateraUtil.getInitiatorGroup(conn, initiatorGroupName);
+    /**
+     * Grants the hosts of the cluster {@code host} belongs to access to several
+     * volumes at once, e.g. the disks of a VM being started or restarted by HA.
+     * The initiator group is prepared once for all of them and then assigned to
+     * the app instances concurrently, at most {@link #s_maxConcurrentAclUpdates}
+     * at a time.
+     * PrimaryDataStoreDriver has no batch grantAccess, so CloudStack never calls
+     * this method; callers have to use it explicitly on this driver.
+     * @param dataObjects The volumes that need to be accessed
+     * @param host        The host which needs to access the volumes
+     * @param dataStore   Identifies which primary storage the volumes reside in
+     * @return True for every volume access is granted to, false for the others
+     */
+    public Map<DataObject, Boolean> grantAccess(Collection<DataObject> dataObjects, Host host, DataStore dataStore) {
 
-            if (initiatorGroup == null) {
-                s_logger.debug("create initiator group " + String.valueOf(initiatorGroupName));
-                initiatorGroup = DateraUtil.createInitiatorGroup(conn, initiatorGroupName);
-                // Save it to the DB
-                ClusterDetailsVO clusterDetail = new ClusterDetailsVO(clusterId, initiatorGroupKey, initiatorGroupName);
-                _clusterDetailsDao.persist(clusterDetail);
+        Preconditions.checkArgument(dataObjects != null, "'dataObjects' should not be 'null'");
+        Preconditions.checkArgument(host != null, "'host' should not be 'null'");
+        Preconditions.checkArgument(dataStore != null, "'dataStore' should not be 'null'");
 
-            } else {
-                initiatorGroup = DateraUtil.getInitiatorGroup(conn, initiatorGroupName);
-            }
+        s_logger.debug("grantAccess() called for " + dataObjects.size() + " volumes");
 
-            Preconditions.checkNotNull(initiatorGroup, "initiatorGroup should not be Null");
+        Map<DataObject, Boolean> granted = new LinkedHashMap<>();
 
-            // We create an initiator for every host in this cluster and add it to the
-            // initator group
-            addClusterHostsToInitiatorGroup(conn, clusterId, initiatorGroupName);
+        for (DataObject dataObject : dataObjects) {
+            granted.put(dataObject, false);
+        }
 
-            // assgin the initiatorgroup to appInstance
+        if (dataObjects.isEmpty()) {
+            return granted;
+        }
 
-            if (!isInitiatorGroupAssignedToAppInstance(conn, initiatorGroup, appInstance)) {
-                DateraUtil.assignGroupToAppInstance(conn, initiatorGroupName, appInstanceName);
-                int retries = DateraUtil.DEFAULT_RETRIES;
-                while (!isInitiatorGroupAssignedToAppInstance(conn, initiatorGroup, appInstance) && retries > 0) {
-                    Thread.sleep(DateraUtil.POLL_TIMEOUT_MS);
-                    retries--;
-                }
+        long storagePoolId = dataStore.getId();
 
-                Preconditions.checkArgument(isInitiatorGroupAssignedToAppInstance(conn, initiatorGroup, appInstance),
-                        "Initgroup is not assigned to appinstance");
-                // FIXME: Sleep anyways
-                s_logger.debug("sleep " + String.valueOf(DateraUtil.POLL_TIMEOUT_MS) + " msec for ACL to be applied");
+        DateraObject.DateraConnection conn = DateraUtil.getDateraConnection(storagePoolId, _storagePoolDetailsDao);
 
-                Thread.sleep(DateraUtil.POLL_TIMEOUT_MS); // ms
-                s_logger.debug(
-                        "Initiator group " + String.valueOf(initiatorGroupName) + " is assigned to " + appInstanceName);
+        ClusterVO cluster = _clusterDao.findById(host.getClusterId());
 
-            }
+        List<HostVO> hosts = _hostDao.findByClusterId(cluster.getId());
+
+        if (!DateraUtil.hostsSupport_iScsi(hosts)) {
+            s_logger.debug("hostsSupport_iScsi() :Host does NOT support iscsci");
+            return granted;
+        }
+
+        String initiatorGroupName = DateraUtil.INITIATOR_GROUP_PREFIX + "-" + cluster.getUuid();
 
-            return true;
-        } catch (DateraObject.DateraError | UnsupportedEncodingException | InterruptedException dateraError) {
+        DateraObject.InitiatorGroup initiatorGroup;
+
+        try {
+            initiatorGroup = setupInitiatorGroup(conn, storagePoolId, cluster, host, hosts, initiatorGroupName);
+        } catch (DateraObject.DateraError | UnsupportedEncodingException dateraError) {
             s_logger.warn(dateraError.getMessage(), dateraError);
-            throw new CloudRuntimeException("Unable to grant access to volume " + dateraError.getMessage());
-        } finally {
-            lock.unlock();
-            lock.releaseRef();
+            throw new CloudRuntimeException("Unable to grant access to volumes " + dateraError.getMessage());
         }
+
+        Preconditions.checkNotNull(initiatorGroup, "initiatorGroup should not be Null");
+
+        Map<DataObject, String> appInstanceNames = new LinkedHashMap<>();
+
+        for (DataObject dataObject : dataObjects) {
+            appInstanceNames.put(dataObject, getAppInstanceName(dataObject));
+        }
+
+        DateraAclUpdates.Results<DataObject, DateraObject.StorageInstance> results = assignInitiatorGroup(conn,
+                storagePoolId, initiatorGroup, appInstanceNames);
+
+        for (DataObject dataObject : dataObjects) {
+            granted.put(dataObject, results.isSuccess(dataObject));
+        }
+
+        for (Map.Entry<DataObject, RuntimeException> failure : results.getFailures().entrySet()) {
+            s_logger.warn("Unable to grant access to volume " + failure.getKey().getId() + ": "
+                    + failure.getValue().getMessage(), failure.getValue());
+        }
+
+        return granted;
     }
 
-    private void addClusterHostsToInitiatorGroup(DateraObject.DateraConnection conn, long clusterId,
-            String initiatorGroupName) throws DateraObject.DateraError, UnsupportedEncodingException {
+    /**
+     * Assigns the initiator group to the app instances of the volumes under
+     * their locks, at most {@link #s_maxConcurrentAclUpdates} at a time, and
+     * waits for the ACLs to be active. Arrays which do not report ACL state
+     * get one fixed sleep for all of them. Shared by the single-volume and
+     * batch grantAccess.
+     * @param appInstanceNames app instance of each volume
+     * @return per volume, the storage instance as last seen while waiting for
+     *         the ACL, null if the group was already assigned, or the failure
+     */
+    private DateraAclUpdates.Results<DataObject, DateraObject.StorageInstance> assignInitiatorGroup(
+            DateraObject.DateraConnection conn, long storagePoolId, DateraObject.InitiatorGroup initiatorGroup,
+            Map<DataObject, String> appInstanceNames) {
 
-        List<HostVO> clusterHosts = _hostDao.findByClusterId(clusterId);
-        DateraObject.InitiatorGroup initiatorGroup = DateraUtil.getInitiatorGroup(conn, initiatorGroupName);
+        int aclReadyTimeoutMs = DateraUtil.getAclReadyTimeoutMs(storagePoolId, _storagePoolDetailsDao);
 
-        for (HostVO host : clusterHosts) {
+        // volumes only contend with each other for the ACL of the same app instance
+        List<GlobalLock> locks = lockAppInstances(appInstanceNames.values());
 
-            // check if we have an initiator for the host
-            String iqn = host.getStorageUrl();
+        try {
+            DateraAclUpdates.Results<DataObject, DateraObject.StorageInstance> results = DateraAclUpdates.run(
+                    appInstanceNames, s_maxConcurrentAclUpdates, appInstanceName -> DateraAclUpdates.assign(conn,
+                            initiatorGroup, appInstanceName, aclReadyTimeoutMs));
+
+            boolean aclStateReported = true;
 
-            DateraObject.Initiator initiator = DateraUtil.getInitiator(conn, iqn);
-            String initiatorName = "";
-            // initiator can not be found, create it
-            if (initiator == null) {
+            for (DateraObject.StorageInstance storageInstance : results.getValues().values()) {
+                aclStateReported &= storageInstance == null || DateraUtil.isAclStateReported(storageInstance);
+            }
 
-                initiatorName = DateraUtil.INITIATOR_PREFIX + "-" + host.getUuid();
-                initiator = DateraUtil.createInitiator(conn, initiatorName, iqn);
-                s_logger.debug("Initiator " + initiatorName + " with " + iqn + "added ");
+            if (!aclStateReported) {
+                s_logger.debug("sleep " + String.valueOf(DateraUtil.POLL_TIMEOUT_MS) + " msec for ACL to be applied");
 
+                Thread.sleep(DateraUtil.POLL_TIMEOUT_MS);
             }
-            Preconditions.checkNotNull(initiator);
 
-            if (!DateraUtil.isInitiatorPresentInGroup(initiator, initiatorGroup)) {
-                s_logger.debug("Add " + initiatorName + " to " + initiatorGroupName);
-                DateraUtil.addInitiatorToGroup(conn, initiator.getPath(), initiatorGroupName);
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CloudRuntimeException("Interrupted while granting access to volumes");
+        } finally {
+            unlockAppInstances(locks);
+        }
+    }
+
+    /**
+     * Takes the lock of every app instance, see {@link DateraAclUpdates#lockInOrder}
+     * @return the locks, to be released with {@link #unlockAppInstances}
+     */
+    private List<GlobalLock> lockAppInstances(Collection<String> appInstanceNames) {
+        return DateraAclUpdates.lockInOrder(appInstanceNames, appInstanceName -> {
+            GlobalLock lock = GlobalLock.getInternLock(getAppInstanceLockName(appInstanceName));
+
+            if (!lock.lock(s_lockTimeInSeconds)) {
+                s_logger.debug("Couldn't lock the DB on the following string: "
+                        + getAppInstanceLockName(appInstanceName));
             }
+
+            return lock;
+        });
+    }
+
+    private static void unlockAppInstances(List<GlobalLock> locks) {
+        for (GlobalLock lock : locks) {
+            lock.unlock();
+            lock.releaseRef();
         }
     }
 
     /**
-     * Checks if an initiator group is assigned to an appInstance
-     * @param conn           Datera connection
-     * @param initiatorGroup Initiator group to check
-     * @param appInstance    App Instance
-     * @return True if initiator group is assigned to app instnace, false otherwise
-     * @throws DateraObject.DateraError
+     * Makes sure the initiator group of a cluster exists and holds the initiator
+     * of the host being granted access. Membership of the other hosts is kept
+     * up to date by the host listener, so once the group read from the array
+     * lists the host it is left alone and no lock is taken. Otherwise the group
+     * is created or completed under the lock of the group on the array.
+     * @param conn               Datera connection
+     * @param storagePoolId      Primary storage
+     * @param cluster            Cluster of the host being granted access
+     * @param host               Host being granted access
+     * @param hosts              Hosts of the cluster
+     * @param initiatorGroupName Initiator group of the cluster
+     * @return the initiator group, as read from the array
      */
+    private DateraObject.InitiatorGroup setupInitiatorGroup(DateraObject.DateraConnection conn, long storagePoolId,
+            ClusterVO cluster, Host host, List<HostVO> hosts, String initiatorGroupName)
+            throws DateraObject.DateraError, UnsupportedEncodingException {
 
-    private boolean isInitiatorGroupAssignedToAppInstance(DateraObject.DateraConnection conn,
-            DateraObject.InitiatorGroup initiatorGroup, DateraObject.AppInstance appInstance)
-            throws DateraObject.DateraError {
+        // read from the array rather than the initiator index, the ACL is only as good as the group
+        DateraObject.InitiatorGroup currentGroup = DateraUtil.getInitiatorGroup(conn, initiatorGroupName);
 
-        Map<String, DateraObject.InitiatorGroup> assignedInitiatorGroups = DateraUtil
-                .getAppInstanceInitiatorGroups(conn, appInstance.getName());
+        if (isInitiatorGroupMember(conn, currentGroup, host)) {
+            return currentGroup;
+        }
 
-        Preconditions.checkNotNull(assignedInitiatorGroups);
+        String lockName = DateraUtil.getInitiatorGroupLockName(conn, initiatorGroupName);
 
-        for (DateraObject.InitiatorGroup ig : assignedInitiatorGroups.values()) {
-            if (initiatorGroup.getName().equals(ig.getName())) {
-                return true;
+        GlobalLock lock = GlobalLock.getInternLock(lockName);
+
+        if (!lock.lock(s_lockTimeInSeconds)) {
+            s_logger.debug("Couldn't lock the DB (in grantAccess) on the following string: " + lockName);
+        }
+
+        try {
+            DateraObject.InitiatorGroup initiatorGroup = DateraUtil.getInitiatorGroup(conn, initiatorGroupName);
+
+            // We don't have the initiator group, create one
+            if (initiatorGroup == null) {
+                s_logger.debug("create initiator group " + String.valueOf(initiatorGroupName));
+                initiatorGroup = DateraUtil.createInitiatorGroup(conn, initiatorGroupName);
+            }
+
+            Preconditions.checkNotNull(initiatorGroup, "initiatorGroup should not be Null");
+
+            // Save it to the DB, the host listener maintains the groups recorded there
+            if (_clusterDetailsDao.findDetail(cluster.getId(), DateraUtil.getInitiatorGroupKey(storagePoolId)) == null) {
+                ClusterDetailsVO clusterDetail = new ClusterDetailsVO(cluster.getId(),
+                        DateraUtil.getInitiatorGroupKey(storagePoolId), initiatorGroupName);
+                _clusterDetailsDao.persist(clusterDetail);
             }
+
+            // We create an initiator for every host in this cluster and add it to the
+            // initator group
+            DateraUtil.updateInitiatorGroupMembers(conn, initiatorGroupName, DateraUtil.getHostInitiators(hosts),
+                    false);
+
+            return DateraUtil.getInitiatorGroup(conn, initiatorGroupName);
+        } finally {
+            lock.unlock();
+            lock.releaseRef();
         }
+    }
 
-        return false;
+    /**
+     * @return true if the group exists and the initiator of {@code host} is a
+     *         member of it
+     */
+    private boolean isInitiatorGroupMember(DateraObject.DateraConnection conn,
+            DateraObject.InitiatorGroup initiatorGroup, Host host) throws DateraObject.DateraError {
+
+        if (initiatorGroup == null || initiatorGroup.getMembers() == null) {
+            return false;
+        }
+
+        String initiatorPath = DateraInitiatorIndex.getIndex(conn).getInitiatorPath(conn, host.getStorageUrl());
+
+        return initiatorPath != null && initiatorGroup.getMembers().contains(initiatorPath);
+    }
+
+    private static String getAppInstanceLockName(String appInstanceName) {
+        return DateraUtil.APPINSTANCE_PREFIX + "-" + appInstanceName;
     }
 
     /**
@@ -354,41 +509,210 @@ public class DateraPrimaryDataStoreDriver implements PrimaryDataStoreDriver {
 
         ClusterVO cluster = _clusterDao.findById(clusterId);
 
-        GlobalLock lock = GlobalLock.getInternLock(cluster.getUuid());
+        String initiatorGroupName = DateraUtil.INITIATOR_GROUP_PREFIX + "-" + cluster.getUuid();
 
-        if (!lock.lock(s_lockTimeInSeconds)) {
-            s_logger.debug("Couldn't lock the DB (in revokeAccess) on the following string: " + cluster.getUuid());
+        DateraObject.DateraConnection conn = DateraUtil.getDateraConnection(storagePoolId, _storagePoolDetailsDao);
+
+        try {
+            DateraObject.InitiatorGroup initiatorGroup = DateraUtil.getInitiatorGroup(conn, initiatorGroupName);
+
+            // without an initiator group the cluster has no access to revoke
+            if (initiatorGroup == null) {
+                return;
+            }
+
+            // only the ACL of this app instance is changed, the initiator group is left as it is
+            RuntimeException failure = removeInitiatorGroup(conn, initiatorGroup,
+                    Collections.singletonMap(dataObject, appInstanceName)).getFailures().get(dataObject);
+
+            if (failure != null) {
+                throw failure;
+            }
+        } catch (DateraObject.DateraError | RuntimeException e) {
+            String errMesg = "Error revoking access for Volume : " + dataObject.getId();
+            s_logger.warn(errMesg, e);
+            throw new CloudRuntimeException(errMesg);
         }
+    }
+
+    /**
+     * Removes access of the initiator group to which {@code host} belongs from
+     * several volumes at once, e.g. when a VM is stopped or migrated or a host
+     * is put into maintenance. The ACL updates are sent concurrently, at most
+     * {@link #s_maxConcurrentAclUpdates} at a time, and confirmed together with
+     * one app_instances listing per poll, or per app instance on arrays which
+     * leave the ACLs out of the listing.
+     * PrimaryDataStoreDriver has no batch revokeAccess, so CloudStack never
+     * calls this method; callers have to use it explicitly on this driver.
+     * @param dataObjects Datera volumes
+     * @param host        the host which is currently having access to the volumes
+     * @param dataStore   The primary store to which the volumes belong
+     * @return True for every volume access is revoked from, false for the others
+     */
+    public Map<DataObject, Boolean> revokeAccess(Collection<DataObject> dataObjects, Host host, DataStore dataStore) {
+
+        Preconditions.checkArgument(dataObjects != null, "'dataObjects' should not be 'null'");
+        Preconditions.checkArgument(host != null, "'host' should not be 'null'");
+        Preconditions.checkArgument(dataStore != null, "'dataStore' should not be 'null'");
+
+        s_logger.debug("revokeAccess() called for " + dataObjects.size() + " volumes");
+
+        Map<DataObject, Boolean> revoked = new LinkedHashMap<>();
+
+        if (dataObjects.isEmpty()) {
+            return revoked;
+        }
+
+        long storagePoolId = dataStore.getId();
+
+        DateraObject.DateraConnection conn = DateraUtil.getDateraConnection(storagePoolId, _storagePoolDetailsDao);
+
+        ClusterVO cluster = _clusterDao.findById(host.getClusterId());
+
+        String initiatorGroupName = DateraUtil.INITIATOR_GROUP_PREFIX + "-" + cluster.getUuid();
+
+        DateraObject.InitiatorGroup initiatorGroup;
 
         try {
+            initiatorGroup = DateraUtil.getInitiatorGroup(conn, initiatorGroupName);
+        } catch (DateraObject.DateraError dateraError) {
+            String errMesg = "Error revoking access for " + dataObjects.size() + " volumes";
+            s_logger.warn(errMesg, dateraError);
+            throw new CloudRuntimeException(errMesg);
+        }
 
-            String initiatorGroupName = DateraUtil.INITIATOR_GROUP_PREFIX + "-" + cluster.getUuid();
+        for (DataObject dataObject : dataObjects) {
+            // without an initiator group the cluster has no access to revoke
+            revoked.put(dataObject, initiatorGroup == null);
+        }
 
-            DateraObject.DateraConnection conn = DateraUtil.getDateraConnection(storagePoolId, _storagePoolDetailsDao);
+        if (initiatorGroup == null) {
+            return revoked;
+        }
 
-            DateraObject.AppInstance appInstance = DateraUtil.getAppInstance(conn, appInstanceName);
-            DateraObject.InitiatorGroup initiatorGroup = DateraUtil.getInitiatorGroup(conn, initiatorGroupName);
+        Map<DataObject, String> appInstanceNames = new LinkedHashMap<>();
 
-            if (initiatorGroup != null && appInstance != null) {
+        for (DataObject dataObject : dataObjects) {
+            appInstanceNames.put(dataObject, getAppInstanceName(dataObject));
+        }
 
-                DateraUtil.removeGroupFromAppInstance(conn, initiatorGroupName, appInstanceName);
-                int retries = DateraUtil.DEFAULT_RETRIES;
-                while (isInitiatorGroupAssignedToAppInstance(conn, initiatorGroup, appInstance) && retries > 0) {
-                    Thread.sleep(DateraUtil.POLL_TIMEOUT_MS);
-                    retries--;
-                }
-            }
+        DateraAclUpdates.Results<DataObject, Boolean> results;
 
-        } catch (DateraObject.DateraError | UnsupportedEncodingException | InterruptedException dateraError) {
-            String errMesg = "Error revoking access for Volume : " + dataObject.getId();
+        try {
+            results = removeInitiatorGroup(conn, initiatorGroup, appInstanceNames);
+        } catch (DateraObject.DateraError dateraError) {
+            String errMesg = "Error revoking access for " + dataObjects.size() + " volumes";
             s_logger.warn(errMesg, dateraError);
             throw new CloudRuntimeException(errMesg);
+        }
+
+        for (DataObject dataObject : dataObjects) {
+            revoked.put(dataObject, Boolean.TRUE.equals(results.getValues().get(dataObject)));
+        }
+
+        for (Map.Entry<DataObject, RuntimeException> failure : results.getFailures().entrySet()) {
+            s_logger.warn("Error revoking access for Volume : " + failure.getKey().getId(), failure.getValue());
+        }
+
+        return revoked;
+    }
+
+    /**
+     * Removes the initiator group from the ACLs of the app instances of the
+     * volumes under their locks, at most {@link #s_maxConcurrentAclUpdates} at
+     * a time, and waits until none of them lists it any more. Shared by the
+     * single-volume and batch revokeAccess.
+     * @param appInstanceNames app instance of each volume
+     * @return per volume, whether the group is gone from its ACL, or the failure
+     */
+    private DateraAclUpdates.Results<DataObject, Boolean> removeInitiatorGroup(DateraObject.DateraConnection conn,
+            DateraObject.InitiatorGroup initiatorGroup, Map<DataObject, String> appInstanceNames)
+            throws DateraObject.DateraError {
+
+        String initiatorGroupName = initiatorGroup.getName();
+
+        List<GlobalLock> locks = lockAppInstances(appInstanceNames.values());
+
+        try {
+            DateraAclUpdates.Results<DataObject, Boolean> results = DateraAclUpdates.run(appInstanceNames,
+                    s_maxConcurrentAclUpdates, appInstanceName -> DateraAclUpdates.remove(conn, initiatorGroup,
+                            appInstanceName));
+
+            Set<String> removedFrom = new HashSet<>();
+
+            for (Map.Entry<DataObject, Boolean> removed : results.getValues().entrySet()) {
+                if (removed.getValue()) {
+                    removedFrom.add(appInstanceNames.get(removed.getKey()));
+                }
+            }
+
+            Set<String> stillAssigned = removedFrom.isEmpty() ? Collections.<String>emptySet()
+                    : awaitInitiatorGroupRemoval(conn, initiatorGroupName, removedFrom);
+
+            for (String appInstanceName : stillAssigned) {
+                s_logger.warn("Initiator group " + initiatorGroupName + " is still assigned to " + appInstanceName);
+            }
+
+            return results.mapValues((dataObject, removed) -> !stillAssigned.contains(
+                    appInstanceNames.get(dataObject)));
         } finally {
-            lock.unlock();
-            lock.releaseRef();
+            unlockAppInstances(locks);
         }
     }
 
+    /**
+     * Waits until none of the app instances has the initiator group in its ACL
+     * any more, checking all of them with one app_instances listing per poll.
+     * A single app instance, and arrays which do not report ACLs in the
+     * listing, are asked per app instance instead.
+     * @return app instances still listing the group once the time is up
+     */
+    private Set<String> awaitInitiatorGroupRemoval(DateraObject.DateraConnection conn, String initiatorGroupName,
+            Set<String> appInstanceNames) throws DateraObject.DateraError {
+
+        if (appInstanceNames.size() == 1) {
+            return awaitInitiatorGroupRemovalEach(conn, initiatorGroupName, appInstanceNames);
+        }
+
+        // the listing blocks, so it runs on the completion executor rather than the poll scheduler
+        Set<String> stillAssigned = DateraPoller.await(DateraPoller.poll(() -> CompletableFuture.supplyAsync(() -> {
+            try {
+                return DateraUtil.getAppInstancesInAcl(conn, initiatorGroupName, appInstanceNames);
+            } catch (DateraObject.DateraError dateraError) {
+                throw new CompletionException(dateraError);
+            }
+        }, DateraAsyncClient.getCompletionExecutor()), inAcl -> inAcl == null || inAcl.isEmpty()));
+
+        if (stillAssigned != null) {
+            return stillAssigned;
+        }
+
+        return awaitInitiatorGroupRemovalEach(conn, initiatorGroupName, appInstanceNames);
+    }
+
+    /**
+     * Waits until none of the app instances has the initiator group in its ACL
+     * any more, polling each of them
+     * @return app instances still listing the group once the time is up
+     */
+    private Set<String> awaitInitiatorGroupRemovalEach(DateraObject.DateraConnection conn,
+            String initiatorGroupName, Set<String> appInstanceNames) throws DateraObject.DateraError {
+
+        Set<String> stillAssigned = new HashSet<>();
+
+        Map<String, CompletableFuture<Boolean>> results = DateraAsyncClient.runBounded(appInstanceNames,
+                s_maxConcurrentAclUpdates, appInstanceName -> DateraAsyncClient.pollInitiatorGroupAssignment(conn,
+                        appInstanceName, initiatorGroupName, false));
+
+        for (Map.Entry<String, CompletableFuture<Boolean>> result : results.entrySet()) {
+            if (!DateraPoller.await(result.getValue())) {
+                stillAssigned.add(result.getKey());
+            }
+        }
+
+        return stillAssigned;
+    }
+
     /**
      * Returns the size of template on this primary storage. If we already have a
      * template on this storage, we return 0
@@ -468,12 +792,7 @@ public class DateraPrimaryDataStoreDriver implements PrimaryDataStoreDriver {
 
     // Not being used right now as Datera doesn't support min IOPS
     private long getDefaultMinIops(long storagePoolId) {
-        StoragePoolDetailVO storagePoolDetail = _storagePoolDetailsDao.findDetail(storagePoolId,
-                DateraUtil.CLUSTER_DEFAULT_MIN_IOPS);
-
-        String clusterDefaultMinIops = storagePoolDetail.getValue();
-
-        return Long.parseLong(clusterDefaultMinIops);
+        return DateraPoolSettings.get(storagePoolId, _storagePoolDetailsDao).getDefaultMinIops();
     }
 
     /**
@@ -483,12 +802,7 @@ public class DateraPrimaryDataStoreDriver implements PrimaryDataStoreDriver {
      *         added
      */
     private long getDefaultMaxIops(long storagePoolId) {
-        StoragePoolDetailVO storagePoolDetail = _storagePoolDetailsDao.findDetail(storagePoolId,
-                DateraUtil.CLUSTER_DEFAULT_MAX_IOPS);
-
-        String clusterDefaultMaxIops = storagePoolDetail.getValue();
-
-        return Long.parseLong(clusterDefaultMaxIops);
+        return DateraPoolSettings.get(storagePoolId, _storagePoolDetailsDao).getDefaultMaxIops();
     }
 
     /**
@@ -498,13 +812,7 @@ public class DateraPrimaryDataStoreDriver implements PrimaryDataStoreDriver {
      * @return the number of replicas to use
      */
     private int getNumReplicas(long storagePoolId) {
-        StoragePoolDetailVO storagePoolDetail = _storagePoolDetailsDao.findDetail(storagePoolId,
-                DateraUtil.NUM_REPLICAS);
-
-        String clusterDefaultReplicas = storagePoolDetail.getValue();
-
-        return Integer.parseInt(clusterDefaultReplicas);
-
+        return DateraPoolSettings.get(storagePoolId, _storagePoolDetailsDao).getNumReplicas();
     }
 
     /**
@@ -514,13 +822,7 @@ public class DateraPrimaryDataStoreDriver implements PrimaryDataStoreDriver {
      * @return volume placement string
      */
     private String getVolPlacement(long storagePoolId) {
-        StoragePoolDetailVO storagePoolDetail = _storagePoolDetailsDao.findDetail(storagePoolId,
-                DateraUtil.VOL_PLACEMENT);
-
-        String clusterDefaultVolPlacement = storagePoolDetail.getValue();
-
-        return clusterDefaultVolPlacement;
-
+        return DateraPoolSettings.get(storagePoolId, _storagePoolDetailsDao).getVolPlacement();
     }
 
     /**
@@ -529,86 +831,48 @@ public class DateraPrimaryDataStoreDriver implements PrimaryDataStoreDriver {
      * @return IP pool name
      */
     private String getIpPool(long storagePoolId) {
-        String ipPool = DateraUtil.DEFAULT_IP_POOL;
-        StoragePoolDetailVO storagePoolDetail = _storagePoolDetailsDao.findDetail(storagePoolId, DateraUtil.IP_POOL);
-        if (storagePoolDetail != null) {
-            ipPool = storagePoolDetail.getValue();
-        }
-        s_logger.debug("ipPool: " + ipPool);
-        return ipPool;
-
+        return DateraPoolSettings.get(storagePoolId, _storagePoolDetailsDao).getIpPool();
     }
 
     @Override
     public long getUsedBytes(StoragePool storagePool) {
-        return getUsedBytes(storagePool, Long.MIN_VALUE);
+        return DateraUsedBytesLedger.getLedger(storagePool.getId(), _storagePoolDetailsDao)
+                .getUsedBytes(() -> countUsedBytes(storagePool));
     }
 
     /**
-     * Get the total space used by all the entities on the storage.
+     * Count the total space used by all the entities on the storage, which
+     * {@link DateraUsedBytesLedger} starts from and reconciles against.
      * Total space = volume space + snapshot space + template space
-     * @param storagePool      Primary storage
-     * @param volumeIdToIgnore Ignore this volume (used when we delete a volume and
-     *                         want to update the space)
+     * @param storagePool Primary storage
      * @return size in bytes
      */
-    private long getUsedBytes(StoragePool storagePool, long volumeIdToIgnore) {
+    private long countUsedBytes(StoragePool storagePool) {
         long usedSpaceBytes = 0;
 
         List<VolumeVO> lstVolumes = _volumeDao.findByPoolId(storagePool.getId(), null);
 
         if (lstVolumes != null) {
-            for (VolumeVO volume : lstVolumes) {
-                if (volume.getId() == volumeIdToIgnore) {
-                    continue;
-                }
+            Map<Long, Long> volumeSizes = getVolumeSizes(storagePool.getId());
+            Map<String, VolumeVO> volumesWithoutSize = new HashMap<>();
 
-                VolumeDetailVO volumeDetail = volumeDetailsDao.findDetail(volume.getId(), DateraUtil.VOLUME_SIZE);
+            for (VolumeVO volume : lstVolumes) {
+                Long volumeSizeGib = volumeSizes.get(volume.getId());
 
-                if (volumeDetail != null && volumeDetail.getValue() != null) {
-                    long volumeSizeGib = Long.parseLong(volumeDetail.getValue());
-                    long volumeSizeBytes = DateraUtil.gibToBytes((int) (volumeSizeGib));
-                    usedSpaceBytes += volumeSizeBytes;
+                if (volumeSizeGib != null) {
+                    usedSpaceBytes += DateraUtil.gibToBytes(volumeSizeGib.intValue());
                 } else {
-                    DateraObject.DateraConnection conn = DateraUtil.getDateraConnection(storagePool.getId(),
-                            _storagePoolDetailsDao);
-                    try {
-
-                        String appInstanceName = getAppInstanceName(volumeDataFactory.getVolume(volume.getId()));
-                        DateraObject.AppInstance appInstance = DateraUtil.getAppInstance(conn, appInstanceName);
-                        if (appInstance != null) {
-                            usedSpaceBytes += DateraUtil.gibToBytes(appInstance.getSize());
-                        }
-                    } catch (DateraObject.DateraError dateraError) {
-                        String errMesg = "Error getting used bytes for storage pool : " + storagePool.getId();
-                        s_logger.warn(errMesg, dateraError);
-                        throw new CloudRuntimeException(errMesg);
-                    }
+                    volumesWithoutSize.put(getAppInstanceName(volumeDataFactory.getVolume(volume.getId())), volume);
                 }
             }
-        }
-
-        List<SnapshotVO> lstSnapshots = _snapshotDao.listAll();
-
-        if (lstSnapshots != null) {
-            for (SnapshotVO snapshot : lstSnapshots) {
-                SnapshotDetailsVO snapshotDetails = _snapshotDetailsDao.findDetail(snapshot.getId(),
-                        DateraUtil.STORAGE_POOL_ID);
-
-                // if this snapshot belongs to the storagePool that was passed in
-                if (snapshotDetails != null && snapshotDetails.getValue() != null
-                        && Long.parseLong(snapshotDetails.getValue()) == storagePool.getId()) {
-                    snapshotDetails = _snapshotDetailsDao.findDetail(snapshot.getId(), DateraUtil.VOLUME_SIZE);
 
-                    if (snapshotDetails != null && snapshotDetails.getValue() != null) {
-                        long snapshotSize = Long.parseLong(snapshotDetails.getValue());
-
-                        usedSpaceBytes += snapshotSize;
-                    }
-                }
+            if (!volumesWithoutSize.isEmpty()) {
+                usedSpaceBytes += resolveVolumeBytes(storagePool.getId(), volumesWithoutSize);
             }
         }
 
+        usedSpaceBytes += countSnapshotBytes(storagePool.getId());
+
         List<VMTemplateStoragePoolVO> lstTemplatePoolRefs = tmpltPoolDao.listByPoolId(storagePool.getId());
 
         if (lstTemplatePoolRefs != null) {
@@ -622,15 +886,181 @@ public class DateraPrimaryDataStoreDriver implements PrimaryDataStoreDriver {
     }
 
     /**
-     * Get total IOPS used by the storage array. Since Datera doesn't support min
-     * IOPS, return zero for now
+     * Reads the VOLUME_SIZE details of all the volumes on a primary storage
+     * with one query, joining volume_details to volumes
+     * @param storagePoolId Primary storage
+     * @return volume size in GB by volume ID
+     */
+    private Map<Long, Long> getVolumeSizes(long storagePoolId) {
+        SearchBuilder<VolumeVO> volumeSearch = _volumeDao.createSearchBuilder();
+        volumeSearch.and("poolId", volumeSearch.entity().getPoolId(), SearchCriteria.Op.EQ);
+
+        SearchBuilder<VolumeDetailVO> sizeSearch = volumeDetailsDao.createSearchBuilder();
+        sizeSearch.and("name", sizeSearch.entity().getName(), SearchCriteria.Op.EQ);
+        sizeSearch.join("volume", volumeSearch, volumeSearch.entity().getId(), sizeSearch.entity().getResourceId(),
+                JoinBuilder.JoinType.INNER);
+        sizeSearch.done();
+
+        SearchCriteria<VolumeDetailVO> sc = sizeSearch.create();
+        sc.setParameters("name", DateraUtil.VOLUME_SIZE);
+        sc.setJoinParameters("volume", "poolId", storagePoolId);
+
+        Map<Long, Long> volumeSizes = new HashMap<>();
+
+        for (VolumeDetailVO volumeSizeDetail : volumeDetailsDao.search(sc, null)) {
+            if (volumeSizeDetail.getValue() != null) {
+                volumeSizes.put(volumeSizeDetail.getResourceId(), Long.parseLong(volumeSizeDetail.getValue()));
+            }
+        }
+
+        return volumeSizes;
+    }
+
+    /**
+     * Looks up the sizes of volumes which have no VOLUME_SIZE detail in a single
+     * app_instances listing and records them in the volume_details table, so
+     * later counts find them in the database
+     * @param storagePoolId Primary storage
+     * @param volumes       Volumes without a size, by app instance name
+     * @return size in bytes of the volumes found on Datera
+     */
+    private long resolveVolumeBytes(long storagePoolId, Map<String, VolumeVO> volumes) {
+        DateraObject.DateraConnection conn = DateraUtil.getDateraConnection(storagePoolId, _storagePoolDetailsDao);
+
+        Map<Long, Integer> resolvedSizes = new HashMap<>();
+
+        try (DateraListIterator<DateraObject.AppInstance> appInstances = DateraUtil.iterateAppInstances(conn)) {
+            // stop reading once every volume is found
+            while (resolvedSizes.size() < volumes.size() && appInstances.hasNext()) {
+                DateraObject.AppInstance appInstance = appInstances.next();
+                VolumeVO volume = volumes.get(appInstance.getName());
+
+                if (volume != null) {
+                    resolvedSizes.put(volume.getId(), appInstance.getSize());
+                }
+            }
+        } catch (DateraObject.DateraError | IOException e) {
+            String errMesg = "Error getting used bytes for storage pool : " + storagePoolId;
+            s_logger.warn(errMesg, e);
+            throw new CloudRuntimeException(errMesg);
+        }
+
+        long volumeBytes = 0;
+
+        for (Map.Entry<Long, Integer> resolvedSize : resolvedSizes.entrySet()) {
+            volumeDetailsDao.persist(new VolumeDetailVO(resolvedSize.getKey(), DateraUtil.VOLUME_SIZE,
+                    String.valueOf(resolvedSize.getValue()), false));
+
+            volumeBytes += DateraUtil.gibToBytes(resolvedSize.getValue());
+        }
+
+        return volumeBytes;
+    }
+
+    /**
+     * Sums the sizes of the snapshots kept on a primary storage with two
+     * queries: the snapshots whose STORAGE_POOL_ID detail is the pool, joined
+     * to snapshots to skip removed ones, then their VOLUME_SIZE details,
+     * instead of looking both up for every snapshot in the cloud
+     * @param storagePoolId Primary storage
+     * @return size in bytes
+     */
+    private long countSnapshotBytes(long storagePoolId) {
+        SearchBuilder<SnapshotVO> snapshotSearch = _snapshotDao.createSearchBuilder();
+        snapshotSearch.and("removed", snapshotSearch.entity().getRemoved(), SearchCriteria.Op.NULL);
+
+        GenericSearchBuilder<SnapshotDetailsVO, Long> poolSearch = _snapshotDetailsDao.createSearchBuilder(Long.class);
+        poolSearch.selectFields(poolSearch.entity().getResourceId());
+        poolSearch.and("name", poolSearch.entity().getName(), SearchCriteria.Op.EQ);
+        poolSearch.and("value", poolSearch.entity().getValue(), SearchCriteria.Op.EQ);
+        poolSearch.join("snapshot", snapshotSearch, snapshotSearch.entity().getId(),
+                poolSearch.entity().getResourceId(), JoinBuilder.JoinType.INNER);
+        poolSearch.done();
+
+        SearchCriteria<Long> poolSc = poolSearch.create();
+        poolSc.setParameters("name", DateraUtil.STORAGE_POOL_ID);
+        poolSc.setParameters("value", String.valueOf(storagePoolId));
+
+        List<Long> snapshotIds = _snapshotDetailsDao.customSearch(poolSc, null);
+
+        if (snapshotIds.isEmpty()) {
+            return 0;
+        }
+
+        SearchBuilder<SnapshotDetailsVO> sizeSearch = _snapshotDetailsDao.createSearchBuilder();
+        sizeSearch.and("name", sizeSearch.entity().getName(), SearchCriteria.Op.EQ);
+        sizeSearch.and("resourceId", sizeSearch.entity().getResourceId(), SearchCriteria.Op.IN);
+        sizeSearch.done();
+
+        SearchCriteria<SnapshotDetailsVO> sizeSc = sizeSearch.create();
+        sizeSc.setParameters("name", DateraUtil.VOLUME_SIZE);
+        sizeSc.setParameters("resourceId", snapshotIds.toArray());
+
+        long snapshotBytes = 0;
+
+        for (SnapshotDetailsVO snapshotSizeDetail : _snapshotDetailsDao.search(sizeSc, null)) {
+            if (snapshotSizeDetail.getValue() != null) {
+                snapshotBytes += DateraUtil.gibToBytes((int) Long.parseLong(snapshotSizeDetail.getValue()));
+            }
+        }
+
+        return snapshotBytes;
+    }
+
+    /**
+     * Get total IOPS provisioned on the storage array. Since Datera doesn't
+     * support min IOPS, this is the sum of the max IOPS of the volumes
      * @param storagePool primary storage
      * @return total IOPS used
      */
     @Override
     public long getUsedIops(StoragePool storagePool) {
-        long usedIops = 0;
-        return usedIops;
+        return DateraIopsLedger.getLedger(storagePool.getId(), _storagePoolDetailsDao)
+                .getUsedIops(() -> countUsedIops(storagePool));
+    }
+
+    /**
+     * Reads the max IOPS of the app instances backing the volumes on the storage
+     * from a single app_instances listing, which {@link DateraIopsLedger} starts
+     * from and reconciles against
+     * @param storagePool Primary storage
+     * @return max IOPS by app instance name
+     */
+    private Map<String, Integer> countUsedIops(StoragePool storagePool) {
+        Map<String, Integer> appInstanceIops = new HashMap<>();
+        Set<String> appInstanceNames = new HashSet<>();
+
+        List<VolumeVO> lstVolumes = _volumeDao.findByPoolId(storagePool.getId(), null);
+
+        if (lstVolumes != null) {
+            for (VolumeVO volume : lstVolumes) {
+                appInstanceNames.add(getAppInstanceName(volumeDataFactory.getVolume(volume.getId())));
+            }
+        }
+
+        if (appInstanceNames.isEmpty()) {
+            return appInstanceIops;
+        }
+
+        DateraObject.DateraConnection conn = DateraUtil.getDateraConnection(storagePool.getId(),
+                _storagePoolDetailsDao);
+
+        try (DateraListIterator<DateraObject.AppInstance> appInstances = DateraUtil.iterateAppInstances(conn)) {
+            // stop reading once every volume is found
+            while (appInstanceIops.size() < appInstanceNames.size() && appInstances.hasNext()) {
+                DateraObject.AppInstance appInstance = appInstances.next();
+
+                if (appInstanceNames.contains(appInstance.getName())) {
+                    appInstanceIops.put(appInstance.getName(), appInstance.getTotalIops());
+                }
+            }
+        } catch (DateraObject.DateraError | IOException e) {
+            String errMesg = "Error getting used IOPS for storage pool : " + storagePool.getId();
+            s_logger.warn(errMesg, e);
+            throw new CloudRuntimeException(errMesg);
+        }
+
+        return appInstanceIops;
     }
 
     /**
@@ -685,40 +1115,54 @@ public class DateraPrimaryDataStoreDriver implements PrimaryDataStoreDriver {
      *
      * @param volumeInfo    The volume which needs to be deleted
      * @param storagePoolId Primary storage where volume resides
+     * @return future completed once the volume is gone from Datera and the DB
      */
-    private void deleteVolume(VolumeInfo volumeInfo, long storagePoolId) {
+    private CompletableFuture<Void> deleteVolume(VolumeInfo volumeInfo, long storagePoolId) {
 
         DateraObject.DateraConnection conn = DateraUtil.getDateraConnection(storagePoolId, _storagePoolDetailsDao);
         Long volumeStoragePoolId = volumeInfo.getPoolId();
         long volumeId = volumeInfo.getId();
 
         if (volumeStoragePoolId == null) {
-            return; // this volume was never assigned to a storage pool, so no SAN volume should
-                    // exist for it
+            return CompletableFuture.completedFuture(null); // this volume was never assigned to a storage pool, so
+                                                            // no SAN volume should exist for it
         }
 
-        try {
+        // If there are native snapshots on this appInstance, we want to keep it on
+        // Datera
+        // but remove it from cloudstack
+        CompletableFuture<Void> deleteAppInstance = shouldDeleteVolume(volumeId, null)
+                ? DateraAsyncClient.deleteAppInstance(conn, getAppInstanceName(volumeInfo))
+                : CompletableFuture.<Void>completedFuture(null);
+
+        Executor callbackExecutor = DateraAsyncClient.getCallbackExecutor();
 
-            // If there are native snapshots on this appInstance, we want to keep it on
-            // Datera
-            // but remove it from cloudstack
-            if (shouldDeleteVolume(volumeId, null)) {
-                DateraUtil.deleteAppInstance(conn, getAppInstanceName(volumeInfo));
+        return deleteAppInstance.handleAsync((ignored, throwable) -> {
+            if (throwable != null) {
+                String errMesg = "Error deleting app instance for Volume : " + volumeId;
+                s_logger.warn(errMesg, DateraAsyncClient.unwrap(throwable));
+                throw new CloudRuntimeException(errMesg);
+            }
+
+            DateraIopsLedger.getLedger(storagePoolId, _storagePoolDetailsDao).remove(getAppInstanceName(volumeInfo));
+
+            VolumeDetailVO volumeSizeDetail = volumeDetailsDao.findDetail(volumeId, DateraUtil.VOLUME_SIZE);
+
+            if (volumeSizeDetail != null && volumeSizeDetail.getValue() != null) {
+                DateraUsedBytesLedger.getLedger(storagePoolId, _storagePoolDetailsDao)
+                        .add(-DateraUtil.gibToBytes((int) Long.parseLong(volumeSizeDetail.getValue())));
             }
 
             volumeDetailsDao.removeDetails(volumeId);
 
             StoragePoolVO storagePool = storagePoolDao.findById(storagePoolId);
 
-            long usedBytes = getUsedBytes(storagePool, volumeId);
+            long usedBytes = getUsedBytes(storagePool);
             storagePool.setUsedBytes(usedBytes < 0 ? 0 : usedBytes);
             storagePoolDao.update(storagePoolId, storagePool);
 
-        } catch (UnsupportedEncodingException | DateraObject.DateraError e) {
-            String errMesg = "Error deleting app instance for Volume : " + volumeInfo.getId();
-            s_logger.warn(errMesg, e);
-            throw new CloudRuntimeException(errMesg);
-        }
+            return null;
+        }, callbackExecutor);
     }
 
     /**
@@ -738,11 +1182,13 @@ public class DateraPrimaryDataStoreDriver implements PrimaryDataStoreDriver {
      *
      * @param volumeInfo    Info about the volume like size,QoS
      * @param storagePoolId The pool to create the vo
-     * @return returns the IQN path which will be used by storage substem
+     * @return future completed with the IQN path which will be used by storage
+     *         substem. Standard volumes are created without blocking, clones are
+     *         still created synchronously.
      *
      */
 
-    private String createVolume(VolumeInfo volumeInfo, long storagePoolId) {
+    private CompletableFuture<String> createVolume(VolumeInfo volumeInfo, long storagePoolId) {
         s_logger.debug("createVolume() called");
 
         Preconditions.checkArgument(volumeInfo != null, "volumeInfo cannot be null");
@@ -751,6 +1197,7 @@ public class DateraPrimaryDataStoreDriver implements PrimaryDataStoreDriver {
         verifySufficientBytesForStoragePool(volumeInfo, storagePoolId);
 
         DateraObject.AppInstance appInstance;
+        CompletableFuture<DateraObject.AppInstance> appInstanceFuture;
 
         DateraObject.DateraConnection conn = DateraUtil.getDateraConnection(storagePoolId, _storagePoolDetailsDao);
 
@@ -765,6 +1212,7 @@ public class DateraPrimaryDataStoreDriver implements PrimaryDataStoreDriver {
                 // or another volume.
                 s_logger.debug("Creating volume from snapshot ");
                 appInstance = createDateraClone(conn, csSnapshotId, volumeInfo, storagePoolId, DataObjectType.SNAPSHOT);
+                appInstanceFuture = CompletableFuture.completedFuture(appInstance);
 
             } else if (csTemplateId > 0) {
 
@@ -795,11 +1243,12 @@ public class DateraPrimaryDataStoreDriver implements PrimaryDataStoreDriver {
                     // refresh appInstance
                     appInstance = DateraUtil.getAppInstance(conn, appInstanceName);
                 }
+                appInstanceFuture = CompletableFuture.completedFuture(appInstance);
 
             } else {
                 // Just create a standard volume
                 s_logger.debug("Creating a standard volume ");
-                appInstance = createDateraVolume(conn, volumeInfo, storagePoolId);
+                appInstanceFuture = createDateraVolume(conn, volumeInfo, storagePoolId);
             }
         } catch (UnsupportedEncodingException | DateraObject.DateraError e) {
             String errMesg = "Unable to create Volume Error: " + e.getMessage();
@@ -807,6 +1256,29 @@ public class DateraPrimaryDataStoreDriver implements PrimaryDataStoreDriver {
             throw new CloudRuntimeException(errMesg, e);
         }
 
+        return appInstanceFuture.handleAsync((created, throwable) -> {
+            if (throwable != null) {
+                Throwable cause = DateraAsyncClient.unwrap(throwable);
+                String errMesg = "Unable to create Volume Error: " + cause.getMessage();
+                s_logger.warn(errMesg);
+                throw new CloudRuntimeException(errMesg, cause);
+            }
+
+            return updateCreatedVolume(volumeInfo, storagePoolId, created);
+        }, DateraAsyncClient.getCallbackExecutor());
+    }
+
+    /**
+     * Records a newly created app instance against its CloudStack volume and
+     * refreshes the used bytes of the pool
+     *
+     * @param volumeInfo    the volume which was created
+     * @param storagePoolId primary storage the volume was created on
+     * @param appInstance   the app instance backing the volume
+     * @return IQN of the app instance
+     */
+    private String updateCreatedVolume(VolumeInfo volumeInfo, long storagePoolId,
+            DateraObject.AppInstance appInstance) {
         if (appInstance == null) {
             String errMesg = "appInstance returned null";
             s_logger.warn(errMesg);
@@ -828,7 +1300,10 @@ public class DateraPrimaryDataStoreDriver implements PrimaryDataStoreDriver {
 
         _volumeDao.update(volumeVo.getId(), volumeVo);
 
-        updateVolumeDetails(volumeVo.getId(), appInstance.getSize());
+        updateVolumeDetails(volumeVo.getId(), storagePoolId, appInstance.getSize());
+
+        DateraIopsLedger.getLedger(storagePoolId, _storagePoolDetailsDao)
+                .put(appInstance.getName(), appInstance.getTotalIops());
 
         StoragePoolVO storagePool = _storagePoolDao.findById(storagePoolId);
 
@@ -848,15 +1323,13 @@ public class DateraPrimaryDataStoreDriver implements PrimaryDataStoreDriver {
      * @param conn          Datera connection
      * @param volumeInfo    Volume information
      * @param storagePoolId primary storage
-     * @return The AppInstance which is created
-     * @throws UnsupportedEncodingException
-     * @throws                              DateraObject.DateraError
+     * @return future completed with the AppInstance once it is available
      */
-    private DateraObject.AppInstance createDateraVolume(DateraObject.DateraConnection conn, VolumeInfo volumeInfo,
-            long storagePoolId) throws UnsupportedEncodingException, DateraObject.DateraError {
+    private CompletableFuture<DateraObject.AppInstance> createDateraVolume(DateraObject.DateraConnection conn,
+            VolumeInfo volumeInfo, long storagePoolId) {
 
         s_logger.debug("createDateraVolume() called");
-        DateraObject.AppInstance appInstance = null;
+        CompletableFuture<DateraObject.AppInstance> appInstance;
         try {
 
             int minIops = Ints.checkedCast(
@@ -881,15 +1354,16 @@ public class DateraPrimaryDataStoreDriver implements PrimaryDataStoreDriver {
                     _storagePoolDao.findById(storagePoolId));
             int volumeSizeGib = DateraUtil.bytesToGib(volumeSizeBytes);
             if (volumePlacement == null) {
-                appInstance = DateraUtil.createAppInstance(conn, getAppInstanceName(volumeInfo), volumeSizeGib, maxIops,
-                        replicas);
+                appInstance = DateraAsyncClient.createAppInstance(conn, getAppInstanceName(volumeInfo), volumeSizeGib,
+                        maxIops, replicas);
             } else {
-                appInstance = DateraUtil.createAppInstance(conn, getAppInstanceName(volumeInfo), volumeSizeGib, maxIops,
-                        replicas, volumePlacement, ipPool);
+                appInstance = DateraAsyncClient.createAppInstance(conn, getAppInstanceName(volumeInfo), volumeSizeGib,
+                        maxIops, replicas, volumePlacement, ipPool);
             }
         } catch (Exception ex) {
             s_logger.debug("createDateraVolume() failed");
             s_logger.error(ex);
+            appInstance = DateraAsyncClient.failedFuture(ex);
         }
         return appInstance;
     }
@@ -1078,68 +1552,93 @@ public class DateraPrimaryDataStoreDriver implements PrimaryDataStoreDriver {
      * @return IQN of the template volume
      */
     public String createTemplateVolume(TemplateInfo templateInfo, long storagePoolId) {
+        return DateraAsyncClient.join(createTemplateVolumeAsync(templateInfo, storagePoolId));
+    }
+
+    private CompletableFuture<String> createTemplateVolumeAsync(TemplateInfo templateInfo, long storagePoolId) {
         s_logger.debug("createTemplateVolume() as cache template called");
 
         verifySufficientBytesForStoragePool(templateInfo, storagePoolId);
 
         DateraObject.DateraConnection conn = DateraUtil.getDateraConnection(storagePoolId, _storagePoolDetailsDao);
 
-        String iqn = null;
-        String appInstanceName = null;
-        try {
+        long templateSizeBytes = getDataObjectSizeIncludingHypervisorSnapshotReserve(templateInfo,
+                storagePoolDao.findById(storagePoolId));
 
-            long templateSizeBytes = getDataObjectSizeIncludingHypervisorSnapshotReserve(templateInfo,
-                    storagePoolDao.findById(storagePoolId));
+        s_logger.debug("cached VM template sizeBytes: " + String.valueOf(templateSizeBytes));
 
-            s_logger.debug("cached VM template sizeBytes: " + String.valueOf(templateSizeBytes));
+        int templateSizeGib = DateraUtil.bytesToGib(templateSizeBytes);
 
-            int templateSizeGib = DateraUtil.bytesToGib(templateSizeBytes);
+        int templateIops = DateraUtil.MAX_IOPS;
+        int replicaCount = getNumReplicas(storagePoolId);
+        String appInstanceName = getAppInstanceName(templateInfo);
+        String volumePlacement = getVolPlacement(storagePoolId);
+        String ipPool = getIpPool(storagePoolId);
 
-            int templateIops = DateraUtil.MAX_IOPS;
-            int replicaCount = getNumReplicas(storagePoolId);
-            appInstanceName = getAppInstanceName(templateInfo);
-            String volumePlacement = getVolPlacement(storagePoolId);
-            String ipPool = getIpPool(storagePoolId);
+        s_logger.debug("cached VM template app_instance: " + appInstanceName + " ipPool: " + ipPool + " sizeGib: " + String.valueOf(templateSizeGib));
 
-            s_logger.debug("cached VM template app_instance: " + appInstanceName + " ipPool: " + ipPool + " sizeGib: " + String.valueOf(templateSizeGib));
-            DateraObject.AppInstance appInstance = DateraUtil.createAppInstance(conn, appInstanceName, templateSizeGib,
-                    templateIops, replicaCount, volumePlacement, ipPool);
+        return DateraAsyncClient.createAppInstance(conn, appInstanceName, templateSizeGib, templateIops,
+                replicaCount, volumePlacement, ipPool).handleAsync((appInstance, throwable) -> {
+                    Throwable cause = DateraAsyncClient.unwrap(throwable);
 
-            if (appInstance == null) {
-                throw new CloudRuntimeException("Unable to create Template volume " + templateInfo.getId());
-            }
+                    if (cause == null) {
+                        return updateCreatedTemplateVolume(templateInfo, storagePoolId, appInstance);
+                    }
 
-            iqn = appInstance.getIqn();
+                    if (cause instanceof DateraObject.DateraError
+                            && DateraObject.DateraErrorTypes.ConflictError.equals((DateraObject.DateraError) cause)) {
+                        String errMesg = "template app Instance " + appInstanceName + " exists";
+                        s_logger.debug(errMesg, cause);
+                        return DateraUtil.generateIqnPath(null);
+                    }
 
-            VMTemplateStoragePoolVO templatePoolRef = tmpltPoolDao.findByPoolTemplate(storagePoolId,
-                    templateInfo.getId());
+                    String errMesg = "Unable to create template app Instance " + cause.getMessage();
+                    s_logger.error(errMesg, cause);
+                    throw new CloudRuntimeException(errMesg, cause);
+                }, DateraAsyncClient.getCallbackExecutor());
+    }
 
-            templatePoolRef.setInstallPath(DateraUtil.generateIqnPath(iqn));
-            templatePoolRef.setLocalDownloadPath(appInstance.getName());
-            templatePoolRef.setTemplateSize(DateraUtil.gibToBytes(appInstance.getSize()));
+    /**
+     * Records a newly created template app instance in template_spool_ref and
+     * refreshes the used bytes of the pool
+     *
+     * @param templateInfo  the template which was created
+     * @param storagePoolId primary storage the template was created on
+     * @param appInstance   the app instance backing the template
+     * @return IQN path of the template volume
+     */
+    private String updateCreatedTemplateVolume(TemplateInfo templateInfo, long storagePoolId,
+            DateraObject.AppInstance appInstance) {
+        if (appInstance == null) {
+            throw new CloudRuntimeException("Unable to create Template volume " + templateInfo.getId());
+        }
 
-            tmpltPoolDao.update(templatePoolRef.getId(), templatePoolRef);
+        String iqn = appInstance.getIqn();
 
-            StoragePoolVO storagePool = storagePoolDao.findById(storagePoolId);
+        VMTemplateStoragePoolVO templatePoolRef = tmpltPoolDao.findByPoolTemplate(storagePoolId,
+                templateInfo.getId());
 
-            long capacityBytes = storagePool.getCapacityBytes();
+        long previousTemplateSize = templatePoolRef.getTemplateSize();
 
-            long usedBytes = getUsedBytes(storagePool);
+        templatePoolRef.setInstallPath(DateraUtil.generateIqnPath(iqn));
+        templatePoolRef.setLocalDownloadPath(appInstance.getName());
+        templatePoolRef.setTemplateSize(DateraUtil.gibToBytes(appInstance.getSize()));
 
-            storagePool.setUsedBytes(usedBytes > capacityBytes ? capacityBytes : usedBytes);
+        tmpltPoolDao.update(templatePoolRef.getId(), templatePoolRef);
 
-            storagePoolDao.update(storagePoolId, storagePool);
+        DateraUsedBytesLedger.getLedger(storagePoolId, _storagePoolDetailsDao)
+                .add(templatePoolRef.getTemplateSize() - previousTemplateSize);
+
+        StoragePoolVO storagePool = storagePoolDao.findById(storagePoolId);
+
+        long capacityBytes = storagePool.getCapacityBytes();
+
+        long usedBytes = getUsedBytes(storagePool);
+
+        storagePool.setUsedBytes(usedBytes > capacityBytes ? capacityBytes : usedBytes);
+
+        storagePoolDao.update(storagePoolId, storagePool);
 
-        } catch (UnsupportedEncodingException | DateraObject.DateraError dateraError) {
-            if (DateraObject.DateraErrorTypes.ConflictError.equals(dateraError)) {
-                String errMesg = "template app Instance " + appInstanceName + " exists";
-                s_logger.debug(errMesg, dateraError);
-            } else {
-                String errMesg = "Unable to create template app Instance " + dateraError.getMessage();
-                s_logger.error(errMesg, dateraError);
-                throw new CloudRuntimeException(errMesg, dateraError);
-            }
-        }
         return DateraUtil.generateIqnPath(iqn);
     }
 
@@ -1149,61 +1648,91 @@ public class DateraPrimaryDataStoreDriver implements PrimaryDataStoreDriver {
      *
      * @param dataStore
      * @param dataObject
-     * @param callback
+     * @param callback   completed once the Datera calls finish, without holding
+     *                   the calling thread. If null the call blocks instead.
      */
     @Override
     public void createAsync(DataStore dataStore, DataObject dataObject,
             AsyncCompletionCallback<CreateCmdResult> callback) {
-        String iqn = null;
-        String errMsg = null;
+        Executor callbackExecutor = DateraAsyncClient.getCallbackExecutor();
+        CompletableFuture<String> iqnFuture;
 
         try {
             if (dataObject.getType() == DataObjectType.VOLUME) {
                 s_logger.debug("createAsync - creating volume");
-                iqn = createVolume((VolumeInfo) dataObject, dataStore.getId());
+                iqnFuture = createVolume((VolumeInfo) dataObject, dataStore.getId());
             } else if (dataObject.getType() == DataObjectType.SNAPSHOT) {
                 s_logger.debug("createAsync - creating snapshot");
                 createTempVolume((SnapshotInfo) dataObject, dataStore.getId());
+                iqnFuture = CompletableFuture.completedFuture(null);
             } else if (dataObject.getType() == DataObjectType.TEMPLATE) {
                 s_logger.debug("createAsync - creating template");
-                iqn = createTemplateVolume((TemplateInfo) dataObject, dataStore.getId());
+                iqnFuture = createTemplateVolumeAsync((TemplateInfo) dataObject, dataStore.getId());
             } else {
-                errMsg = "Invalid DataObjectType (" + dataObject.getType() + ") passed to createAsync";
+                String errMsg = "Invalid DataObjectType (" + dataObject.getType() + ") passed to createAsync";
                 s_logger.error(errMsg);
+                iqnFuture = DateraAsyncClient.failedFuture(new CloudRuntimeException(errMsg));
             }
         } catch (Exception ex) {
-            errMsg = ex.getMessage();
-
-            s_logger.error(errMsg);
+            s_logger.error(ex.getMessage());
 
             if (callback == null) {
                 throw ex;
             }
+
+            iqnFuture = DateraAsyncClient.failedFuture(ex);
+        }
+
+        if (callback == null) {
+            DateraAsyncClient.join(iqnFuture);
+            return;
         }
 
-        if (callback != null) {
+        iqnFuture.whenCompleteAsync((iqn, throwable) -> {
+            String errMsg = null;
+
+            if (throwable != null) {
+                errMsg = DateraAsyncClient.unwrap(throwable).getMessage();
+
+                s_logger.error(errMsg);
+            }
 
             CreateCmdResult result = new CreateCmdResult(iqn, new Answer(null, errMsg == null, errMsg));
 
             result.setResult(errMsg);
 
             callback.complete(result);
-        }
+        }, callbackExecutor);
     }
 
     /**
      * Helper function which updates volume size in the volume_details table
-     * @param volumeId   Volume information
-     * @param volumeSize Size in GB
+     * and the used bytes of the primary storage
+     * @param volumeId      Volume information
+     * @param storagePoolId Primary storage
+     * @param volumeSize    Size in GB
      */
-    private void updateVolumeDetails(long volumeId, long volumeSize) {
+    private void updateVolumeDetails(long volumeId, long storagePoolId, long volumeSize) {
         VolumeDetailVO volumeDetailVo = volumeDetailsDao.findDetail(volumeId, DateraUtil.VOLUME_SIZE);
 
-        if (volumeDetailVo == null || volumeDetailVo.getValue() == null) {
-            volumeDetailVo = new VolumeDetailVO(volumeId, DateraUtil.VOLUME_SIZE, String.valueOf(volumeSize), false);
+        long previousVolumeSize = 0;
 
-            volumeDetailsDao.persist(volumeDetailVo);
+        if (volumeDetailVo != null && volumeDetailVo.getValue() != null) {
+            previousVolumeSize = Long.parseLong(volumeDetailVo.getValue());
+
+            if (previousVolumeSize == volumeSize) {
+                return;
+            }
+
+            volumeDetailsDao.removeDetail(volumeId, DateraUtil.VOLUME_SIZE);
         }
+
+        volumeDetailVo = new VolumeDetailVO(volumeId, DateraUtil.VOLUME_SIZE, String.valueOf(volumeSize), false);
+
+        volumeDetailsDao.persist(volumeDetailVo);
+
+        DateraUsedBytesLedger.getLedger(storagePoolId, _storagePoolDetailsDao).add(
+                DateraUtil.gibToBytes((int) volumeSize) - DateraUtil.gibToBytes((int) previousVolumeSize));
     }
 
     /**
@@ -1217,33 +1746,42 @@ public class DateraPrimaryDataStoreDriver implements PrimaryDataStoreDriver {
     @Override
     public void deleteAsync(DataStore dataStore, DataObject dataObject,
             AsyncCompletionCallback<CommandResult> callback) {
-        String errMsg = null;
+        Executor callbackExecutor = DateraAsyncClient.getCallbackExecutor();
+        CompletableFuture<Void> deleteFuture;
 
         try {
             if (dataObject.getType() == DataObjectType.VOLUME) {
                 s_logger.debug("deleteAsync - deleting volume");
-                deleteVolume((VolumeInfo) dataObject, dataStore.getId());
+                deleteFuture = deleteVolume((VolumeInfo) dataObject, dataStore.getId());
             } else if (dataObject.getType() == DataObjectType.SNAPSHOT) {
                 s_logger.debug("deleteAsync - deleting snapshot");
-                deleteSnapshot((SnapshotInfo) dataObject, dataStore.getId());
+                deleteFuture = deleteSnapshot((SnapshotInfo) dataObject, dataStore.getId());
             } else if (dataObject.getType() == DataObjectType.TEMPLATE) {
                 s_logger.debug("deleteAsync - deleting template");
-                deleteTemplate((TemplateInfo) dataObject, dataStore.getId());
+                deleteFuture = deleteTemplate((TemplateInfo) dataObject, dataStore.getId());
             } else {
-                errMsg = "Invalid DataObjectType (" + dataObject.getType() + ") passed to deleteAsync";
+                deleteFuture = DateraAsyncClient.failedFuture(new CloudRuntimeException(
+                        "Invalid DataObjectType (" + dataObject.getType() + ") passed to deleteAsync"));
             }
         } catch (Exception ex) {
-            errMsg = ex.getMessage();
-
-            s_logger.error(errMsg);
+            deleteFuture = DateraAsyncClient.failedFuture(ex);
         }
 
-        CommandResult result = new CommandResult();
+        deleteFuture.whenCompleteAsync((ignored, throwable) -> {
+            String errMsg = null;
 
-        result.setResult(errMsg);
+            if (throwable != null) {
+                errMsg = DateraAsyncClient.unwrap(throwable).getMessage();
 
-        callback.complete(result);
+                s_logger.error(errMsg);
+            }
+
+            CommandResult result = new CommandResult();
+
+            result.setResult(errMsg);
 
+            callback.complete(result);
+        }, callbackExecutor);
     }
 
     @Override
@@ -1269,7 +1807,8 @@ public class DateraPrimaryDataStoreDriver implements PrimaryDataStoreDriver {
     public void takeSnapshot(SnapshotInfo snapshotInfo, AsyncCompletionCallback<CreateCmdResult> callback) {
         s_logger.debug("takeSnapshot() called");
 
-        CreateCmdResult result;
+        Executor callbackExecutor = DateraAsyncClient.getCallbackExecutor();
+        CompletableFuture<SnapshotObjectTO> snapshotFuture;
 
         try {
 
@@ -1282,76 +1821,113 @@ public class DateraPrimaryDataStoreDriver implements PrimaryDataStoreDriver {
 
             String baseAppInstanceName = getAppInstanceName(volumeInfo);
 
-            DateraObject.AppInstance baseAppInstance = DateraUtil.getAppInstance(conn, baseAppInstanceName);
+            SnapshotObjectTO snapshotObjectTo = (SnapshotObjectTO) snapshotInfo.getTO();
 
-            Preconditions.checkNotNull(baseAppInstance);
+            CompletableFuture<DateraObject.AppInstance> baseAppInstanceFuture = DateraAsyncClient.getAppInstance(conn,
+                    baseAppInstanceName);
 
-            SnapshotObjectTO snapshotObjectTo = (SnapshotObjectTO) snapshotInfo.getTO();
+            // shouldTakeSnapshot and the snapshot paths read the DB
+            snapshotFuture = baseAppInstanceFuture.thenComposeAsync(baseAppInstance -> {
 
-            if (shouldTakeSnapshot(snapshotInfo.getId())) {
+                Preconditions.checkNotNull(baseAppInstance);
 
-                DateraObject.VolumeSnapshot volumeSnapshot = DateraUtil.takeVolumeSnapshot(conn, baseAppInstanceName);
-                if (volumeSnapshot == null) {
-                    s_logger.error("Unable to take native snapshot appInstance name:" + baseAppInstanceName
-                            + " volume ID " + volumeInfo.getId());
-                    throw new CloudRuntimeException("Unable to take native snapshot for volume " + volumeInfo.getId());
+                if (shouldTakeSnapshot(snapshotInfo.getId())) {
+                    return takeNativeSnapshot(conn, snapshotInfo, volumeInfo, storagePoolId, baseAppInstance,
+                            snapshotObjectTo, callbackExecutor);
                 }
 
-                String snapshotName = baseAppInstanceName + ":" + volumeSnapshot.getTimestamp();
-                updateSnapshotDetails(snapshotInfo.getId(), baseAppInstanceName, snapshotName, storagePoolId,
-                        baseAppInstance.getSize());
+                return takeSnapshotAsVolume(conn, snapshotInfo, storagePoolId, baseAppInstance, snapshotObjectTo,
+                        callbackExecutor);
+            }, callbackExecutor);
+        } catch (Exception ex) {
+            snapshotFuture = DateraAsyncClient.failedFuture(ex);
+        }
 
-                snapshotObjectTo.setPath("DateraSnapshotId=" + snapshotName);
-                s_logger.info(" snapshot taken: " + snapshotName);
+        snapshotFuture.whenCompleteAsync((snapshotObjectTo, throwable) -> {
+            CreateCmdResult result;
 
-            } else {
+            if (throwable == null) {
+                CreateObjectAnswer createObjectAnswer = new CreateObjectAnswer(snapshotObjectTo);
 
-                StoragePoolVO storagePool = _storagePoolDao.findById(storagePoolId);
+                result = new CreateCmdResult(null, createObjectAnswer);
 
-                long capacityBytes = storagePool.getCapacityBytes();
-                long usedBytes = getUsedBytes(storagePool);
-                int volumeSizeGib = baseAppInstance.getSize();
-                long volumeSizeBytes = DateraUtil.gibToBytes(volumeSizeGib);
-                String volumePlacement = getVolPlacement(storagePoolId);
-                String ipPool = getIpPool(storagePoolId);
+                result.setResult(null);
+            } else {
+                Throwable ex = DateraAsyncClient.unwrap(throwable);
 
-                usedBytes += volumeSizeBytes;
+                s_logger.debug("Failed to take CloudStack snapshot: " + snapshotInfo.getId(), ex);
 
-                if (usedBytes > capacityBytes) {
-                    throw new CloudRuntimeException(
-                            "Insufficient amount of space remains in this primary storage to create a snapshot volume");
-                }
+                result = new CreateCmdResult(null, new CreateObjectAnswer(ex.toString()));
 
-                String appInstanceName = getAppInstanceName(snapshotInfo);
-                DateraObject.AppInstance snapshotAppInstance = DateraUtil.createAppInstance(conn, appInstanceName,
-                        volumeSizeGib, DateraUtil.MAX_IOPS, getNumReplicas(storagePoolId), volumePlacement, ipPool);
+                result.setResult(ex.toString());
+            }
+
+            callback.complete(result);
+        }, callbackExecutor);
+    }
 
-                snapshotObjectTo.setPath(snapshotAppInstance.getName());
-                String iqnPath = DateraUtil.generateIqnPath(snapshotAppInstance.getIqn());
-                updateSnapshotDetails(snapshotInfo.getId(), snapshotAppInstance.getName(), storagePoolId,
-                        snapshotAppInstance.getSize(), iqnPath);
+    private CompletableFuture<SnapshotObjectTO> takeNativeSnapshot(DateraObject.DateraConnection conn,
+            SnapshotInfo snapshotInfo, VolumeInfo volumeInfo, long storagePoolId,
+            DateraObject.AppInstance baseAppInstance, SnapshotObjectTO snapshotObjectTo, Executor callbackExecutor) {
 
-                snapshotObjectTo.setPath("DateraVolumeId=" + snapshotAppInstance.getName());
+        String baseAppInstanceName = baseAppInstance.getName();
 
-                storagePool.setUsedBytes(usedBytes);
-                // update size in storage pool
-                _storagePoolDao.update(storagePoolId, storagePool);
+        return DateraAsyncClient.takeVolumeSnapshot(conn, baseAppInstanceName).thenApplyAsync(volumeSnapshot -> {
+            if (volumeSnapshot == null) {
+                s_logger.error("Unable to take native snapshot appInstance name:" + baseAppInstanceName
+                        + " volume ID " + volumeInfo.getId());
+                throw new CloudRuntimeException("Unable to take native snapshot for volume " + volumeInfo.getId());
             }
 
-            CreateObjectAnswer createObjectAnswer = new CreateObjectAnswer(snapshotObjectTo);
+            String snapshotName = baseAppInstanceName + ":" + volumeSnapshot.getTimestamp();
+            updateSnapshotDetails(snapshotInfo.getId(), baseAppInstanceName, snapshotName, storagePoolId,
+                    baseAppInstance.getSize());
 
-            result = new CreateCmdResult(null, createObjectAnswer);
+            snapshotObjectTo.setPath("DateraSnapshotId=" + snapshotName);
+            s_logger.info(" snapshot taken: " + snapshotName);
 
-            result.setResult(null);
-        } catch (Exception ex) {
-            s_logger.debug("Failed to take CloudStack snapshot: " + snapshotInfo.getId(), ex);
+            return snapshotObjectTo;
+        }, callbackExecutor);
+    }
 
-            result = new CreateCmdResult(null, new CreateObjectAnswer(ex.toString()));
+    private CompletableFuture<SnapshotObjectTO> takeSnapshotAsVolume(DateraObject.DateraConnection conn,
+            SnapshotInfo snapshotInfo, long storagePoolId, DateraObject.AppInstance baseAppInstance,
+            SnapshotObjectTO snapshotObjectTo, Executor callbackExecutor) {
 
-            result.setResult(ex.toString());
+        StoragePoolVO storagePool = _storagePoolDao.findById(storagePoolId);
+
+        long capacityBytes = storagePool.getCapacityBytes();
+        long usedBytes = getUsedBytes(storagePool);
+        int volumeSizeGib = baseAppInstance.getSize();
+        long volumeSizeBytes = DateraUtil.gibToBytes(volumeSizeGib);
+        String volumePlacement = getVolPlacement(storagePoolId);
+        String ipPool = getIpPool(storagePoolId);
+
+        usedBytes += volumeSizeBytes;
+
+        if (usedBytes > capacityBytes) {
+            throw new CloudRuntimeException(
+                    "Insufficient amount of space remains in this primary storage to create a snapshot volume");
         }
 
-        callback.complete(result);
+        String appInstanceName = getAppInstanceName(snapshotInfo);
+
+        return DateraAsyncClient.createAppInstance(conn, appInstanceName, volumeSizeGib, DateraUtil.MAX_IOPS,
+                getNumReplicas(storagePoolId), volumePlacement, ipPool).thenApplyAsync(snapshotAppInstance -> {
+
+                    snapshotObjectTo.setPath(snapshotAppInstance.getName());
+                    String iqnPath = DateraUtil.generateIqnPath(snapshotAppInstance.getIqn());
+                    updateSnapshotDetails(snapshotInfo.getId(), snapshotAppInstance.getName(), storagePoolId,
+                            snapshotAppInstance.getSize(), iqnPath);
+
+                    snapshotObjectTo.setPath("DateraVolumeId=" + snapshotAppInstance.getName());
+
+                    storagePool.setUsedBytes(Math.min(getUsedBytes(storagePool), capacityBytes));
+                    // update size in storage pool
+                    _storagePoolDao.update(storagePoolId, storagePool);
+
+                    return snapshotObjectTo;
+                }, callbackExecutor);
     }
 
     /**
@@ -1385,6 +1961,9 @@ public class DateraPrimaryDataStoreDriver implements PrimaryDataStoreDriver {
                 false);
 
         snapshotDetailsDao.persist(snapshotDetail);
+
+        DateraUsedBytesLedger.getLedger(storagePoolId, _storagePoolDetailsDao)
+                .add(DateraUtil.gibToBytes((int) newVolumeSize));
     }
 
     /**
@@ -1416,6 +1995,9 @@ public class DateraPrimaryDataStoreDriver implements PrimaryDataStoreDriver {
 
         _snapshotDetailsDao.persist(snapshotDetail);
 
+        DateraUsedBytesLedger.getLedger(storagePoolId, _storagePoolDetailsDao)
+                .add(DateraUtil.gibToBytes((int) snapshotSizeGb));
+
         snapshotDetail = new SnapshotDetailsVO(csSnapshotId, DiskTO.IQN, snapshotIqn, false);
 
         _snapshotDetailsDao.persist(snapshotDetail);
@@ -1425,39 +2007,44 @@ public class DateraPrimaryDataStoreDriver implements PrimaryDataStoreDriver {
      * Deletes snapshot on Datera
      * @param snapshotInfo  snapshot information
      * @param storagePoolId primary storage
-     * @throws UnsupportedEncodingException
-     * @throws                              DateraObject.DateraError
+     * @return future completed once the snapshot is deleted
      */
-    private void deleteSnapshot(SnapshotInfo snapshotInfo, long storagePoolId)
-            throws UnsupportedEncodingException, DateraObject.DateraError {
+    private CompletableFuture<Void> deleteSnapshot(SnapshotInfo snapshotInfo, long storagePoolId) {
 
         long csSnapshotId = snapshotInfo.getId();
 
+        Executor callbackExecutor = DateraAsyncClient.getCallbackExecutor();
+
         try {
             DateraObject.DateraConnection conn = DateraUtil.getDateraConnection(storagePoolId, _storagePoolDetailsDao);
 
             SnapshotDetailsVO snapshotDetails = snapshotDetailsDao.findDetail(csSnapshotId, DateraUtil.SNAPSHOT_ID);
 
+            CompletableFuture<Void> deleteFuture;
+
             if (snapshotDetails != null && snapshotDetails.getValue() != null) {
                 // Native snapshot being used, delete that
 
                 String snapshotName = snapshotDetails.getValue();
 
-                DateraUtil.deleteVolumeSnapshot(conn, snapshotName);
+                deleteFuture = DateraAsyncClient.deleteVolumeSnapshot(conn, snapshotName).thenComposeAsync(ignored -> {
 
-                // check if the underlying volume needs to be deleted
-                SnapshotVO snapshot = _snapshotDao.findById(csSnapshotId);
-                VolumeVO volume = _volumeDao.findById(snapshot.getVolumeId());
+                    // check if the underlying volume needs to be deleted
+                    SnapshotVO snapshot = _snapshotDao.findById(csSnapshotId);
+                    VolumeVO volume = _volumeDao.findById(snapshot.getVolumeId());
 
-                if (volume == null) {
+                    if (volume == null) {
 
-                    // deleted from Cloudstack. Check if other snapshots are using this volume
-                    volume = _volumeDao.findByIdIncludingRemoved(snapshot.getVolumeId());
+                        // deleted from Cloudstack. Check if other snapshots are using this volume
+                        volume = _volumeDao.findByIdIncludingRemoved(snapshot.getVolumeId());
 
-                    if (shouldDeleteVolume(snapshot.getVolumeId(), snapshot.getId())) {
-                        DateraUtil.deleteAppInstance(conn, volume.getFolder());
+                        if (shouldDeleteVolume(snapshot.getVolumeId(), snapshot.getId())) {
+                            return DateraAsyncClient.deleteAppInstance(conn, volume.getFolder());
+                        }
                     }
-                }
+
+                    return CompletableFuture.<Void>completedFuture(null);
+                }, callbackExecutor);
             } else {
 
                 // An App Instance is being used to support the CloudStack volume snapshot.
@@ -1465,20 +2052,35 @@ public class DateraPrimaryDataStoreDriver implements PrimaryDataStoreDriver {
                 snapshotDetails = snapshotDetailsDao.findDetail(csSnapshotId, DateraUtil.VOLUME_ID);
                 String appInstanceName = snapshotDetails.getValue();
 
-                DateraUtil.deleteAppInstance(conn, appInstanceName);
+                deleteFuture = DateraAsyncClient.deleteAppInstance(conn, appInstanceName);
             }
 
-            snapshotDetailsDao.removeDetails(csSnapshotId);
+            return deleteFuture.thenRunAsync(() -> {
+                SnapshotDetailsVO snapshotSizeDetail = snapshotDetailsDao.findDetail(csSnapshotId,
+                        DateraUtil.VOLUME_SIZE);
 
-            StoragePoolVO storagePool = storagePoolDao.findById(storagePoolId);
+                if (snapshotSizeDetail != null && snapshotSizeDetail.getValue() != null) {
+                    DateraUsedBytesLedger.getLedger(storagePoolId, _storagePoolDetailsDao)
+                            .add(-DateraUtil.gibToBytes((int) Long.parseLong(snapshotSizeDetail.getValue())));
+                }
 
-            // getUsedBytes(StoragePool) will not include the snapshot to delete because it
-            // has already been deleted by this point
-            long usedBytes = getUsedBytes(storagePool);
+                snapshotDetailsDao.removeDetails(csSnapshotId);
 
-            storagePool.setUsedBytes(usedBytes < 0 ? 0 : usedBytes);
+                StoragePoolVO storagePool = storagePoolDao.findById(storagePoolId);
 
-            storagePoolDao.update(storagePoolId, storagePool);
+                // getUsedBytes(StoragePool) will not include the snapshot to delete because it
+                // has already been deleted by this point
+                long usedBytes = getUsedBytes(storagePool);
+
+                storagePool.setUsedBytes(usedBytes < 0 ? 0 : usedBytes);
+
+                storagePoolDao.update(storagePoolId, storagePool);
+            }, callbackExecutor).whenComplete((ignored, throwable) -> {
+                if (throwable != null) {
+                    s_logger.debug("Error in 'deleteSnapshot(SnapshotInfo, long)'. CloudStack snapshot ID: "
+                            + csSnapshotId, DateraAsyncClient.unwrap(throwable));
+                }
+            });
         } catch (Exception ex) {
             s_logger.debug("Error in 'deleteSnapshot(SnapshotInfo, long)'. CloudStack snapshot ID: " + csSnapshotId,
                     ex);
@@ -1490,32 +2092,38 @@ public class DateraPrimaryDataStoreDriver implements PrimaryDataStoreDriver {
      * Deletes a template from Datera
      * @param templateInfo  Information about Template
      * @param storagePoolId Primary storage
-     * @throws UnsupportedEncodingException
-     * @throws                              DateraObject.DateraError
+     * @return future completed once the template is deleted
      */
-    private void deleteTemplate(TemplateInfo templateInfo, long storagePoolId)
-            throws UnsupportedEncodingException, DateraObject.DateraError {
+    private CompletableFuture<Void> deleteTemplate(TemplateInfo templateInfo, long storagePoolId) {
         try {
             DateraObject.DateraConnection conn = DateraUtil.getDateraConnection(storagePoolId, _storagePoolDetailsDao);
 
             String appInstanceName = getAppInstanceName(templateInfo);
 
-            DateraUtil.deleteAppInstance(conn, appInstanceName);
+            return DateraAsyncClient.deleteAppInstance(conn, appInstanceName).thenRunAsync(() -> {
+                VMTemplateStoragePoolVO templatePoolRef = tmpltPoolDao.findByPoolTemplate(storagePoolId,
+                        templateInfo.getId());
 
-            VMTemplateStoragePoolVO templatePoolRef = tmpltPoolDao.findByPoolTemplate(storagePoolId,
-                    templateInfo.getId());
+                tmpltPoolDao.remove(templatePoolRef.getId());
 
-            tmpltPoolDao.remove(templatePoolRef.getId());
+                DateraUsedBytesLedger.getLedger(storagePoolId, _storagePoolDetailsDao)
+                        .add(-templatePoolRef.getTemplateSize());
 
-            StoragePoolVO storagePool = storagePoolDao.findById(storagePoolId);
+                StoragePoolVO storagePool = storagePoolDao.findById(storagePoolId);
 
-            // getUsedBytes(StoragePool) will not include the template to delete because the
-            // "template_spool_ref" table has already been updated by this point
-            long usedBytes = getUsedBytes(storagePool);
+                // getUsedBytes(StoragePool) will not include the template to delete because the
+                // "template_spool_ref" table has already been updated by this point
+                long usedBytes = getUsedBytes(storagePool);
 
-            storagePool.setUsedBytes(usedBytes < 0 ? 0 : usedBytes);
+                storagePool.setUsedBytes(usedBytes < 0 ? 0 : usedBytes);
 
-            storagePoolDao.update(storagePoolId, storagePool);
+                storagePoolDao.update(storagePoolId, storagePool);
+            }, DateraAsyncClient.getCallbackExecutor()).whenComplete((ignored, throwable) -> {
+                if (throwable != null) {
+                    s_logger.debug("Failed to delete template volume. CloudStack template ID: " + templateInfo.getId(),
+                            DateraAsyncClient.unwrap(throwable));
+                }
+            });
         } catch (Exception ex) {
             s_logger.debug("Failed to delete template volume. CloudStack template ID: " + templateInfo.getId(), ex);
 
@@ -1572,7 +2180,7 @@ public class DateraPrimaryDataStoreDriver implements PrimaryDataStoreDriver {
 
                 Preconditions.checkNotNull(appInstance);
 
-                updateVolumeDetails(volumeInfo.getId(), appInstance.getSize());
+                updateVolumeDetails(volumeInfo.getId(), storagePoolId, appInstance.getSize());
             }
 
             CommandResult commandResult = new CommandResult();
@@ -1652,7 +2260,10 @@ public class DateraPrimaryDataStoreDriver implements PrimaryDataStoreDriver {
 
                 _volumeDao.update(volume.getId(), volume);
 
-                updateVolumeDetails(volume.getId(), appInstance.getSize());
+                updateVolumeDetails(volume.getId(), storagePoolId, appInstance.getSize());
+
+                DateraIopsLedger.getLedger(storagePoolId, _storagePoolDetailsDao)
+                        .put(appInstanceName, appInstance.getTotalIops());
 
                 Preconditions.checkNotNull(appInstance);
 
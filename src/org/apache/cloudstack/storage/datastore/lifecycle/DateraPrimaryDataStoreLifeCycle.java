@@ -49,6 +49,10 @@ import org.apache.cloudstack.engine.subsystem.api.storage.ZoneScope;
 import org.apache.cloudstack.engine.subsystem.api.storage.PrimaryDataStoreInfo;
 import org.apache.cloudstack.storage.datastore.db.PrimaryDataStoreDao;
 import org.apache.cloudstack.storage.datastore.db.StoragePoolVO;
+import org.apache.cloudstack.storage.datastore.util.DateraConnectionManager;
+import org.apache.cloudstack.storage.datastore.util.DateraIopsLedger;
+import org.apache.cloudstack.storage.datastore.util.DateraPoolSettings;
+import org.apache.cloudstack.storage.datastore.util.DateraUsedBytesLedger;
 import org.apache.cloudstack.storage.datastore.util.DateraUtil;
 import org.apache.cloudstack.storage.volume.datastore.PrimaryDataStoreHelper;
 import org.apache.log4j.Logger;
@@ -191,8 +195,8 @@ public class DateraPrimaryDataStoreLifeCycle implements PrimaryDataStoreLifeCycl
         details.put(DateraUtil.CLUSTER_ADMIN_USERNAME, clusterAdminUsername);
         details.put(DateraUtil.CLUSTER_ADMIN_PASSWORD, clusterAdminPassword);
 
-        long lClusterDefaultMinIops = 100;
-        long lClusterDefaultMaxIops = 15000;
+        long lClusterDefaultMinIops = DateraUtil.DEFAULT_CLUSTER_MIN_IOPS;
+        long lClusterDefaultMaxIops = DateraUtil.DEFAULT_CLUSTER_MAX_IOPS;
 
         try {
             String clusterDefaultMinIops = DateraUtil.getValue(DateraUtil.CLUSTER_DEFAULT_MIN_IOPS, url);
@@ -233,6 +237,17 @@ public class DateraPrimaryDataStoreLifeCycle implements PrimaryDataStoreLifeCycl
         details.put(DateraUtil.VOL_PLACEMENT, String.valueOf(DateraUtil.getVolPlacement(url)));
         details.put(DateraUtil.IP_POOL, String.valueOf(DateraUtil.getIpPool(url)));
 
+        details.put(DateraUtil.HTTP_MAX_CONNECTIONS, String.valueOf(DateraUtil.getHttpSetting(
+                DateraUtil.HTTP_MAX_CONNECTIONS, url, DateraConnectionManager.DEFAULT_MAX_CONNECTIONS_PER_ROUTE)));
+        details.put(DateraUtil.HTTP_CONNECT_TIMEOUT, String.valueOf(DateraUtil.getHttpSetting(
+                DateraUtil.HTTP_CONNECT_TIMEOUT, url, DateraConnectionManager.DEFAULT_CONNECT_TIMEOUT_MS)));
+        details.put(DateraUtil.HTTP_READ_TIMEOUT, String.valueOf(DateraUtil.getHttpSetting(
+                DateraUtil.HTTP_READ_TIMEOUT, url, DateraConnectionManager.DEFAULT_READ_TIMEOUT_MS)));
+        details.put(DateraUtil.HTTP_IDLE_TIMEOUT, String.valueOf(DateraUtil.getHttpSetting(
+                DateraUtil.HTTP_IDLE_TIMEOUT, url, DateraConnectionManager.DEFAULT_IDLE_TIMEOUT_MS)));
+
+        details.put(DateraUtil.ACL_READY_TIMEOUT, String.valueOf(DateraUtil.getAclReadyTimeoutMs(url)));
+
         return dataStoreHelper.createPrimaryDataStore(parameters);
     }
 
@@ -346,6 +361,10 @@ public class DateraPrimaryDataStoreLifeCycle implements PrimaryDataStoreLifeCycl
             }
         }
 
+        DateraPoolSettings.invalidate(store.getId());
+        DateraUsedBytesLedger.remove(store.getId());
+        DateraIopsLedger.remove(store.getId());
+
         return dataStoreHelper.deletePrimaryDataStore(store);
     }
 
@@ -356,6 +375,8 @@ public class DateraPrimaryDataStoreLifeCycle implements PrimaryDataStoreLifeCycl
 
     @Override
     public void updateStoragePool(StoragePool storagePool, Map<String, String> details) {
+        DateraPoolSettings.invalidate(storagePool.getId());
+
         StoragePoolVO storagePoolVo = storagePoolDao.findById(storagePool.getId());
 
         String strCapacityBytes = details.get(PrimaryDataStoreLifeCycle.CAPACITY_BYTES);
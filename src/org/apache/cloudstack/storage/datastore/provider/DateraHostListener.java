@@ -37,15 +37,18 @@ import com.cloud.storage.StoragePoolHostVO;
 import com.cloud.storage.VolumeVO;
 import com.cloud.storage.dao.StoragePoolHostDao;
 import com.cloud.storage.dao.VolumeDao;
+import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.db.GlobalLock;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.vm.VMInstanceVO;
 import com.cloud.vm.dao.VMInstanceDao;
 import org.apache.cloudstack.engine.subsystem.api.storage.DataStoreManager;
 import org.apache.cloudstack.engine.subsystem.api.storage.HypervisorHostListener;
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 import org.apache.cloudstack.storage.datastore.db.PrimaryDataStoreDao;
 import org.apache.cloudstack.storage.datastore.db.StoragePoolDetailsDao;
 import org.apache.cloudstack.storage.datastore.db.StoragePoolVO;
+import org.apache.cloudstack.storage.datastore.util.DateraInitiatorIndex;
 import org.apache.cloudstack.storage.datastore.util.DateraObject;
 import org.apache.cloudstack.storage.datastore.util.DateraUtil;
 import org.apache.log4j.Logger;
@@ -53,13 +56,33 @@ import org.apache.log4j.Logger;
 import javax.inject.Inject;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the initiator groups of the clusters using Datera storage in line with
+ * their hosts. Hosts joining, connecting or leaving are applied as a delta to
+ * the groups already recorded for their cluster, and every
+ * {@link #RECONCILE_INTERVAL_MS} each recorded group is compared with the hosts
+ * of its cluster in one pass to repair whatever an event missed.
+ */
 public class DateraHostListener implements HypervisorHostListener {
     private static final Logger s_logger = Logger.getLogger(DateraHostListener.class);
 
+    public static final long RECONCILE_INTERVAL_MS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final int s_lockTimeInSeconds = 5;
+
+    private static final ScheduledExecutorService s_reconcileExecutor = Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("DateraInitiatorGroupReconcile"));
+
+    private boolean reconcileScheduled;
+
     @Inject private AgentManager _agentMgr;
     @Inject private AlertManager _alertMgr;
     @Inject private ClusterDao _clusterDao;
@@ -74,9 +97,158 @@ public class DateraHostListener implements HypervisorHostListener {
 
     @Override
     public boolean hostAdded(long hostId) {
+        HostVO host = _hostDao.findById(hostId);
+
+        if (host != null && host.getClusterId() != null && DateraUtil.hostSupport_iScsi(host)) {
+            List<StoragePoolVO> storagePools = _storagePoolDao.findPoolsByProvider(DateraUtil.PROVIDER_NAME);
+
+            if (storagePools != null) {
+                for (StoragePoolVO storagePool : storagePools) {
+                    addToInitiatorGroup(host, storagePool.getId());
+                }
+            }
+        }
+
         return true;
     }
 
+    /**
+     * Starts the periodic reconcile of the initiator groups, once
+     */
+    public synchronized void scheduleReconcile() {
+        if (reconcileScheduled) {
+            return;
+        }
+
+        reconcileScheduled = true;
+
+        s_reconcileExecutor.scheduleWithFixedDelay(new ManagedContextRunnable() {
+            @Override
+            protected void runInContext() {
+                reconcileInitiatorGroups();
+            }
+        }, RECONCILE_INTERVAL_MS, RECONCILE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adds the initiator of a host to the initiator group of its cluster on a
+     * primary storage, if the cluster has one there. Groups not created yet are
+     * set up by the driver on the first grantAccess.
+     */
+    private void addToInitiatorGroup(HostVO host, long storagePoolId) {
+        ClusterDetailsVO clusterDetail = _clusterDetailsDao.findDetail(host.getClusterId(),
+                DateraUtil.getInitiatorGroupKey(storagePoolId));
+
+        if (clusterDetail == null || clusterDetail.getValue() == null) {
+            return;
+        }
+
+        GlobalLock lock = null;
+
+        try {
+            DateraObject.DateraConnection conn = DateraUtil.getDateraConnection(storagePoolId, _storagePoolDetailsDao);
+
+            lock = lockInitiatorGroup(conn, clusterDetail.getValue());
+
+            if (lock == null) {
+                // left to the next reconcile
+                return;
+            }
+
+            DateraUtil.updateInitiatorGroupMembers(conn, clusterDetail.getValue(),
+                    DateraUtil.getHostInitiators(Collections.singletonList(host)), false);
+        } catch (DateraObject.DateraError | UnsupportedEncodingException | RuntimeException e) {
+            s_logger.warn("Unable to add host " + host.getId() + " to initiator group " + clusterDetail.getValue()
+                    + " on storage pool " + storagePoolId + ": " + e.getMessage());
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    /**
+     * @return the lock serializing changes to an initiator group on the array
+     *         behind {@code conn}, null if it could not be taken
+     */
+    private GlobalLock lockInitiatorGroup(DateraObject.DateraConnection conn, String initiatorGroupName) {
+        String lockName = DateraUtil.getInitiatorGroupLockName(conn, initiatorGroupName);
+
+        GlobalLock lock = GlobalLock.getInternLock(lockName);
+
+        if (!lock.lock(s_lockTimeInSeconds)) {
+            s_logger.debug("Couldn't lock the DB on the following string: " + lockName);
+
+            lock.releaseRef();
+
+            return null;
+        }
+
+        return lock;
+    }
+
+    private static void unlock(GlobalLock lock) {
+        if (lock != null) {
+            lock.unlock();
+            lock.releaseRef();
+        }
+    }
+
+    /**
+     * Compares every recorded initiator group with the hosts of its cluster and
+     * adds or removes members where they differ, with one read of each group
+     * from the array and no update for a group already in line.
+     */
+    private void reconcileInitiatorGroups() {
+        try {
+            List<StoragePoolVO> storagePools = _storagePoolDao.findPoolsByProvider(DateraUtil.PROVIDER_NAME);
+
+            if (storagePools == null || storagePools.isEmpty()) {
+                return;
+            }
+
+            List<ClusterVO> clusters = _clusterDao.listAll();
+
+            for (StoragePoolVO storagePool : storagePools) {
+                for (ClusterVO cluster : clusters) {
+                    reconcileInitiatorGroup(storagePool.getId(), cluster);
+                }
+            }
+        } catch (RuntimeException e) {
+            // an exception would cancel the schedule
+            s_logger.warn("Error while reconciling Datera initiator groups ", e);
+        }
+    }
+
+    private void reconcileInitiatorGroup(long storagePoolId, ClusterVO cluster) {
+        ClusterDetailsVO clusterDetail = _clusterDetailsDao.findDetail(cluster.getId(),
+                DateraUtil.getInitiatorGroupKey(storagePoolId));
+
+        if (clusterDetail == null || clusterDetail.getValue() == null) {
+            return;
+        }
+
+        String initiatorGroupName = clusterDetail.getValue();
+
+        GlobalLock lock = null;
+
+        try {
+            DateraObject.DateraConnection conn = DateraUtil.getDateraConnection(storagePoolId, _storagePoolDetailsDao);
+
+            lock = lockInitiatorGroup(conn, initiatorGroupName);
+
+            if (lock == null) {
+                return;
+            }
+
+            DateraUtil.updateInitiatorGroupMembers(conn, initiatorGroupName,
+                    DateraUtil.getHostInitiators(_hostDao.findByClusterId(cluster.getId())), true);
+        } catch (DateraObject.DateraError | UnsupportedEncodingException | RuntimeException e) {
+            s_logger.warn("Unable to reconcile initiator group " + initiatorGroupName + " on storage pool "
+                    + storagePoolId + ": " + e.getMessage());
+        } finally {
+            unlock(lock);
+        }
+    }
+
     @Override
     public boolean hostConnect(long hostId, long storagePoolId) {
 
@@ -94,6 +266,10 @@ public class DateraHostListener implements HypervisorHostListener {
             storagePoolHostDao.persist(storagePoolHost);
         }
 
+        if (host.getClusterId() != null && DateraUtil.hostSupport_iScsi(host)) {
+            addToInitiatorGroup(host, storagePoolId);
+        }
+
         if (host.getHypervisorType().equals(HypervisorType.XenServer)) {
             handleXenServer(host.getClusterId(), host.getId(), storagePoolId);
         }
@@ -131,46 +307,54 @@ public class DateraHostListener implements HypervisorHostListener {
 
         ClusterVO clusterVO = _clusterDao.findById(clusterId);
         HostVO hostVO = _hostDao.findByIdIncludingRemoved(hostId);
-        String initiatorName = DateraUtil.INITIATOR_PREFIX + "-" + hostVO.getUuid();
 
-        int s_lockTimeInSeconds = 5;
+        if (clusterVO == null || hostVO == null || !DateraUtil.hostSupport_iScsi(hostVO)) {
+            return true;
+        }
 
-        GlobalLock lock = GlobalLock.getInternLock(clusterVO.getUuid());
+        List<StoragePoolVO> storagePools = _storagePoolDao.findPoolsByProvider(DateraUtil.PROVIDER_NAME);
 
-        if (!lock.lock(s_lockTimeInSeconds)) {
-            String errMsg = "Couldn't lock the DB on the following string: " + clusterVO.getUuid();
+        if (storagePools == null) {
+            return true;
+        }
 
-            s_logger.debug(errMsg);
+        for (StoragePoolVO storagePool : storagePools) {
+            ClusterDetailsVO clusterDetail = _clusterDetailsDao.findDetail(clusterId, DateraUtil.getInitiatorGroupKey(storagePool.getId()));
 
-            throw new CloudRuntimeException(errMsg);
-        }
+            String initiatorGroupName = clusterDetail != null ? clusterDetail.getValue() : null;
 
-        try {
-            List<StoragePoolVO> storagePools = _storagePoolDao.findPoolsByProvider(DateraUtil.PROVIDER_NAME);
+            if (initiatorGroupName == null) {
+                continue;
+            }
 
-            if (storagePools != null && storagePools.size() > 0) {
-                for (StoragePoolVO storagePool : storagePools) {
-                    ClusterDetailsVO clusterDetail = _clusterDetailsDao.findDetail(clusterId, DateraUtil.getInitiatorGroupKey(storagePool.getId()));
+            GlobalLock lock = null;
 
-                    String initiatorGroupName = clusterDetail != null ? clusterDetail.getValue() : null;
+            try {
+                DateraObject.DateraConnection conn = DateraUtil.getDateraConnection(storagePool.getId(), _storagePoolDetailsDao);
 
-                    if (initiatorGroupName != null && DateraUtil.hostSupport_iScsi(hostVO) ) {
-                        DateraObject.DateraConnection conn = DateraUtil.getDateraConnection(storagePool.getId(), _storagePoolDetailsDao);
-                        DateraObject.Initiator initiator = DateraUtil.getInitiator(conn, hostVO.getStorageUrl());
-                        DateraObject.InitiatorGroup initiatorGroup = DateraUtil.getInitiatorGroup(conn, initiatorGroupName);
+                lock = lockInitiatorGroup(conn, initiatorGroupName);
 
-                        if (initiator!= null && DateraUtil.isInitiatorPresentInGroup(initiator, initiatorGroup)) {
-                            DateraUtil.removeInitiatorFromGroup(conn, initiator.getPath(), initiatorGroupName);
-                        }
-                    }
+                if (lock == null) {
+                    // the other pools are still handled, the next reconcile removes the host from this one
+                    s_logger.warn("Unable to remove host " + hostId + " from initiator group " + initiatorGroupName
+                            + " on storage pool " + storagePool.getId() + ", it is left to the next reconcile");
+                    continue;
                 }
-            }
 
-        } catch (DateraObject.DateraError | UnsupportedEncodingException e) {
-            s_logger.warn("Error while removing host from initiator groups ", e);
-        } finally {
-            lock.unlock();
-            lock.releaseRef();
+                String initiatorPath = DateraInitiatorIndex.getIndex(conn).getInitiatorPath(conn, hostVO.getStorageUrl());
+
+                // read from the array rather than the initiator index, which may predate changes made elsewhere
+                DateraObject.InitiatorGroup initiatorGroup = DateraUtil.getInitiatorGroup(conn, initiatorGroupName);
+
+                if (initiatorPath != null && initiatorGroup != null && initiatorGroup.getMembers() != null
+                        && initiatorGroup.getMembers().contains(initiatorPath)) {
+                    DateraUtil.removeInitiatorFromGroup(conn, initiatorPath, initiatorGroupName);
+                }
+            } catch (DateraObject.DateraError | UnsupportedEncodingException | RuntimeException e) {
+                s_logger.warn("Error while removing host from initiator groups ", e);
+            } finally {
+                unlock(lock);
+            }
         }
 
         return true;
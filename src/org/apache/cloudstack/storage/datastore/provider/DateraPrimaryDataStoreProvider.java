@@ -67,7 +67,12 @@ public class DateraPrimaryDataStoreProvider implements PrimaryDataStoreProvider
     public boolean configure(Map<String, Object> params) {
         lifecycle = ComponentContext.inject(DateraPrimaryDataStoreLifeCycle.class);
         driver = ComponentContext.inject(DateraPrimaryDataStoreDriver.class);
-        listener = ComponentContext.inject(DateraHostListener.class);
+
+        DateraHostListener hostListener = ComponentContext.inject(DateraHostListener.class);
+
+        hostListener.scheduleReconcile();
+
+        listener = hostListener;
 
         return true;
     }
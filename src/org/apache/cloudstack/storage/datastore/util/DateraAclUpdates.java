@@ -0,0 +1,198 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.storage.datastore.util;
+
+import com.google.common.base.Preconditions;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * The per-app-instance steps of granting and revoking access, shared by the
+ * single-volume and batch grantAccess/revokeAccess paths of the driver: the
+ * assignment and removal of an initiator group, the order the app instance
+ * locks are taken in, and the collection of the per-volume outcomes.
+ */
+public final class DateraAclUpdates {
+
+    private static final Logger s_logger = Logger.getLogger(DateraAclUpdates.class);
+
+    private DateraAclUpdates() {
+    }
+
+    /**
+     * Outcome of one ACL step per volume: the value of every step which
+     * completed and the failure of every other one
+     */
+    public static final class Results<K, V> {
+
+        private final Map<K, V> values = new LinkedHashMap<>();
+        private final Map<K, RuntimeException> failures = new LinkedHashMap<>();
+
+        /**
+         * @return value of every step which completed, in the order of the volumes
+         */
+        public Map<K, V> getValues() {
+            return Collections.unmodifiableMap(values);
+        }
+
+        /**
+         * @return failure of every step which did not complete, in the order of the volumes
+         */
+        public Map<K, RuntimeException> getFailures() {
+            return Collections.unmodifiableMap(failures);
+        }
+
+        public boolean isSuccess(K key) {
+            return values.containsKey(key);
+        }
+
+        /**
+         * @return the same outcome with the value of every completed step
+         *         replaced, e.g. by what a later confirmation found
+         */
+        public <W> Results<K, W> mapValues(BiFunction<K, V, W> mapper) {
+            Results<K, W> mapped = new Results<>();
+
+            for (Map.Entry<K, V> value : values.entrySet()) {
+                mapped.values.put(value.getKey(), mapper.apply(value.getKey(), value.getValue()));
+            }
+
+            mapped.failures.putAll(failures);
+
+            return mapped;
+        }
+    }
+
+    /**
+     * Runs one ACL step per volume, at most {@code parallelism} at a time, and
+     * waits for all of them. A failed step does not stop the others.
+     * @param appInstanceNames app instance of each volume
+     * @param parallelism      max number of steps outstanding
+     * @param step             assignment or removal of the initiator group, by
+     *                         app instance name
+     */
+    public static <K, V> Results<K, V> run(Map<K, String> appInstanceNames, int parallelism,
+            Function<String, CompletableFuture<V>> step) {
+
+        Map<K, CompletableFuture<V>> futures = DateraAsyncClient.runBounded(appInstanceNames.keySet(), parallelism,
+                key -> step.apply(appInstanceNames.get(key)));
+
+        Results<K, V> results = new Results<>();
+
+        for (Map.Entry<K, CompletableFuture<V>> future : futures.entrySet()) {
+            try {
+                results.values.put(future.getKey(), DateraAsyncClient.join(future.getValue()));
+            } catch (RuntimeException e) {
+                results.failures.put(future.getKey(), e);
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Takes the lock of every app instance once, in name order, so that two
+     * grants or revokes sharing app instances cannot deadlock
+     * @param lock takes the lock of an app instance
+     * @return the locks, in the order taken, to be released by the caller
+     */
+    public static <L> List<L> lockInOrder(Collection<String> appInstanceNames, Function<String, L> lock) {
+        List<L> locks = new ArrayList<>();
+
+        for (String appInstanceName : new TreeSet<>(appInstanceNames)) {
+            locks.add(lock.apply(appInstanceName));
+        }
+
+        return locks;
+    }
+
+    /**
+     * Assigns the initiator group to an app instance and waits for the ACL to
+     * be active, without blocking
+     * @return the storage instance as last seen while waiting for the ACL, null if
+     *         the group was already assigned
+     */
+    public static CompletableFuture<DateraObject.StorageInstance> assign(DateraObject.DateraConnection conn,
+            DateraObject.InitiatorGroup initiatorGroup, String appInstanceName, int aclReadyTimeoutMs) {
+
+        String initiatorGroupName = initiatorGroup.getName();
+
+        return DateraAsyncClient.assignGroupToAppInstance(conn, initiatorGroup, appInstanceName)
+                .thenCompose(added -> {
+                    if (!added) {
+                        return CompletableFuture.<DateraObject.StorageInstance>completedFuture(null);
+                    }
+
+                    return DateraAsyncClient.pollInitiatorGroupAssignment(conn, appInstanceName, initiatorGroupName,
+                            true).thenCompose(assigned -> {
+                                Preconditions.checkArgument(assigned, "Initgroup is not assigned to appinstance");
+
+                                return DateraAsyncClient.pollAclReady(conn, appInstanceName, initiatorGroupName,
+                                        aclReadyTimeoutMs);
+                            }).thenApply(storageInstance -> {
+                                if (DateraUtil.isAclStateReported(storageInstance)
+                                        && !DateraUtil.isAclReady(storageInstance, initiatorGroupName)) {
+                                    s_logger.warn("ACL for " + initiatorGroupName + " is not active on "
+                                            + appInstanceName + " after " + aclReadyTimeoutMs + " msec, continuing");
+                                }
+
+                                s_logger.debug("Initiator group " + initiatorGroupName + " is assigned to "
+                                        + appInstanceName);
+
+                                return storageInstance;
+                            });
+                });
+    }
+
+    /**
+     * Removes the initiator group from the ACL of an app instance, without
+     * blocking
+     * @return true if the group was removed, false if it was not assigned or the
+     *         app instance no longer exists
+     */
+    public static CompletableFuture<Boolean> remove(DateraObject.DateraConnection conn,
+            DateraObject.InitiatorGroup initiatorGroup, String appInstanceName) {
+
+        return DateraAsyncClient.removeGroupFromAppInstance(conn, initiatorGroup, appInstanceName)
+                .handle((removed, throwable) -> {
+                    if (throwable == null) {
+                        return removed;
+                    }
+
+                    Throwable cause = DateraAsyncClient.unwrap(throwable);
+
+                    if (cause instanceof DateraObject.DateraError
+                            && DateraObject.DateraErrorTypes.NotFoundError.equals((DateraObject.DateraError) cause)) {
+                        return false;
+                    }
+
+                    throw new CompletionException(cause);
+                });
+    }
+}
@@ -0,0 +1,253 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.storage.datastore.util;
+
+import com.cloud.utils.mgmt.JmxUtil;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.log4j.Logger;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Short lived read-through cache of app instances, keyed by cluster and app
+ * instance name.
+ *
+ * A single volume operation reads the same app instance several times (create,
+ * resize, IOPS update, grant access), each read being a full GET. Entries live
+ * for {@link #DEFAULT_TTL_MS} and at most {@link #DEFAULT_MAX_ENTRIES} are kept,
+ * least recently used first out.
+ *
+ * Any request other than a GET below {@code app_instances/<name>} drops the
+ * entry of that app instance, both when it is sent and when it completes. A read
+ * that was started before an invalidation is not stored, so a write is never
+ * hidden by a reply that was already on its way.
+ */
+public class DateraAppInstanceCache implements DateraAppInstanceCacheMBean {
+
+    private static final Logger s_logger = Logger.getLogger(DateraAppInstanceCache.class);
+
+    public static final long DEFAULT_TTL_MS = TimeUnit.SECONDS.toMillis(5);
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    private static final String APP_INSTANCES_PATH = DateraUtil.generateApiUrl("app_instances") + "/";
+
+    private static final DateraAppInstanceCache s_cache = new DateraAppInstanceCache(DEFAULT_TTL_MS,
+            DEFAULT_MAX_ENTRIES);
+
+    static {
+        try {
+            JmxUtil.registerMBean("Datera", "AppInstanceCache", s_cache);
+        } catch (Exception e) {
+            s_logger.warn("Unable to register Datera app instance cache MBean", e);
+        }
+    }
+
+    private final long ttlMs;
+    private final int maxEntries;
+
+    private final Map<String, CachedAppInstance> entries;
+
+    // bumped on every invalidation, reads started before a bump are not stored
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private static class CachedAppInstance {
+        final DateraObject.AppInstance appInstance;
+        final long expiresAt;
+
+        CachedAppInstance(DateraObject.AppInstance appInstance, long expiresAt) {
+            this.appInstance = appInstance;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    DateraAppInstanceCache(long ttlMs, final int maxEntries) {
+        this.ttlMs = ttlMs;
+        this.maxEntries = maxEntries;
+
+        entries = new LinkedHashMap<String, CachedAppInstance>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedAppInstance> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public static DateraAppInstanceCache getCache() {
+        return s_cache;
+    }
+
+    /**
+     * @param conn Datera connection
+     * @param name app instance name
+     * @return the cached app instance, null if it is not cached or has expired
+     */
+    public DateraObject.AppInstance get(DateraObject.DateraConnection conn, String name) {
+        String key = getKey(conn, name);
+        long now = System.currentTimeMillis();
+
+        synchronized (entries) {
+            CachedAppInstance entry = entries.get(key);
+
+            if (entry != null && now < entry.expiresAt) {
+                hits.incrementAndGet();
+                return entry.appInstance;
+            }
+
+            if (entry != null) {
+                entries.remove(key);
+            }
+        }
+
+        misses.incrementAndGet();
+
+        return null;
+    }
+
+    /**
+     * @return token to pass to {@link #put}, taken before the array is read
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Caches an app instance read from the array
+     *
+     * @param conn        Datera connection
+     * @param name        app instance name
+     * @param appInstance app instance as read, nothing is cached for null
+     * @param generation  {@link #getGeneration()} from before the read
+     */
+    public void put(DateraObject.DateraConnection conn, String name, DateraObject.AppInstance appInstance,
+            long generation) {
+        if (appInstance == null) {
+            return;
+        }
+
+        String key = getKey(conn, name);
+
+        synchronized (entries) {
+            // checked under the lock, invalidations bump the generation while holding it
+            if (this.generation.get() != generation) {
+                return;
+            }
+
+            entries.put(key, new CachedAppInstance(appInstance, System.currentTimeMillis() + ttlMs));
+        }
+    }
+
+    public void invalidate(DateraObject.DateraConnection conn, String name) {
+        String key = getKey(conn, name);
+
+        synchronized (entries) {
+            generation.incrementAndGet();
+
+            if (entries.remove(key) != null) {
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Drops the app instance {@code request} writes to, if any
+     *
+     * @param conn    Datera connection
+     * @param request request about to be sent or just completed
+     */
+    public void invalidate(DateraObject.DateraConnection conn, HttpRequest request) {
+        if (request instanceof HttpGet) {
+            return;
+        }
+
+        String name = getAppInstanceName(request.getRequestLine().getUri());
+
+        if (name != null) {
+            invalidate(conn, name);
+        }
+    }
+
+    /**
+     * @return the app instance below which {@code uri} lies, null if none
+     */
+    static String getAppInstanceName(String uri) {
+        int query = uri.indexOf('?');
+        String path = query < 0 ? uri : uri.substring(0, query);
+
+        if (!path.startsWith(APP_INSTANCES_PATH)) {
+            return null;
+        }
+
+        int start = APP_INSTANCES_PATH.length();
+        int end = path.indexOf('/', start);
+        String name = end < 0 ? path.substring(start) : path.substring(start, end);
+
+        return name.isEmpty() ? null : name;
+    }
+
+    private static String getKey(DateraObject.DateraConnection conn, String name) {
+        return conn.getManagementIp() + ":" + conn.getManagementPort() + "/" + name;
+    }
+
+    @Override
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    @Override
+    public long getTtlMs() {
+        return ttlMs;
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    @Override
+    public void clear() {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            entries.clear();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.storage.datastore.util;
+
+/**
+ * JMX view of the {@link DateraAppInstanceCache}
+ */
+public interface DateraAppInstanceCacheMBean {
+
+    int getSize();
+
+    int getMaxEntries();
+
+    long getTtlMs();
+
+    /**
+     * @return reads answered from the cache
+     */
+    long getHits();
+
+    /**
+     * @return reads that had to go to the array
+     */
+    long getMisses();
+
+    /**
+     * @return entries dropped because the array was written to
+     */
+    long getInvalidations();
+
+    /**
+     * Drops every cached app instance
+     */
+    void clear();
+}
@@ -0,0 +1,245 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.storage.datastore.util;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Waits for app instances of one cluster to become available with a single
+ * app_instances listing per tick, however many operations are pending.
+ *
+ * Operations register the app instance they wait for with
+ * {@link #awaitAvailable}. While anything is registered the watcher streams the
+ * listing, picks out the registered names and completes every waiter whose
+ * volume has reached {@link DateraUtil#STATE_AVAILABLE}, or whose app instance
+ * is gone. Ticks follow the {@link DateraPoller} intervals, growing while no
+ * waiter completes.
+ */
+public class DateraAppInstanceWatcher {
+
+    private static final Logger s_logger = Logger.getLogger(DateraAppInstanceWatcher.class);
+
+    private static final Map<String, DateraAppInstanceWatcher> s_watchers = new ConcurrentHashMap<>();
+
+    private final Map<String, List<Waiter>> waiters = new HashMap<>();
+    private final Listing listing;
+    private final long timeoutMs;
+
+    private DateraObject.DateraConnection conn;
+    private boolean scheduled;
+    private long intervalMs;
+
+    private static class Waiter {
+        final CompletableFuture<DateraObject.AppInstance> future = new CompletableFuture<>();
+        final long deadline;
+
+        Waiter(long deadline) {
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * Source of the app_instances listing, the array unless a test says otherwise
+     */
+    interface Listing {
+        DateraListIterator<DateraObject.AppInstance> open(DateraObject.DateraConnection conn)
+                throws DateraObject.DateraError;
+    }
+
+    DateraAppInstanceWatcher(DateraObject.DateraConnection conn) {
+        this(conn, DateraUtil::iterateAppInstances, DateraPoller.DEFAULT_TIMEOUT_MS);
+    }
+
+    DateraAppInstanceWatcher(DateraObject.DateraConnection conn, Listing listing, long timeoutMs) {
+        this.conn = conn;
+        this.listing = listing;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Waits for the volume of an app instance to become available
+     *
+     * @param conn Datera connection
+     * @param name app instance to wait for
+     * @return the app instance once its volume is available, null if it no
+     *         longer exists, or the last state seen once
+     *         {@link DateraPoller#DEFAULT_TIMEOUT_MS} has passed
+     */
+    public static CompletableFuture<DateraObject.AppInstance> awaitAvailable(DateraObject.DateraConnection conn,
+            String name) {
+        return getWatcher(conn).register(conn, name);
+    }
+
+    private static DateraAppInstanceWatcher getWatcher(DateraObject.DateraConnection conn) {
+        String key = conn.getManagementIp() + ":" + conn.getManagementPort() + ":" + conn.getUsername();
+
+        DateraAppInstanceWatcher watcher = s_watchers.get(key);
+
+        if (watcher == null) {
+            DateraAppInstanceWatcher newWatcher = new DateraAppInstanceWatcher(conn);
+
+            watcher = s_watchers.putIfAbsent(key, newWatcher);
+
+            if (watcher == null) {
+                watcher = newWatcher;
+            }
+        }
+
+        return watcher;
+    }
+
+    // the latest connection registered is used for the listing
+    CompletableFuture<DateraObject.AppInstance> register(DateraObject.DateraConnection conn, String name) {
+        Waiter waiter = new Waiter(System.currentTimeMillis() + timeoutMs);
+
+        synchronized (this) {
+            this.conn = conn;
+
+            List<Waiter> nameWaiters = waiters.get(name);
+
+            if (nameWaiters == null) {
+                nameWaiters = new ArrayList<>();
+                waiters.put(name, nameWaiters);
+            }
+
+            nameWaiters.add(waiter);
+
+            if (!scheduled) {
+                scheduled = true;
+                intervalMs = DateraPoller.INITIAL_INTERVAL_MS;
+
+                scheduleTick();
+            }
+        }
+
+        return waiter.future;
+    }
+
+    // the listing blocks, so it runs on the completion executor rather than the poll scheduler
+    private void scheduleTick() {
+        DateraPoller.schedule(() -> DateraAsyncClient.getCompletionExecutor().execute(this::tick), intervalMs);
+    }
+
+    private void tick() {
+        DateraObject.DateraConnection listingConn;
+        Set<String> names;
+
+        synchronized (this) {
+            listingConn = conn;
+            names = new HashSet<>(waiters.keySet());
+        }
+
+        Map<String, DateraObject.AppInstance> found = new HashMap<>();
+        Throwable error = null;
+
+        DateraAppInstanceCache cache = DateraAppInstanceCache.getCache();
+        long generation = cache.getGeneration();
+
+        try (DateraListIterator<DateraObject.AppInstance> appInstances = listing.open(listingConn)) {
+            // stop reading once everything is found, dropping the rest of the listing
+            while (found.size() < names.size() && appInstances.hasNext()) {
+                DateraObject.AppInstance appInstance = appInstances.next();
+
+                if (names.contains(appInstance.getName())) {
+                    found.put(appInstance.getName(), appInstance);
+                }
+            }
+        } catch (DateraObject.DateraError | IOException | RuntimeException e) {
+            s_logger.warn("Unable to list Datera app instances: " + e.getMessage());
+            error = e;
+        }
+
+        // the operations woken up below usually read their app instance next
+        for (Map.Entry<String, DateraObject.AppInstance> entry : found.entrySet()) {
+            cache.put(listingConn, entry.getKey(), entry.getValue(), generation);
+        }
+
+        Map<CompletableFuture<DateraObject.AppInstance>, DateraObject.AppInstance> completed = new HashMap<>();
+        List<CompletableFuture<DateraObject.AppInstance>> failed = new ArrayList<>();
+
+        long now = System.currentTimeMillis();
+
+        synchronized (this) {
+            boolean progress = false;
+
+            for (String name : names) {
+                List<Waiter> nameWaiters = waiters.get(name);
+
+                if (nameWaiters == null) {
+                    continue;
+                }
+
+                DateraObject.AppInstance appInstance = found.get(name);
+                boolean done = appInstance == null
+                        || Objects.equals(appInstance.getVolumeOpState(), DateraUtil.STATE_AVAILABLE);
+
+                for (Iterator<Waiter> iterator = nameWaiters.iterator(); iterator.hasNext(); ) {
+                    Waiter waiter = iterator.next();
+
+                    if (error != null) {
+                        failed.add(waiter.future);
+                    } else if (done || now >= waiter.deadline) {
+                        completed.put(waiter.future, appInstance);
+                        progress |= done;
+                    } else {
+                        continue;
+                    }
+
+                    iterator.remove();
+                }
+
+                if (nameWaiters.isEmpty()) {
+                    waiters.remove(name);
+                }
+            }
+
+            if (waiters.isEmpty()) {
+                scheduled = false;
+            } else {
+                if (!progress) {
+                    intervalMs = Math.min(DateraPoller.MAX_INTERVAL_MS,
+                            (long) (intervalMs * DateraPoller.BACKOFF_FACTOR));
+                }
+
+                scheduleTick();
+            }
+        }
+
+        // completed outside the lock as continuations run inline
+        for (Map.Entry<CompletableFuture<DateraObject.AppInstance>, DateraObject.AppInstance> entry : completed
+                .entrySet()) {
+            entry.getKey().complete(entry.getValue());
+        }
+
+        for (CompletableFuture<DateraObject.AppInstance> future : failed) {
+            future.completeExceptionally(error);
+        }
+    }
+}
@@ -0,0 +1,720 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.storage.datastore.util;
+
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.exception.CloudRuntimeException;
+import com.google.common.base.Preconditions;
+import com.google.gson.reflect.TypeToken;
+import org.apache.cloudstack.context.CallContext;
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpStatus;
+import org.apache.http.StatusLine;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.log4j.Logger;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Non-blocking counterpart of {@link DateraUtil} for the app_instances,
+ * initiators, initiator_groups and snapshots endpoints. Requests are sent on
+ * the asynchronous HTTP client of {@link DateraConnectionManager} and results
+ * are delivered as {@link CompletableFuture}s, so no thread waits on the
+ * network. Futures are completed on a small, bounded completion pool rather
+ * than on the I/O reactor. Continuations which write to the database, block or
+ * complete CloudStack callbacks hop to {@link #getCallbackExecutor()}, which
+ * runs them in a managed context carrying the CallContext of the caller.
+ */
+public class DateraAsyncClient {
+
+    private static final Logger s_logger = Logger.getLogger(DateraAsyncClient.class);
+
+    private static final int COMPLETION_THREADS = 16;
+    private static final int CALLBACK_THREADS = 32;
+    private static final int STREAM_THREADS = 8;
+    private static final long IDLE_THREAD_TIMEOUT_SECONDS = 60;
+
+    private static final ExecutorService s_completionExecutor = newManagedExecutor(COMPLETION_THREADS,
+            "DateraAsyncCompletion");
+    private static final ExecutorService s_callbackExecutor = newManagedExecutor(CALLBACK_THREADS,
+            "DateraAsyncCallback");
+    // decodes bodies larger than the response buffer while they arrive
+    private static final ExecutorService s_streamExecutor = newManagedExecutor(STREAM_THREADS,
+            "DateraAsyncStream");
+
+    private DateraAsyncClient() {
+    }
+
+    /**
+     * Executor on which all futures returned by this class are completed
+     *
+     * @return completion executor
+     */
+    public static ExecutorService getCompletionExecutor() {
+        return s_completionExecutor;
+    }
+
+    /**
+     * Executor for continuations which touch the database, block or complete
+     * CloudStack callbacks. Tasks run on a bounded pool of their own, so they
+     * can not starve the completion of other requests, inside a managed
+     * context and with the CallContext of the thread which asked for the
+     * executor, so it has to be obtained before going asynchronous.
+     *
+     * @return executor bound to the caller's CallContext
+     */
+    public static Executor getCallbackExecutor() {
+        CallContext caller = CallContext.current();
+
+        return task -> s_callbackExecutor.execute(() -> {
+            CallContext context = CallContext.register(caller.getCallingUser(), caller.getCallingAccount());
+            context.setStartEventId(caller.getStartEventId());
+
+            try {
+                task.run();
+            } finally {
+                CallContext.unregister();
+            }
+        });
+    }
+
+    /**
+     * Fixed size pool running every task in a managed context, threads are
+     * only kept while there is work
+     */
+    private static ExecutorService newManagedExecutor(int threads, String name) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, IDLE_THREAD_TIMEOUT_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new NamedThreadFactory(name)) {
+            @Override
+            public void execute(Runnable command) {
+                super.execute(new ManagedContextRunnable() {
+                    @Override
+                    protected void runInContext() {
+                        command.run();
+                    }
+                });
+            }
+        };
+
+        executor.allowCoreThreadTimeOut(true);
+
+        return executor;
+    }
+
+    static CompletableFuture<String> login(DateraObject.DateraConnection conn) {
+        HttpPut loginReq = new HttpPut(DateraUtil.generateApiUrl("login"));
+
+        loginReq.setEntity(toEntity(new DateraObject.DateraLogin(conn.getUsername(), conn.getPassword())));
+
+        return DateraRetryPolicy.getDefault().executeAsync(loginReq, DateraRetryPolicy.isIdempotent(loginReq),
+                () -> DateraAsyncClient.<DateraObject.DateraLoginResponse>executeHttp(conn, loginReq,
+                        DateraObject.DateraLoginResponse.class))
+                .thenApply(DateraObject.DateraLoginResponse::getKey);
+    }
+
+    public static CompletableFuture<DateraObject.AppInstance> getAppInstance(DateraObject.DateraConnection conn,
+            String name) {
+        DateraAppInstanceCache cache = DateraAppInstanceCache.getCache();
+
+        DateraObject.AppInstance cached = cache.get(conn, name);
+
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        long generation = cache.getGeneration();
+
+        return DateraAsyncClient.<DateraObject.AppInstance>lookup(conn,
+                DateraUtil.generateApiUrl("app_instances", name), DateraObject.AppInstance.class)
+                .thenApply(appInstance -> {
+                    cache.put(conn, name, appInstance, generation);
+                    return appInstance;
+                });
+    }
+
+    public static CompletableFuture<DateraObject.AppInstance> createAppInstance(DateraObject.DateraConnection conn,
+            String name, int size, int totalIops, int replicaCount) {
+        return createAppInstance(conn, name, size, totalIops, replicaCount, DateraUtil.DEFAULT_VOL_PLACEMENT,
+                DateraUtil.DEFAULT_IP_POOL);
+    }
+
+    /**
+     * Creates an app instance and completes once the array reports its volume
+     * as available
+     */
+    public static CompletableFuture<DateraObject.AppInstance> createAppInstance(DateraObject.DateraConnection conn,
+            String name, int size, int totalIops, int replicaCount, String placementMode, String ipPool) {
+
+        DateraObject.AppInstance appInstance = new DateraObject.AppInstance(name, size, totalIops, replicaCount,
+                placementMode, ipPool);
+
+        HttpPost createAppInstance = new HttpPost(DateraUtil.generateApiUrl("app_instances"));
+        createAppInstance.setEntity(toEntity(appInstance));
+
+        return executeApiRequest(conn, createAppInstance, DateraObject.AppInstance.class)
+                .thenCompose(created -> pollAppInstanceAvailable(conn, name));
+    }
+
+    public static CompletableFuture<DateraObject.AppInstance> pollAppInstanceAvailable(
+            DateraObject.DateraConnection conn, String name) {
+        // batched with every other app instance pending on the cluster
+        return DateraAppInstanceWatcher.awaitAvailable(conn, name);
+    }
+
+    public static CompletableFuture<Void> updateAppInstanceAdminState(DateraObject.DateraConnection conn,
+            String appInstanceName, DateraObject.AppState appState) {
+        HttpPut url = new HttpPut(DateraUtil.generateApiUrl("app_instances", appInstanceName));
+        url.setEntity(toEntity(new DateraObject.AppInstance(appState)));
+
+        return executeApiRequest(conn, url, DateraObject.AppInstance.class).thenApply(appInstance -> null);
+    }
+
+    /**
+     * Takes the app instance offline and deletes it
+     */
+    public static CompletableFuture<Void> deleteAppInstance(DateraObject.DateraConnection conn, String name) {
+        HttpDelete url = new HttpDelete(DateraUtil.generateApiUrl("app_instances", name));
+
+        return updateAppInstanceAdminState(conn, name, DateraObject.AppState.OFFLINE)
+                .thenCompose(ignored -> executeApiRequest(conn, url, DateraObject.AppInstance.class))
+                .thenApply(appInstance -> null);
+    }
+
+    public static CompletableFuture<DateraObject.Initiator> getInitiator(DateraObject.DateraConnection conn,
+            String iqn) {
+        return lookup(conn, DateraUtil.generateApiUrl("initiators", iqn), DateraObject.Initiator.class);
+    }
+
+    public static CompletableFuture<DateraObject.Initiator> createInitiator(DateraObject.DateraConnection conn,
+            String name, String iqn) {
+        HttpPost url = new HttpPost(DateraUtil.generateApiUrl("initiators"));
+        url.setEntity(toEntity(new DateraObject.Initiator(name, iqn)));
+
+        return executeApiRequest(conn, url, DateraObject.Initiator.class);
+    }
+
+    public static CompletableFuture<DateraObject.InitiatorGroup> getInitiatorGroup(
+            DateraObject.DateraConnection conn, String name) {
+        return lookup(conn, DateraUtil.generateApiUrl("initiator_groups", name), DateraObject.InitiatorGroup.class);
+    }
+
+    public static CompletableFuture<DateraObject.InitiatorGroup> createInitiatorGroup(
+            DateraObject.DateraConnection conn, String name) {
+        HttpPost url = new HttpPost(DateraUtil.generateApiUrl("initiator_groups"));
+        url.setEntity(toEntity(new DateraObject.InitiatorGroup(name, Collections.<String>emptyList())));
+
+        return executeApiRequest(conn, url, DateraObject.InitiatorGroup.class);
+    }
+
+    public static CompletableFuture<Map<String, DateraObject.InitiatorGroup>> getAppInstanceInitiatorGroups(
+            DateraObject.DateraConnection conn, String appInstanceName) {
+        HttpGet url = new HttpGet(DateraUtil.generateApiUrl("app_instances", appInstanceName, "storage_instances",
+                DateraObject.DEFAULT_STORAGE_NAME, "acl_policy", "initiator_groups"));
+
+        Type responseType = new TypeToken<Map<String, DateraObject.InitiatorGroup>>() {
+        }.getType();
+
+        return executeApiRequest(conn, url, responseType);
+    }
+
+    /**
+     * Completes once the initiator group is (or, if {@code assigned} is false,
+     * no longer is) in the ACL of the app instance
+     *
+     * @return true if the ACL reached the wanted state in time
+     */
+    public static CompletableFuture<Boolean> pollInitiatorGroupAssignment(DateraObject.DateraConnection conn,
+            String appInstanceName, String initiatorGroupName, boolean assigned) {
+        return DateraPoller.poll(() -> getAppInstanceInitiatorGroups(conn, appInstanceName)
+                        .thenApply(initiatorGroups -> isInitiatorGroupListed(initiatorGroups, initiatorGroupName)),
+                listed -> listed == assigned)
+                .thenApply(listed -> listed == assigned);
+    }
+
+    /**
+     * Adds an initiator group to the ACL of an app instance, unless it already
+     * is in it
+     *
+     * @return true if the group was added, false if it was already assigned
+     */
+    public static CompletableFuture<Boolean> assignGroupToAppInstance(DateraObject.DateraConnection conn,
+            DateraObject.InitiatorGroup initiatorGroup, String appInstanceName) {
+        return updateAppInstanceAcl(conn, initiatorGroup, appInstanceName, DateraObject.DateraOperation.ADD);
+    }
+
+    /**
+     * Removes an initiator group from the ACL of an app instance, if it is in it
+     *
+     * @return true if the group was removed, false if it was not assigned
+     */
+    public static CompletableFuture<Boolean> removeGroupFromAppInstance(DateraObject.DateraConnection conn,
+            DateraObject.InitiatorGroup initiatorGroup, String appInstanceName) {
+        return updateAppInstanceAcl(conn, initiatorGroup, appInstanceName, DateraObject.DateraOperation.REMOVE);
+    }
+
+    private static CompletableFuture<Boolean> updateAppInstanceAcl(DateraObject.DateraConnection conn,
+            DateraObject.InitiatorGroup initiatorGroup, String appInstanceName, DateraObject.DateraOperation op) {
+
+        boolean add = op == DateraObject.DateraOperation.ADD;
+
+        return getAppInstanceInitiatorGroups(conn, appInstanceName).thenCompose(initiatorGroups -> {
+            if (isInitiatorGroupListed(initiatorGroups, initiatorGroup.getName()) == add) {
+                return CompletableFuture.completedFuture(false);
+            }
+
+            HttpPut url = new HttpPut(DateraUtil.generateApiUrl("app_instances", appInstanceName,
+                    "storage_instances", DateraObject.DEFAULT_STORAGE_NAME, "acl_policy", "initiator_groups"));
+            url.setEntity(toEntity(new DateraObject.InitiatorGroup(initiatorGroup.getPath(), op)));
+
+            return DateraAsyncClient.<Void>executeApiRequest(conn, url, null).thenApply(ignored -> true);
+        });
+    }
+
+    /**
+     * Adds an initiator to or removes it from an initiator group
+     */
+    public static CompletableFuture<Void> updateInitiatorGroupMember(DateraObject.DateraConnection conn,
+            String initiatorGroupName, String initiatorPath, DateraObject.DateraOperation op) {
+
+        HttpPut url = new HttpPut(DateraUtil.generateApiUrl("initiator_groups", initiatorGroupName, "members"));
+        url.setEntity(toEntity(new DateraObject.Initiator(initiatorPath, op)));
+
+        return DateraAsyncClient.<Void>executeApiRequest(conn, url, null).thenApply(ignored -> {
+            if (op == DateraObject.DateraOperation.ADD) {
+                DateraInitiatorIndex.getIndex(conn).addMember(initiatorGroupName, initiatorPath);
+            } else {
+                DateraInitiatorIndex.getIndex(conn).removeMember(initiatorGroupName, initiatorPath);
+            }
+
+            return null;
+        });
+    }
+
+    private static boolean isInitiatorGroupListed(Map<String, DateraObject.InitiatorGroup> initiatorGroups,
+            String initiatorGroupName) {
+        if (initiatorGroups == null) {
+            return false;
+        }
+
+        for (DateraObject.InitiatorGroup initiatorGroup : initiatorGroups.values()) {
+            if (initiatorGroupName.equals(initiatorGroup.getName())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public static CompletableFuture<DateraObject.StorageInstance> getStorageInstance(
+            DateraObject.DateraConnection conn, String appInstanceName) {
+        HttpGet url = new HttpGet(DateraUtil.generateApiUrl("app_instances", appInstanceName, "storage_instances",
+                DateraObject.DEFAULT_STORAGE_NAME));
+
+        return executeApiRequest(conn, url, DateraObject.StorageInstance.class);
+    }
+
+    /**
+     * Completes once the ACL granting the initiator group is active on the
+     * storage instance, right away if the array does not report ACL state
+     *
+     * @return the last storage instance seen, see {@link DateraUtil#isAclReady}
+     */
+    public static CompletableFuture<DateraObject.StorageInstance> pollAclReady(DateraObject.DateraConnection conn,
+            String appInstanceName, String initiatorGroupName, long timeoutMs) {
+        return DateraPoller.poll(() -> getStorageInstance(conn, appInstanceName),
+                storageInstance -> !DateraUtil.isAclStateReported(storageInstance)
+                        || DateraUtil.isAclReady(storageInstance, initiatorGroupName),
+                timeoutMs);
+    }
+
+    public static CompletableFuture<DateraObject.VolumeSnapshot> getVolumeSnapshot(
+            DateraObject.DateraConnection conn, String appInstanceName, String snapshotTime) {
+        HttpGet url = new HttpGet(getSnapshotsUrl(appInstanceName, snapshotTime));
+
+        return executeApiRequest(conn, url, DateraObject.VolumeSnapshot.class);
+    }
+
+    /**
+     * Takes a snapshot of the volume of {@code baseAppInstanceName} and completes
+     * once the snapshot is available
+     */
+    public static CompletableFuture<DateraObject.VolumeSnapshot> takeVolumeSnapshot(
+            DateraObject.DateraConnection conn, String baseAppInstanceName) {
+        HttpPost url = new HttpPost(getSnapshotsUrl(baseAppInstanceName));
+        url.setEntity(toEntity(new DateraObject.VolumeSnapshot(UUID.randomUUID().toString())));
+
+        return DateraAsyncClient.<DateraObject.VolumeSnapshot>executeApiRequest(conn, url,
+                DateraObject.VolumeSnapshot.class)
+                .thenCompose(snapshot -> DateraPoller.poll(
+                        () -> getVolumeSnapshot(conn, baseAppInstanceName, snapshot.getTimestamp()),
+                        volumeSnapshot -> Objects.equals(volumeSnapshot.getOpState(), DateraUtil.STATE_AVAILABLE)));
+    }
+
+    /**
+     * @param snapshotName snapshot stored in CloudStack as <AppInstanceName>:<SnapshotTime>
+     */
+    public static CompletableFuture<Void> deleteVolumeSnapshot(DateraObject.DateraConnection conn,
+            String snapshotName) {
+        String[] tokens = snapshotName.split(":");
+        Preconditions.checkArgument(tokens.length == 2);
+
+        HttpDelete url = new HttpDelete(getSnapshotsUrl(tokens[0], tokens[1]));
+
+        return executeApiRequest(conn, url, DateraObject.VolumeSnapshot.class).thenApply(snapshot -> null);
+    }
+
+    private static String getSnapshotsUrl(String appInstanceName, String... snapshotTime) {
+        if (snapshotTime.length == 0) {
+            return DateraUtil.generateApiUrl("app_instances", appInstanceName, "storage_instances",
+                    DateraObject.DEFAULT_STORAGE_NAME, "volumes", DateraObject.DEFAULT_VOLUME_NAME, "snapshots");
+        }
+
+        return DateraUtil.generateApiUrl("app_instances", appInstanceName, "storage_instances",
+                DateraObject.DEFAULT_STORAGE_NAME, "volumes", DateraObject.DEFAULT_VOLUME_NAME, "snapshots",
+                snapshotTime[0]);
+    }
+
+    private static <T> CompletableFuture<T> executeApiRequest(DateraObject.DateraConnection conn,
+            HttpRequestBase apiReq, Type responseType) {
+
+        if (apiReq instanceof HttpGet) {
+            // identical concurrent GETs share one exchange
+            return DateraRequestCoalescer.coalesceAsync(conn, apiReq.getURI().toString(), responseType,
+                    () -> sendApiRequest(conn, apiReq, responseType));
+        }
+
+        // cached and in-flight lookups the write affects are dropped before and after it
+        DateraAppInstanceCache cache = DateraAppInstanceCache.getCache();
+
+        cache.invalidate(conn, apiReq);
+        DateraNotFoundCache.evict(conn, apiReq);
+        DateraRequestCoalescer.evict(conn, apiReq);
+
+        CompletableFuture<T> response = sendApiRequest(conn, apiReq, responseType);
+
+        response.whenComplete((result, throwable) -> {
+            cache.invalidate(conn, apiReq);
+            DateraNotFoundCache.evict(conn, apiReq);
+            DateraRequestCoalescer.evict(conn, apiReq);
+        });
+
+        return response;
+    }
+
+    private static <T> CompletableFuture<T> sendApiRequest(DateraObject.DateraConnection conn,
+            HttpRequestBase apiReq, Type responseType) {
+
+        return DateraRetryPolicy.getDefault().executeAsync(apiReq, DateraRetryPolicy.isIdempotent(apiReq),
+                () -> DateraAsyncClient.<T>sendAuthenticatedRequest(conn, apiReq, responseType));
+    }
+
+    private static <T> CompletableFuture<T> sendAuthenticatedRequest(DateraObject.DateraConnection conn,
+            HttpRequestBase apiReq, Type responseType) {
+
+        return DateraSessionManager.getAuthTokenAsync(conn).thenCompose(authToken -> {
+            apiReq.setHeader(DateraUtil.HEADER_AUTH_TOKEN, authToken);
+
+            CompletableFuture<T> response = executeHttp(conn, apiReq, responseType);
+
+            return response.handle((value, throwable) -> {
+                Throwable cause = unwrap(throwable);
+
+                if (!(cause instanceof DateraObject.DateraError)
+                        || !DateraSessionManager.isAuthError((DateraObject.DateraError) cause)) {
+                    return response;
+                }
+
+                // The session expired on the array, log in again and retry once
+                s_logger.debug("Datera session rejected, logging in again: " + cause.getMessage());
+                DateraSessionManager.invalidate(conn, authToken);
+
+                return DateraSessionManager.getAuthTokenAsync(conn).thenCompose(newToken -> {
+                    apiReq.setHeader(DateraUtil.HEADER_AUTH_TOKEN, newToken);
+
+                    return DateraAsyncClient.<T>executeHttp(conn, apiReq, responseType);
+                });
+            }).thenCompose(future -> future);
+        });
+    }
+
+    private static <T> CompletableFuture<T> executeHttp(DateraObject.DateraConnection conn,
+            HttpRequestBase request, Type responseType) {
+
+        DateraBulkhead bulkhead = DateraBulkhead.getBulkhead(conn);
+        DateraEndpointSelector selector = DateraEndpointSelector.getSelector(conn);
+
+        request.setHeader(DateraUtil.HEADER_CONTENT_TYPE, DateraUtil.HEADER_VALUE_JSON);
+
+        return bulkhead.acquireAsync().thenCompose(ignored -> {
+            long start = System.currentTimeMillis();
+
+            CompletableFuture<T> response;
+
+            if (request instanceof HttpGet && selector.hasMultipleEndpoints()) {
+                // the losing attempt is decoded in full and dropped, nothing to release
+                response = selector.hedge(endpoint -> {
+                    // every attempt needs its own request object
+                    HttpGet attempt = new HttpGet(request.getURI());
+                    attempt.setHeaders(request.getAllHeaders());
+
+                    return DateraAsyncClient.<T>sendHttp(conn, endpoint, attempt, responseType);
+                }, value -> { });
+            } else {
+                response = sendHttp(conn, selector.select(), request, responseType);
+            }
+
+            response.whenComplete((value, throwable) -> bulkhead.release(System.currentTimeMillis() - start,
+                    isOverloaded(throwable)));
+
+            return response;
+        });
+    }
+
+    /**
+     * Sends {@code request} to one management VIP, the body is streamed into
+     * the decoder by a {@link DateraResponseConsumer} and the future completes
+     * on the completion executor with the decoded body
+     */
+    private static <T> CompletableFuture<T> sendHttp(DateraObject.DateraConnection conn,
+            DateraEndpointSelector.Endpoint endpoint, HttpRequestBase request, Type responseType) {
+
+        HttpHost target = new HttpHost(endpoint.getHost(), conn.getManagementPort(), DateraUtil.SCHEME_HTTP);
+
+        DateraResponseConsumer<T> consumer = new DateraResponseConsumer<>(responseType, s_completionExecutor,
+                s_streamExecutor);
+
+        FutureCallback<StatusLine> callback = new FutureCallback<StatusLine>() {
+            @Override
+            public void completed(StatusLine status) {
+                endpoint.end(status.getStatusCode() >= HttpStatus.SC_INTERNAL_SERVER_ERROR);
+            }
+
+            @Override
+            public void failed(Exception e) {
+                endpoint.end(true);
+            }
+
+            @Override
+            public void cancelled() {
+                endpoint.end(false);
+            }
+        };
+
+        endpoint.begin();
+
+        try {
+            DateraConnectionManager.getAsyncHttpClient(conn).execute(HttpAsyncMethods.create(target, request),
+                    consumer, callback);
+        } catch (RuntimeException e) {
+            endpoint.end(false);
+
+            CompletableFuture<T> result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+
+            return result;
+        }
+
+        return consumer.getDecoded();
+    }
+
+    /**
+     * @return true if {@code throwable} says the array or the path to it is
+     *         overloaded, failures to reach it count as overloaded
+     */
+    private static boolean isOverloaded(Throwable throwable) {
+        Throwable cause = unwrap(throwable);
+
+        if (cause == null || cause instanceof CancellationException) {
+            return false;
+        }
+
+        if (cause instanceof DateraObject.DateraError) {
+            return DateraBulkhead.isOverloaded(((DateraObject.DateraError) cause).getCode());
+        }
+
+        return true;
+    }
+
+    /**
+     * GETs a resource, completing with null if it does not exist. Resources
+     * found missing moments ago are not asked for again, see
+     * {@link DateraNotFoundCache}.
+     */
+    private static <T> CompletableFuture<T> lookup(DateraObject.DateraConnection conn, String uri,
+            Type responseType) {
+
+        if (DateraNotFoundCache.isMissing(conn, uri)) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        long missingGeneration = DateraNotFoundCache.getGeneration();
+
+        CompletableFuture<T> future = executeApiRequest(conn, new HttpGet(uri), responseType);
+
+        return future.handle((value, throwable) -> {
+            Throwable cause = unwrap(throwable);
+
+            if (cause == null) {
+                return value;
+            }
+
+            if (cause instanceof DateraObject.DateraError
+                    && DateraObject.DateraErrorTypes.NotFoundError.equals((DateraObject.DateraError) cause)) {
+                DateraNotFoundCache.setMissing(conn, uri, missingGeneration);
+                return null;
+            }
+
+            throw cause instanceof CompletionException ? (CompletionException) cause : new CompletionException(cause);
+        });
+    }
+
+    private static StringEntity toEntity(Object body) {
+        return new StringEntity(DateraUtil.getGson().toJson(body), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Runs {@code operation} for every item with at most {@code parallelism} of
+     * them outstanding at a time, for batches which would otherwise flood the
+     * bulkhead queue of the cluster
+     *
+     * @param items       items to run the operation for
+     * @param parallelism maximum number of operations outstanding
+     * @param operation   non-blocking operation
+     * @return the future of every item, in the order of {@code items}
+     */
+    public static <T, R> Map<T, CompletableFuture<R>> runBounded(Collection<T> items, int parallelism,
+            Function<T, CompletableFuture<R>> operation) {
+
+        Map<T, CompletableFuture<R>> results = new LinkedHashMap<>();
+
+        for (T item : items) {
+            results.put(item, new CompletableFuture<>());
+        }
+
+        Iterator<Map.Entry<T, CompletableFuture<R>>> pending = new ArrayList<>(results.entrySet()).iterator();
+
+        for (int i = 0; i < parallelism; i++) {
+            runNext(pending, operation);
+        }
+
+        return results;
+    }
+
+    private static <T, R> void runNext(Iterator<Map.Entry<T, CompletableFuture<R>>> pending,
+            Function<T, CompletableFuture<R>> operation) {
+
+        Map.Entry<T, CompletableFuture<R>> next;
+
+        synchronized (pending) {
+            if (!pending.hasNext()) {
+                return;
+            }
+
+            next = pending.next();
+        }
+
+        CompletableFuture<R> result;
+
+        try {
+            result = operation.apply(next.getKey());
+        } catch (RuntimeException e) {
+            result = failedFuture(e);
+        }
+
+        result.whenComplete((value, throwable) -> {
+            if (throwable != null) {
+                next.getValue().completeExceptionally(unwrap(throwable));
+            } else {
+                next.getValue().complete(value);
+            }
+
+            runNext(pending, operation);
+        });
+    }
+
+    /**
+     * Java 8 counterpart of {@code CompletableFuture.failedFuture}
+     */
+    public static <T> CompletableFuture<T> failedFuture(Throwable throwable) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(throwable);
+        return future;
+    }
+
+    /**
+     * Waits for {@code future}, for callers which have no completion callback to
+     * hand the result to
+     *
+     * @param future future to wait on
+     * @return the result of the future
+     * @throws CloudRuntimeException if the future failed with a checked exception
+     */
+    public static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = unwrap(e);
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            throw new CloudRuntimeException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Strips the {@link CompletionException} wrapper added by dependent stages
+     *
+     * @param throwable failure of a future, may be null
+     * @return the underlying cause
+     */
+    public static Throwable unwrap(Throwable throwable) {
+        if (throwable instanceof CompletionException && throwable.getCause() != null) {
+            return throwable.getCause();
+        }
+
+        return throwable;
+    }
+}
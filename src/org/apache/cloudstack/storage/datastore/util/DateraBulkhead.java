@@ -0,0 +1,327 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.storage.datastore.util;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.mgmt.JmxUtil;
+import org.apache.http.HttpStatus;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Bounds the number of concurrent requests sent to one Datera management
+ * endpoint. Requests over the limit wait in a bounded FIFO queue and are
+ * rejected once it is full.
+ *
+ * The limit itself is adaptive (AIMD): every request that completes in
+ * reasonable time grows it by 1/limit, i.e. by one per round of requests, up to
+ * the HTTP pool size. A 5xx/429 response, an I/O failure or a latency well above
+ * the observed baseline halves it, at most once per {@link #BACKOFF_INTERVAL_MS}.
+ *
+ * The upper bound follows the HTTP pool of the endpoint and is updated when a
+ * connection arrives with a different pool size or VIP list.
+ */
+public class DateraBulkhead implements DateraBulkheadMBean {
+
+    private static final Logger s_logger = Logger.getLogger(DateraBulkhead.class);
+
+    public static final int DEFAULT_MAX_QUEUE_DEPTH = 256;
+
+    private static final int MIN_LIMIT = 1;
+    private static final double BACKOFF_RATIO = 0.5;
+    private static final long BACKOFF_INTERVAL_MS = 1000;
+
+    // a response is considered slow if it takes LATENCY_TOLERANCE times the
+    // baseline, and never below LATENCY_FLOOR_MS
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final long LATENCY_FLOOR_MS = 500;
+    private static final double BASELINE_WEIGHT = 0.05;
+
+    private static final Map<String, DateraBulkhead> s_bulkheads = new ConcurrentHashMap<>();
+
+    private final String endpoint;
+    private volatile int maxLimit;
+    private final int maxQueueDepth;
+
+    private final Deque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+
+    private double limit;
+    private int inFlight;
+    private double baselineLatencyMs;
+    private long lastBackoffAt;
+    private long rejectedRequests;
+
+    DateraBulkhead(String endpoint, int maxLimit, int maxQueueDepth) {
+        this.endpoint = endpoint;
+        this.maxLimit = Math.max(MIN_LIMIT, maxLimit);
+        this.maxQueueDepth = maxQueueDepth;
+        this.limit = this.maxLimit;
+    }
+
+    /**
+     * Returns the bulkhead of the management endpoint of {@code conn}, creating
+     * and registering it with JMX on first use
+     *
+     * @param conn Datera connection
+     * @return shared bulkhead
+     */
+    public static DateraBulkhead getBulkhead(DateraObject.DateraConnection conn) {
+        String key = conn.getManagementIp() + ":" + conn.getManagementPort();
+        int maxLimit = Math.max(MIN_LIMIT, conn.getMaxConnectionsPerRoute() * conn.getManagementIps().size());
+
+        DateraBulkhead bulkhead = s_bulkheads.get(key);
+
+        if (bulkhead != null) {
+            if (bulkhead.maxLimit != maxLimit) {
+                bulkhead.setMaxLimit(maxLimit);
+            }
+
+            return bulkhead;
+        }
+
+        synchronized (s_bulkheads) {
+            bulkhead = s_bulkheads.get(key);
+
+            if (bulkhead == null) {
+                bulkhead = new DateraBulkhead(key, maxLimit, DEFAULT_MAX_QUEUE_DEPTH);
+                s_bulkheads.put(key, bulkhead);
+
+                try {
+                    JmxUtil.registerMBean("Datera", "Bulkhead-" + key.replace(':', '_'), bulkhead);
+                } catch (Exception e) {
+                    s_logger.warn("Unable to register Datera bulkhead MBean for " + key, e);
+                }
+            }
+        }
+
+        return bulkhead;
+    }
+
+    /**
+     * Moves the upper bound of the limit, e.g. after the HTTP pool of the
+     * endpoint was resized. A limit running at the old bound moves with it,
+     * a reduced limit keeps recovering towards the new bound.
+     *
+     * @param maxLimit new upper bound
+     */
+    void setMaxLimit(int maxLimit) {
+        List<CompletableFuture<Void>> granted;
+
+        synchronized (this) {
+            int newMaxLimit = Math.max(MIN_LIMIT, maxLimit);
+
+            if (newMaxLimit == this.maxLimit) {
+                return;
+            }
+
+            s_logger.info("Maximum concurrency limit of Datera endpoint " + endpoint + " changed from "
+                    + this.maxLimit + " to " + newMaxLimit);
+
+            if (limit >= this.maxLimit || limit > newMaxLimit) {
+                limit = newMaxLimit;
+            }
+
+            this.maxLimit = newMaxLimit;
+
+            granted = grantWaiters();
+        }
+
+        complete(granted);
+    }
+
+    /**
+     * @param statusCode HTTP status returned by Datera
+     * @return true if the status means the array is shedding load
+     */
+    public static boolean isOverloaded(int statusCode) {
+        return statusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR || statusCode == 429;
+    }
+
+    /**
+     * Blocks until a slot is free
+     *
+     * @param timeoutMs how long to wait in the queue
+     * @throws CloudRuntimeException if the queue is full or the wait times out
+     */
+    public void acquire(long timeoutMs) {
+        CompletableFuture<Void> permit = acquireAsync();
+
+        try {
+            permit.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            if (cancel(permit)) {
+                throw new CloudRuntimeException("Timed out waiting for a request slot on Datera endpoint " + endpoint);
+            }
+            // granted while timing out, keep the slot
+        } catch (InterruptedException e) {
+            if (!cancel(permit)) {
+                releaseUnused();
+            }
+
+            Thread.currentThread().interrupt();
+            throw new CloudRuntimeException("Interrupted while waiting for a request slot on Datera endpoint " + endpoint);
+        } catch (ExecutionException e) {
+            throw (CloudRuntimeException) e.getCause();
+        }
+    }
+
+    /**
+     * @return future completed once a slot is free, or failed if the queue is full
+     */
+    public CompletableFuture<Void> acquireAsync() {
+        synchronized (this) {
+            if (inFlight < (int) limit && waiters.isEmpty()) {
+                inFlight++;
+                return CompletableFuture.completedFuture(null);
+            }
+
+            if (waiters.size() < maxQueueDepth) {
+                CompletableFuture<Void> permit = new CompletableFuture<>();
+                waiters.add(permit);
+                return permit;
+            }
+
+            rejectedRequests++;
+        }
+
+        return DateraAsyncClient.failedFuture(new CloudRuntimeException("Too many pending requests to Datera endpoint "
+                + endpoint + ", " + maxQueueDepth + " already queued"));
+    }
+
+    /**
+     * Returns a slot and feeds the outcome of the request into the limiter
+     *
+     * @param latencyMs  time the request took
+     * @param overloaded true if the request failed in a way which indicates load
+     */
+    public void release(long latencyMs, boolean overloaded) {
+        List<CompletableFuture<Void>> granted;
+
+        synchronized (this) {
+            inFlight--;
+
+            long now = System.currentTimeMillis();
+            boolean slow = baselineLatencyMs > 0
+                    && latencyMs > Math.max(LATENCY_FLOOR_MS, LATENCY_TOLERANCE * baselineLatencyMs);
+
+            if (overloaded || slow) {
+                if (now - lastBackoffAt >= BACKOFF_INTERVAL_MS) {
+                    lastBackoffAt = now;
+                    limit = Math.max(MIN_LIMIT, limit * BACKOFF_RATIO);
+                    s_logger.info("Datera endpoint " + endpoint + " is " + (overloaded ? "overloaded" : "slow")
+                            + " (" + latencyMs + " ms), reducing concurrency limit to " + (int) limit);
+                }
+            } else {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+                baselineLatencyMs = baselineLatencyMs == 0 ? latencyMs
+                        : baselineLatencyMs + BASELINE_WEIGHT * (latencyMs - baselineLatencyMs);
+            }
+
+            granted = grantWaiters();
+        }
+
+        complete(granted);
+    }
+
+    private void releaseUnused() {
+        List<CompletableFuture<Void>> granted;
+
+        synchronized (this) {
+            inFlight--;
+            granted = grantWaiters();
+        }
+
+        complete(granted);
+    }
+
+    private synchronized boolean cancel(CompletableFuture<Void> permit) {
+        waiters.remove(permit);
+
+        return permit.cancel(false);
+    }
+
+    private List<CompletableFuture<Void>> grantWaiters() {
+        List<CompletableFuture<Void>> granted = new ArrayList<>();
+
+        while (inFlight < (int) limit && !waiters.isEmpty()) {
+            CompletableFuture<Void> permit = waiters.poll();
+
+            if (!permit.isDone()) {
+                inFlight++;
+                granted.add(permit);
+            }
+        }
+
+        return granted;
+    }
+
+    // completed outside the lock as the waiters' continuations run inline
+    private void complete(List<CompletableFuture<Void>> granted) {
+        for (CompletableFuture<Void> permit : granted) {
+            if (!permit.complete(null)) {
+                // cancelled in the meantime
+                releaseUnused();
+            }
+        }
+    }
+
+    @Override
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    @Override
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    @Override
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    @Override
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    @Override
+    public synchronized int getQueueDepth() {
+        return waiters.size();
+    }
+
+    @Override
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    @Override
+    public synchronized long getRejectedRequests() {
+        return rejectedRequests;
+    }
+}
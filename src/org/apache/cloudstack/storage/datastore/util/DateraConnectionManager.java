@@ -0,0 +1,280 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.storage.datastore.util;
+
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.exception.CloudRuntimeException;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps one long lived, pooled HTTP client per Datera management endpoint
+ * (management VIP and port) so that REST calls reuse keep-alive connections
+ * instead of opening a new socket for every request.
+ *
+ * A client is built for the VIPs and HTTP settings of the connection which
+ * created it. When a connection to the same endpoint arrives with other
+ * settings, e.g. after the pool details were changed, a new client replaces
+ * it and the old one is closed once its requests had time to finish.
+ */
+public class DateraConnectionManager {
+
+    private static final Logger s_logger = Logger.getLogger(DateraConnectionManager.class);
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+    public static final int DEFAULT_CONNECT_TIMEOUT_MS = 10000;
+    public static final int DEFAULT_READ_TIMEOUT_MS = 60000;
+    public static final int DEFAULT_IDLE_TIMEOUT_MS = 30000;
+
+    private static final Map<String, PooledClient<CloseableHttpClient>> s_clients = new ConcurrentHashMap<>();
+    private static final Map<String, PooledClient<CloseableHttpAsyncClient>> s_asyncClients =
+            new ConcurrentHashMap<>();
+
+    private static final ScheduledExecutorService s_retireExecutor = Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("DateraHttpClientRetire"));
+
+    private static class PooledClient<C extends Closeable> {
+        final String settings;
+        final C client;
+        final long closeDelayMs;
+
+        PooledClient(DateraObject.DateraConnection conn, C client) {
+            this.settings = getSettings(conn);
+            this.client = client;
+            // requests already sent on the client may take up to a connect and a read timeout
+            this.closeDelayMs = (long) conn.getConnectTimeoutMs() + conn.getReadTimeoutMs();
+        }
+    }
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                shutdown();
+            }
+        }, "DateraConnectionManager-shutdown"));
+    }
+
+    private DateraConnectionManager() {
+    }
+
+    /**
+     * Returns the pooled HTTP client for the management endpoint of {@code conn},
+     * creating it on first use or when the VIPs or HTTP settings of
+     * {@code conn} differ from those the current client was built with
+     *
+     * @param conn Datera connection
+     * @return shared HTTP client, never closed by callers
+     */
+    public static CloseableHttpClient getHttpClient(DateraObject.DateraConnection conn) {
+        String key = getKey(conn);
+
+        PooledClient<CloseableHttpClient> pooled = s_clients.get(key);
+
+        if (pooled != null && pooled.settings.equals(getSettings(conn))) {
+            return pooled.client;
+        }
+
+        synchronized (s_clients) {
+            pooled = s_clients.get(key);
+
+            if (pooled == null || !pooled.settings.equals(getSettings(conn))) {
+                PooledClient<CloseableHttpClient> created = new PooledClient<>(conn, createHttpClient(conn));
+
+                s_clients.put(key, created);
+                s_logger.debug("Created pooled HTTP client for Datera endpoint " + key + " with " + created.settings);
+
+                retire(key, pooled);
+
+                pooled = created;
+            }
+        }
+
+        return pooled.client;
+    }
+
+    /**
+     * Returns the started, non-blocking HTTP client for the management endpoint
+     * of {@code conn}, creating it on first use or when the VIPs or HTTP
+     * settings of {@code conn} changed
+     *
+     * @param conn Datera connection
+     * @return shared asynchronous HTTP client, never closed by callers
+     */
+    public static CloseableHttpAsyncClient getAsyncHttpClient(DateraObject.DateraConnection conn) {
+        String key = getKey(conn);
+
+        PooledClient<CloseableHttpAsyncClient> pooled = s_asyncClients.get(key);
+
+        if (pooled != null && pooled.settings.equals(getSettings(conn))) {
+            return pooled.client;
+        }
+
+        synchronized (s_asyncClients) {
+            pooled = s_asyncClients.get(key);
+
+            if (pooled == null || !pooled.settings.equals(getSettings(conn))) {
+                CloseableHttpAsyncClient httpClient = createAsyncHttpClient(conn);
+                httpClient.start();
+
+                PooledClient<CloseableHttpAsyncClient> created = new PooledClient<>(conn, httpClient);
+
+                s_asyncClients.put(key, created);
+                s_logger.debug("Created asynchronous HTTP client for Datera endpoint " + key + " with "
+                        + created.settings);
+
+                retire(key, pooled);
+
+                pooled = created;
+            }
+        }
+
+        return pooled.client;
+    }
+
+    /**
+     * Closes a replaced client once the requests it is still running had time
+     * to complete
+     */
+    private static void retire(String key, PooledClient<? extends Closeable> replaced) {
+        if (replaced == null) {
+            return;
+        }
+
+        s_logger.info("Settings of Datera endpoint " + key + " changed, closing the client built with "
+                + replaced.settings + " in " + replaced.closeDelayMs + " ms");
+
+        s_retireExecutor.schedule(() -> closeQuietly(key, replaced.client), replaced.closeDelayMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Closes every pooled client. Invoked from the JVM shutdown hook.
+     */
+    public static void shutdown() {
+        synchronized (s_clients) {
+            for (Map.Entry<String, PooledClient<CloseableHttpClient>> entry : s_clients.entrySet()) {
+                closeQuietly(entry.getKey(), entry.getValue().client);
+            }
+
+            s_clients.clear();
+        }
+
+        synchronized (s_asyncClients) {
+            for (Map.Entry<String, PooledClient<CloseableHttpAsyncClient>> entry : s_asyncClients.entrySet()) {
+                closeQuietly(entry.getKey(), entry.getValue().client);
+            }
+
+            s_asyncClients.clear();
+        }
+    }
+
+    private static CloseableHttpClient createHttpClient(DateraObject.DateraConnection conn) {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+
+        connectionManager.setDefaultMaxPerRoute(conn.getMaxConnectionsPerRoute());
+        connectionManager.setMaxTotal(conn.getMaxConnectionsPerRoute() * conn.getManagementIps().size());
+        // re-validate connections which sat idle in the pool before reusing them
+        connectionManager.setValidateAfterInactivity(conn.getIdleTimeoutMs() / 2);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(conn.getConnectTimeoutMs())
+                .setConnectionRequestTimeout(conn.getConnectTimeoutMs())
+                .setSocketTimeout(conn.getReadTimeoutMs())
+                .build();
+
+        return HttpClientBuilder.create()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .evictExpiredConnections()
+                .evictIdleConnections(conn.getIdleTimeoutMs(), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    private static CloseableHttpAsyncClient createAsyncHttpClient(DateraObject.DateraConnection conn) {
+        IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setConnectTimeout(conn.getConnectTimeoutMs())
+                .setSoTimeout(conn.getReadTimeoutMs())
+                .setSoKeepAlive(true)
+                .build();
+
+        PoolingNHttpClientConnectionManager connectionManager;
+
+        try {
+            connectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(ioReactorConfig));
+        } catch (IOReactorException e) {
+            throw new CloudRuntimeException("Unable to create I/O reactor for Datera endpoint " + getKey(conn), e);
+        }
+
+        connectionManager.setDefaultMaxPerRoute(conn.getMaxConnectionsPerRoute());
+        connectionManager.setMaxTotal(conn.getMaxConnectionsPerRoute() * conn.getManagementIps().size());
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(conn.getConnectTimeoutMs())
+                .setConnectionRequestTimeout(conn.getConnectTimeoutMs())
+                .setSocketTimeout(conn.getReadTimeoutMs())
+                .build();
+
+        return HttpAsyncClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .build();
+    }
+
+    private static void closeQuietly(String key, Closeable httpClient) {
+        if (httpClient == null) {
+            return;
+        }
+
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            s_logger.warn("Error closing HTTP client for Datera endpoint " + key, e);
+        }
+    }
+
+    private static String getKey(DateraObject.DateraConnection conn) {
+        return conn.getManagementIp() + ":" + conn.getManagementPort();
+    }
+
+    /**
+     * @return everything a client is built from, the client is rebuilt when it changes
+     */
+    static String getSettings(DateraObject.DateraConnection conn) {
+        return "vips=" + conn.getManagementIps() + ", maxConnectionsPerRoute=" + conn.getMaxConnectionsPerRoute()
+                + ", connectTimeoutMs=" + conn.getConnectTimeoutMs() + ", readTimeoutMs=" + conn.getReadTimeoutMs()
+                + ", idleTimeoutMs=" + conn.getIdleTimeoutMs();
+    }
+}
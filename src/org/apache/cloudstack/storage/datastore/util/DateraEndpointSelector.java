@@ -0,0 +1,412 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.storage.datastore.util;
+
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Spreads requests over the management VIPs of one Datera cluster.
+ *
+ * Each request goes to the healthy VIP with the fewest outstanding requests. A
+ * VIP is taken out of rotation for {@link #UNHEALTHY_PERIOD_MS} after
+ * {@link #UNHEALTHY_AFTER_FAILURES} consecutive failures and is then given one
+ * request to prove itself again. If every VIP is unhealthy the one that has
+ * been out the longest is used.
+ *
+ * Reads can be hedged with {@link #hedge}: once the first attempt has been
+ * outstanding for longer than the p95 of recent reads, the same read is sent to
+ * a second VIP and whichever reply arrives first wins.
+ *
+ * The selector of a cluster is rebuilt when a connection brings a different
+ * VIP list; VIPs kept in the list keep their health and outstanding requests.
+ */
+public class DateraEndpointSelector {
+
+    private static final Logger s_logger = Logger.getLogger(DateraEndpointSelector.class);
+
+    public static final int UNHEALTHY_AFTER_FAILURES = 3;
+    public static final long UNHEALTHY_PERIOD_MS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final int LATENCY_SAMPLES = 256;
+    private static final int MIN_LATENCY_SAMPLES = 20;
+    private static final int HEDGE_DELAY_REFRESH_SAMPLES = 16;
+    private static final long MIN_HEDGE_DELAY_MS = 50;
+    private static final double HEDGE_PERCENTILE = 0.95;
+
+    private static final Map<String, DateraEndpointSelector> s_selectors = new ConcurrentHashMap<>();
+
+    private static final ScheduledExecutorService s_hedgeTimer = Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("DateraHedgeTimer"));
+    private static final ExecutorService s_requestExecutor = Executors.newCachedThreadPool(
+            new NamedThreadFactory("DateraHedgedRequest"));
+
+    private final List<Endpoint> endpoints;
+
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyCount;
+    private long hedgeDelayMs = -1;
+
+    DateraEndpointSelector(List<String> hosts) {
+        this(hosts, null);
+    }
+
+    /**
+     * @param hosts    management VIPs of the cluster
+     * @param previous selector being replaced, whose endpoints are reused for
+     *                 the VIPs still in {@code hosts}
+     */
+    DateraEndpointSelector(List<String> hosts, DateraEndpointSelector previous) {
+        List<Endpoint> endpoints = new ArrayList<>(hosts.size());
+
+        for (String host : hosts) {
+            Endpoint endpoint = previous != null ? previous.getEndpoint(host) : null;
+
+            endpoints.add(endpoint != null ? endpoint : new Endpoint(host));
+        }
+
+        this.endpoints = Collections.unmodifiableList(endpoints);
+    }
+
+    /**
+     * Returns the selector of the cluster behind {@code conn}, creating it on
+     * first use
+     *
+     * @param conn Datera connection
+     * @return shared selector
+     */
+    public static DateraEndpointSelector getSelector(DateraObject.DateraConnection conn) {
+        String key = conn.getManagementIp() + ":" + conn.getManagementPort();
+
+        DateraEndpointSelector selector = s_selectors.get(key);
+
+        if (selector != null && selector.hasHosts(conn.getManagementIps())) {
+            return selector;
+        }
+
+        synchronized (s_selectors) {
+            selector = s_selectors.get(key);
+
+            if (selector == null || !selector.hasHosts(conn.getManagementIps())) {
+                if (selector != null) {
+                    s_logger.info("Management VIPs of Datera cluster " + key + " changed to "
+                            + conn.getManagementIps());
+                }
+
+                selector = new DateraEndpointSelector(conn.getManagementIps(), selector);
+
+                s_selectors.put(key, selector);
+            }
+        }
+
+        return selector;
+    }
+
+    /**
+     * @return true if the selector spreads requests over exactly {@code hosts}
+     */
+    boolean hasHosts(List<String> hosts) {
+        if (hosts.size() != endpoints.size()) {
+            return false;
+        }
+
+        for (int i = 0; i < hosts.size(); i++) {
+            if (!hosts.get(i).equals(endpoints.get(i).getHost())) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private Endpoint getEndpoint(String host) {
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.getHost().equals(host)) {
+                return endpoint;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Executor for blocking requests which are raced against each other by
+     * {@link #hedge}
+     */
+    static ExecutorService getRequestExecutor() {
+        return s_requestExecutor;
+    }
+
+    /**
+     * @return true if there is more than one VIP to spread and hedge requests over
+     */
+    public boolean hasMultipleEndpoints() {
+        return endpoints.size() > 1;
+    }
+
+    /**
+     * @return the healthy VIP with the fewest outstanding requests
+     */
+    public Endpoint select() {
+        return select(null);
+    }
+
+    private Endpoint select(Endpoint exclude) {
+        long now = System.currentTimeMillis();
+
+        Endpoint best = null;
+
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint != exclude && endpoint.isHealthy(now)
+                    && (best == null || endpoint.getOutstanding() < best.getOutstanding())) {
+                best = endpoint;
+            }
+        }
+
+        if (best == null && exclude == null) {
+            // nothing is healthy, probe the VIP that has been out the longest
+            for (Endpoint endpoint : endpoints) {
+                if (best == null || endpoint.getUnhealthyUntil() < best.getUnhealthyUntil()) {
+                    best = endpoint;
+                }
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Runs a read against the best VIP and, if it has not answered within the
+     * p95 of recent reads or has failed, once more against another healthy VIP
+     *
+     * @param attempt sends the read to the given VIP
+     * @param discard disposes of the reply that lost the race
+     * @return the first successful reply, or the last failure
+     */
+    public <T> CompletableFuture<T> hedge(Function<Endpoint, CompletableFuture<T>> attempt, Consumer<T> discard) {
+        HedgedRequest<T> request = new HedgedRequest<>(attempt, discard);
+
+        request.start();
+
+        return request.result;
+    }
+
+    /**
+     * @return delay after which a read is hedged, -1 until enough reads were seen
+     */
+    synchronized long getHedgeDelayMs() {
+        return hedgeDelayMs;
+    }
+
+    private synchronized void recordReadLatency(long latencyMs) {
+        latencies[latencyCount % LATENCY_SAMPLES] = latencyMs;
+        latencyCount++;
+
+        if (latencyCount >= MIN_LATENCY_SAMPLES && latencyCount % HEDGE_DELAY_REFRESH_SAMPLES == 0) {
+            long[] samples = Arrays.copyOf(latencies, Math.min(latencyCount, LATENCY_SAMPLES));
+
+            Arrays.sort(samples);
+
+            long p95 = samples[(int) Math.ceil(HEDGE_PERCENTILE * samples.length) - 1];
+
+            hedgeDelayMs = Math.max(MIN_HEDGE_DELAY_MS, p95);
+        }
+    }
+
+    /**
+     * One management VIP of the cluster
+     */
+    public static class Endpoint {
+
+        private final String host;
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        private int consecutiveFailures;
+        private long unhealthyUntil;
+
+        Endpoint(String host) {
+            this.host = host;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        /**
+         * Counts a request as outstanding, to be paired with {@link #end(boolean)}
+         */
+        public void begin() {
+            outstanding.incrementAndGet();
+        }
+
+        /**
+         * @param failed true if the request failed on I/O or with a 5xx
+         */
+        public synchronized void end(boolean failed) {
+            outstanding.decrementAndGet();
+
+            if (!failed) {
+                if (consecutiveFailures >= UNHEALTHY_AFTER_FAILURES) {
+                    s_logger.info("Datera management VIP " + host + " is healthy again");
+                }
+
+                consecutiveFailures = 0;
+                unhealthyUntil = 0;
+
+                return;
+            }
+
+            consecutiveFailures++;
+
+            if (consecutiveFailures >= UNHEALTHY_AFTER_FAILURES) {
+                unhealthyUntil = System.currentTimeMillis() + UNHEALTHY_PERIOD_MS;
+            }
+
+            if (consecutiveFailures == UNHEALTHY_AFTER_FAILURES) {
+                s_logger.warn("Datera management VIP " + host + " failed " + consecutiveFailures
+                        + " requests in a row, taking it out of rotation for " + UNHEALTHY_PERIOD_MS + " ms");
+            }
+        }
+
+        int getOutstanding() {
+            return outstanding.get();
+        }
+
+        synchronized long getUnhealthyUntil() {
+            return unhealthyUntil;
+        }
+
+        synchronized boolean isHealthy(long now) {
+            return consecutiveFailures < UNHEALTHY_AFTER_FAILURES || now >= unhealthyUntil;
+        }
+    }
+
+    private class HedgedRequest<T> {
+
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final Function<Endpoint, CompletableFuture<T>> attempt;
+        private final Consumer<T> discard;
+        private final long start = System.currentTimeMillis();
+
+        private Endpoint first;
+        private int running;
+        private boolean hedged;
+
+        HedgedRequest(Function<Endpoint, CompletableFuture<T>> attempt, Consumer<T> discard) {
+            this.attempt = attempt;
+            this.discard = discard;
+        }
+
+        void start() {
+            synchronized (this) {
+                first = select();
+                running++;
+            }
+
+            send(first);
+
+            long delay = getHedgeDelayMs();
+
+            if (delay >= 0 && !result.isDone()) {
+                ScheduledFuture<?> timer = s_hedgeTimer.schedule(() -> sendHedge(), delay, TimeUnit.MILLISECONDS);
+
+                result.whenComplete((value, throwable) -> timer.cancel(false));
+            }
+        }
+
+        /**
+         * @return true if a second attempt was started
+         */
+        private boolean sendHedge() {
+            Endpoint second;
+
+            synchronized (this) {
+                if (hedged || result.isDone()) {
+                    return false;
+                }
+
+                hedged = true;
+                second = select(first);
+
+                if (second == null) {
+                    return false;
+                }
+
+                running++;
+            }
+
+            s_logger.debug("Hedging Datera read to " + second.getHost() + " after " + (System.currentTimeMillis() - start)
+                    + " ms without a reply from " + first.getHost());
+
+            send(second);
+
+            return true;
+        }
+
+        private void send(Endpoint endpoint) {
+            CompletableFuture<T> response;
+
+            try {
+                response = attempt.apply(endpoint);
+            } catch (RuntimeException e) {
+                response = DateraAsyncClient.failedFuture(e);
+            }
+
+            response.whenComplete(this::onComplete);
+        }
+
+        private void onComplete(T value, Throwable throwable) {
+            if (throwable == null) {
+                if (result.complete(value)) {
+                    recordReadLatency(System.currentTimeMillis() - start);
+                } else if (value != null) {
+                    discard.accept(value);
+                }
+
+                return;
+            }
+
+            boolean last;
+
+            synchronized (this) {
+                last = --running == 0;
+            }
+
+            // a failed read is retried on another VIP straight away
+            if (last && !sendHedge()) {
+                result.completeExceptionally(DateraAsyncClient.unwrap(throwable));
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.storage.datastore.util;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Index of the initiators and initiator groups of one Datera cluster: IQN to
+ * initiator path, and initiator group name to the set of its member paths.
+ *
+ * The index is built from one listing of each resource the first time it is
+ * used and then kept current by the initiator and initiator group calls of
+ * {@link DateraUtil}, which record what they create, change or read. It is
+ * rebuilt after {@link #RELOAD_INTERVAL_MS}, or sooner once
+ * {@link #invalidate()} was called, to pick up changes made by other
+ * management servers or on the array itself.
+ */
+public class DateraInitiatorIndex {
+
+    private static final Logger s_logger = Logger.getLogger(DateraInitiatorIndex.class);
+
+    public static final long RELOAD_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final Map<String, DateraInitiatorIndex> s_indexes = new ConcurrentHashMap<>();
+
+    private final Map<String, String> initiatorPaths = new HashMap<>();
+    private final Map<String, Set<String>> groupMembers = new HashMap<>();
+
+    private boolean loaded;
+    private long loadedAt;
+
+    DateraInitiatorIndex() {
+    }
+
+    /**
+     * Returns the index of the cluster behind {@code conn}, creating it on
+     * first use
+     *
+     * @param conn Datera connection
+     * @return shared index, loaded on the first lookup
+     */
+    public static DateraInitiatorIndex getIndex(DateraObject.DateraConnection conn) {
+        String key = conn.getManagementIp() + ":" + conn.getManagementPort();
+
+        DateraInitiatorIndex index = s_indexes.get(key);
+
+        if (index == null) {
+            DateraInitiatorIndex newIndex = new DateraInitiatorIndex();
+
+            index = s_indexes.putIfAbsent(key, newIndex);
+
+            if (index == null) {
+                index = newIndex;
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * @param conn Datera connection
+     * @param iqn  IQN of a host
+     * @return path of the initiator registered for {@code iqn}, null if there
+     *         is none
+     * @throws DateraObject.DateraError if the index could not be loaded
+     */
+    public synchronized String getInitiatorPath(DateraObject.DateraConnection conn, String iqn)
+            throws DateraObject.DateraError {
+        load(conn);
+
+        return initiatorPaths.get(iqn);
+    }
+
+    /**
+     * @param conn      Datera connection
+     * @param groupName initiator group
+     * @return member paths of the group, null if the group is not known
+     * @throws DateraObject.DateraError if the index could not be loaded
+     */
+    public synchronized Set<String> getMembers(DateraObject.DateraConnection conn, String groupName)
+            throws DateraObject.DateraError {
+        load(conn);
+
+        Set<String> members = groupMembers.get(groupName);
+
+        return members != null ? Collections.unmodifiableSet(new HashSet<>(members)) : null;
+    }
+
+    /**
+     * Forces the index to be rebuilt on the next lookup, after a request
+     * failed in a way suggesting it no longer matches the array
+     */
+    public synchronized void invalidate() {
+        loaded = false;
+        initiatorPaths.clear();
+        groupMembers.clear();
+    }
+
+    synchronized void putInitiator(DateraObject.Initiator initiator) {
+        if (loaded && initiator != null && initiator.getId() != null && initiator.getPath() != null) {
+            initiatorPaths.put(initiator.getId(), initiator.getPath());
+        }
+    }
+
+    synchronized void removeInitiator(String iqn) {
+        initiatorPaths.remove(iqn);
+    }
+
+    synchronized void putGroup(DateraObject.InitiatorGroup initiatorGroup) {
+        if (loaded && initiatorGroup != null && initiatorGroup.getName() != null) {
+            groupMembers.put(initiatorGroup.getName(), toSet(initiatorGroup));
+        }
+    }
+
+    synchronized void removeGroup(String groupName) {
+        groupMembers.remove(groupName);
+    }
+
+    synchronized void addMember(String groupName, String initiatorPath) {
+        Set<String> members = groupMembers.get(groupName);
+
+        if (members != null) {
+            members.add(initiatorPath);
+        }
+    }
+
+    synchronized void removeMember(String groupName, String initiatorPath) {
+        Set<String> members = groupMembers.get(groupName);
+
+        if (members != null) {
+            members.remove(initiatorPath);
+        }
+    }
+
+    // lookups wait for a load in progress rather than listing the cluster themselves
+    private void load(DateraObject.DateraConnection conn) throws DateraObject.DateraError {
+        if (loaded && System.currentTimeMillis() - loadedAt < RELOAD_INTERVAL_MS) {
+            return;
+        }
+
+        Map<String, String> initiators = new HashMap<>();
+        Map<String, Set<String>> groups = new HashMap<>();
+
+        try (DateraListIterator<DateraObject.Initiator> iterator = DateraUtil.iterateInitiators(conn)) {
+            while (iterator.hasNext()) {
+                DateraObject.Initiator initiator = iterator.next();
+
+                initiators.put(initiator.getId(), initiator.getPath());
+            }
+        } catch (IOException e) {
+            s_logger.debug("Error while closing the Datera initiator listing: " + e.getMessage());
+        }
+
+        try (DateraListIterator<DateraObject.InitiatorGroup> iterator = DateraUtil.iterateInitiatorGroups(conn)) {
+            while (iterator.hasNext()) {
+                DateraObject.InitiatorGroup initiatorGroup = iterator.next();
+
+                groups.put(initiatorGroup.getName(), toSet(initiatorGroup));
+            }
+        } catch (IOException e) {
+            s_logger.debug("Error while closing the Datera initiator group listing: " + e.getMessage());
+        }
+
+        initiatorPaths.clear();
+        initiatorPaths.putAll(initiators);
+        groupMembers.clear();
+        groupMembers.putAll(groups);
+
+        loaded = true;
+        loadedAt = System.currentTimeMillis();
+
+        s_logger.debug("Indexed " + initiators.size() + " Datera initiators and " + groups.size()
+                + " initiator groups");
+    }
+
+    private static Set<String> toSet(DateraObject.InitiatorGroup initiatorGroup) {
+        return initiatorGroup.getMembers() != null ? new HashSet<>(initiatorGroup.getMembers())
+                : new HashSet<String>();
+    }
+}
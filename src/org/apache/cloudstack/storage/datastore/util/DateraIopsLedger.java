@@ -0,0 +1,130 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+
+package org.apache.cloudstack.storage.datastore.util;
+
+import org.apache.cloudstack.storage.datastore.db.StoragePoolDetailsDao;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Max IOPS provisioned on a Datera primary storage pool, the sum of the
+ * performance policies of the app instances backing its volumes.
+ *
+ * The IOPS of every app instance are counted from one app_instances listing;
+ * after that the driver records the IOPS an app instance is created or
+ * updated with through {@link #put} and forgets deleted ones through
+ * {@link #remove(String)}.
+ */
+public class DateraIopsLedger extends DateraLedger<Map<String, Integer>> {
+
+    // storage pool detail holding the change counter of the pool
+    public static final String VERSION_DETAIL = "DateraUsedIopsVersion";
+
+    private static final Map<Long, DateraIopsLedger> s_ledgers = new ConcurrentHashMap<>();
+
+    private Map<String, Integer> appInstanceIops = new HashMap<>();
+    private long usedIops;
+
+    DateraIopsLedger(long storagePoolId, DateraLedgerVersion persistedVersion) {
+        super(storagePoolId, persistedVersion, "Used IOPS");
+    }
+
+    public static DateraIopsLedger getLedger(long storagePoolId, StoragePoolDetailsDao storagePoolDetailsDao) {
+        DateraIopsLedger ledger = s_ledgers.get(storagePoolId);
+
+        if (ledger == null) {
+            DateraIopsLedger newLedger = new DateraIopsLedger(storagePoolId,
+                    new DateraLedgerVersion(storagePoolId, VERSION_DETAIL, storagePoolDetailsDao));
+
+            ledger = s_ledgers.putIfAbsent(storagePoolId, newLedger);
+
+            if (ledger == null) {
+                ledger = newLedger;
+            }
+        }
+
+        return ledger;
+    }
+
+    /**
+     * Forgets a pool, e.g. once it has been deleted
+     */
+    public static void remove(long storagePoolId) {
+        s_ledgers.remove(storagePoolId);
+    }
+
+    /**
+     * @param count max IOPS of each app instance on the pool, by app instance
+     *              name, read from the array
+     * @return max IOPS provisioned on the pool
+     */
+    public long getUsedIops(Supplier<Map<String, Integer>> count) {
+        return read(count);
+    }
+
+    /**
+     * Records the max IOPS an app instance on the pool was created or updated
+     * with
+     */
+    public synchronized void put(String appInstanceName, int totalIops) {
+        if (change()) {
+            Integer previousIops = appInstanceIops.put(appInstanceName, totalIops);
+
+            usedIops += totalIops - (previousIops != null ? previousIops : 0);
+        }
+    }
+
+    /**
+     * Forgets an app instance which no longer backs a volume on the pool
+     */
+    public synchronized void remove(String appInstanceName) {
+        if (change()) {
+            Integer previousIops = appInstanceIops.remove(appInstanceName);
+
+            if (previousIops != null) {
+                usedIops -= previousIops;
+            }
+        }
+    }
+
+    @Override
+    protected void replace(Map<String, Integer> figures) {
+        appInstanceIops = new HashMap<>(figures);
+        usedIops = getTotal(appInstanceIops);
+    }
+
+    @Override
+    protected long getTotal() {
+        return usedIops;
+    }
+
+    @Override
+    protected long getTotal(Map<String, Integer> figures) {
+        long total = 0;
+
+        for (int totalIops : figures.values()) {
+            total += totalIops;
+        }
+
+        return total;
+    }
+}
@@ -0,0 +1,213 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+
+package org.apache.cloudstack.storage.datastore.util;
+
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Running total kept for a Datera primary storage pool, counted in full the
+ * first time the pool is asked for and then moved on by every change the
+ * driver applies, so reading it is O(1).
+ *
+ * Every change also bumps a {@link DateraLedgerVersion} kept with the pool
+ * details. A read counts again when another management server bumped it, or
+ * when changes overlapped the last count.
+ *
+ * Every {@link #RECONCILE_INTERVAL_MS} a read also starts a full count in the
+ * background. If no change was applied while it ran, the count replaces the
+ * running figures and any difference between the two is logged as drift.
+ *
+ * @param <C> result of a full count, from which the running figures start
+ */
+abstract class DateraLedger<C> {
+
+    private static final Logger s_logger = Logger.getLogger(DateraLedger.class);
+
+    public static final long RECONCILE_INTERVAL_MS = TimeUnit.MINUTES.toMillis(15);
+
+    // a reconcile which could not complete is tried again after this long
+    private static final long RECONCILE_RETRY_MS = TimeUnit.MINUTES.toMillis(1);
+
+    // counts overlapped by changes are repeated at most this often per read
+    private static final int MAX_COUNT_ATTEMPTS = 3;
+
+    private static final ExecutorService s_reconcileExecutor = Executors.newSingleThreadExecutor(
+            new NamedThreadFactory("DateraLedgerReconcile"));
+
+    private final long storagePoolId;
+    private final DateraLedgerVersion persistedVersion;
+    // what is counted, for the log
+    private final String name;
+
+    private boolean counted;
+    // persisted version the running figures match, -1 once they are out of step
+    private long version = -1;
+    private long reconciledAt;
+    private boolean reconciling;
+
+    DateraLedger(long storagePoolId, DateraLedgerVersion persistedVersion, String name) {
+        this.storagePoolId = storagePoolId;
+        this.persistedVersion = persistedVersion;
+        this.name = name;
+    }
+
+    /**
+     * Replaces the running figures with a full count
+     */
+    protected abstract void replace(C figures);
+
+    /**
+     * @return total of the running figures
+     */
+    protected abstract long getTotal();
+
+    /**
+     * @return total of a full count
+     */
+    protected abstract long getTotal(C figures);
+
+    /**
+     * @param count full count, run on the first call, after changes made
+     *              elsewhere and in the background once a reconcile is due
+     * @return the running total, or the total of a new count
+     */
+    protected final long read(Supplier<C> count) {
+        long startVersion = persistedVersion.get();
+
+        synchronized (this) {
+            if (counted && version == startVersion) {
+                if (!reconciling && System.currentTimeMillis() - reconciledAt >= RECONCILE_INTERVAL_MS) {
+                    reconciling = true;
+                    s_reconcileExecutor.execute(new ManagedContextRunnable() {
+                        @Override
+                        protected void runInContext() {
+                            reconcile(count);
+                        }
+                    });
+                }
+
+                return getTotal();
+            }
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            C figures = count.get();
+            long endVersion = persistedVersion.get();
+
+            if (endVersion == startVersion) {
+                synchronized (this) {
+                    // a change applied meanwhile leaves the figures out of step, the next read counts again
+                    set(figures, startVersion);
+
+                    return getTotal();
+                }
+            }
+
+            if (attempt >= MAX_COUNT_ATTEMPTS) {
+                // the count may or may not include the changes, it is not kept
+                s_logger.debug(name + " of storage pool " + storagePoolId + " kept changing while counting them");
+                return getTotal(figures);
+            }
+
+            startVersion = endVersion;
+        }
+    }
+
+    /**
+     * Bumps the persisted version for a change and moves the running figures
+     * on with it, or marks them out of step if they missed changes made
+     * elsewhere. Changes made before the first count are left to that count.
+     * Called while holding the monitor of the ledger.
+     *
+     * @return whether the change is to be applied to the running figures
+     */
+    protected final boolean change() {
+        long previousVersion = persistedVersion.increment();
+
+        if (counted && previousVersion >= 0 && previousVersion == version) {
+            version = previousVersion + 1;
+            return true;
+        }
+
+        version = -1;
+        return false;
+    }
+
+    private void reconcile(Supplier<C> count) {
+        long startVersion;
+        long endVersion;
+        C figures;
+
+        try {
+            startVersion = persistedVersion.get();
+            figures = count.get();
+            endVersion = persistedVersion.get();
+        } catch (RuntimeException e) {
+            s_logger.warn(name + " of storage pool " + storagePoolId + " could not be counted", e);
+
+            synchronized (this) {
+                reconciling = false;
+                retryReconcile();
+            }
+
+            return;
+        }
+
+        synchronized (this) {
+            reconciling = false;
+
+            if (endVersion != startVersion) {
+                // the count may or may not include the changes
+                s_logger.debug(name + " of storage pool " + storagePoolId + " changed while counting them");
+                retryReconcile();
+                return;
+            }
+
+            boolean wasInStep = version == startVersion;
+            long previousTotal = getTotal();
+
+            set(figures, startVersion);
+
+            long drift = getTotal() - previousTotal;
+
+            if (wasInStep && drift != 0) {
+                s_logger.warn(name + " of storage pool " + storagePoolId + " drifted by " + drift + ", correcting "
+                        + previousTotal + " to " + getTotal());
+            }
+        }
+    }
+
+    private void retryReconcile() {
+        reconciledAt = System.currentTimeMillis() - RECONCILE_INTERVAL_MS + RECONCILE_RETRY_MS;
+    }
+
+    private void set(C figures, long figuresVersion) {
+        replace(figures);
+        version = figuresVersion;
+        counted = true;
+        reconciledAt = System.currentTimeMillis();
+    }
+}
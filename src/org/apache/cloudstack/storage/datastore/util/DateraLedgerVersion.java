@@ -0,0 +1,105 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.storage.datastore.util;
+
+import com.cloud.utils.db.GlobalLock;
+import org.apache.cloudstack.storage.datastore.db.StoragePoolDetailVO;
+import org.apache.cloudstack.storage.datastore.db.StoragePoolDetailsDao;
+import org.apache.log4j.Logger;
+
+/**
+ * Change counter of a pool ledger, kept in storage_pool_details so every
+ * management server sees the changes the others apply.
+ *
+ * A ledger bumps the counter with every change it applies and remembers the
+ * value its running figures match. Once the counter has moved on without it,
+ * another management server changed the pool and the ledger counts again.
+ */
+final class DateraLedgerVersion {
+
+    private static final Logger s_logger = Logger.getLogger(DateraLedgerVersion.class);
+
+    private static final int LOCK_TIMEOUT_SECONDS = 30;
+
+    private final long storagePoolId;
+    private final String name;
+    private final StoragePoolDetailsDao storagePoolDetailsDao;
+
+    /**
+     * @param storagePoolId         storage pool
+     * @param name                  name of the storage pool detail holding the counter
+     * @param storagePoolDetailsDao DAO of the storage pool details
+     */
+    DateraLedgerVersion(long storagePoolId, String name, StoragePoolDetailsDao storagePoolDetailsDao) {
+        this.storagePoolId = storagePoolId;
+        this.name = name;
+        this.storagePoolDetailsDao = storagePoolDetailsDao;
+    }
+
+    /**
+     * @return the current value of the counter, 0 before the first change
+     */
+    long get() {
+        StoragePoolDetailVO detail = storagePoolDetailsDao.findDetail(storagePoolId, name);
+
+        if (detail == null || detail.getValue() == null) {
+            return 0;
+        }
+
+        try {
+            return Long.parseLong(detail.getValue().trim());
+        } catch (NumberFormatException e) {
+            s_logger.warn("Ignoring invalid " + name + " of storage pool " + storagePoolId + ": " + detail.getValue());
+            return 0;
+        }
+    }
+
+    /**
+     * Bumps the counter, serialized across the management servers by a
+     * {@link GlobalLock}
+     *
+     * @return the value before the bump, -1 if it is unknown because the lock
+     *         could not be taken
+     */
+    long increment() {
+        GlobalLock lock = GlobalLock.getInternLock(name + "-" + storagePoolId);
+
+        try {
+            boolean locked = lock.lock(LOCK_TIMEOUT_SECONDS);
+
+            if (!locked) {
+                // still bumped so the other servers count again, this one counts again too
+                s_logger.warn("Couldn't lock the DB on the following string: " + name + "-" + storagePoolId);
+            }
+
+            try {
+                long version = get();
+
+                storagePoolDetailsDao.addDetail(storagePoolId, name, String.valueOf(version + 1), false);
+
+                return locked ? version : -1;
+            } finally {
+                if (locked) {
+                    lock.unlock();
+                }
+            }
+        } finally {
+            lock.releaseRef();
+        }
+    }
+}
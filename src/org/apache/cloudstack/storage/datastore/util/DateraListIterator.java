@@ -0,0 +1,126 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.storage.datastore.util;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Walks a Datera listing (a JSON object keyed by name) straight off the HTTP
+ * response, decoding one entry at a time so that the whole listing is never
+ * held in memory. The HTTP response stays open until the listing is exhausted
+ * or {@link #close()} is called, so callers must close the iterator, ideally in
+ * a try-with-resources block.
+ *
+ * @param <T> type of the listed objects
+ */
+public class DateraListIterator<T> implements Iterator<T>, Closeable {
+
+    private static final Logger s_logger = Logger.getLogger(DateraListIterator.class);
+
+    private final CloseableHttpResponse httpResponse;
+    private final JsonReader reader;
+    private final Gson gson;
+    private final Type elementType;
+
+    private boolean closed;
+
+    DateraListIterator(CloseableHttpResponse httpResponse, JsonReader reader, Gson gson, Type elementType)
+            throws IOException {
+        this.httpResponse = httpResponse;
+        this.reader = reader;
+        this.gson = gson;
+        this.elementType = elementType;
+
+        reader.beginObject();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+
+        try {
+            if (reader.hasNext()) {
+                return true;
+            }
+
+            reader.endObject();
+        } catch (IOException e) {
+            closeQuietly();
+            throw new CloudRuntimeException("Error while reading listing from Datera. Error " + e.getMessage());
+        }
+
+        // fully consumed, the connection can go back to the pool
+        closeQuietly();
+
+        return false;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        try {
+            reader.nextName();
+
+            return gson.fromJson(reader, elementType);
+        } catch (IOException | JsonParseException e) {
+            closeQuietly();
+            throw new CloudRuntimeException("Error while reading listing from Datera. Error " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        // closing the response first drops a half read connection instead of
+        // draining the rest of the listing into the void
+        try {
+            httpResponse.close();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException e) {
+            s_logger.debug("Error closing Datera listing response", e);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.storage.datastore.util;
+
+import org.apache.http.HttpRequest;
+import org.apache.http.client.methods.HttpPost;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers for a short while which Datera resources were just found missing.
+ *
+ * The driver looks up app instances, initiators and initiator groups that
+ * usually do not exist yet before creating them. A lookup answered with
+ * NotFound is recorded for {@link #DEFAULT_TTL_MS}, during which the same
+ * lookup returns null without a request.
+ *
+ * Every POST, i.e. every create or clone, drops the entries below the
+ * collection it posts to, both when it is sent and when it completes, so a
+ * resource is visible as soon as it has been created. A NotFound answer is not
+ * recorded if such a POST happened while it was outstanding.
+ */
+final class DateraNotFoundCache {
+
+    static final long DEFAULT_TTL_MS = 2000;
+
+    private static final int MAX_ENTRIES = 4096;
+
+    private static final Map<String, Long> s_missing = new ConcurrentHashMap<>();
+
+    // bumped on every eviction, lookups started before a bump are not recorded
+    private static final AtomicLong s_generation = new AtomicLong();
+
+    private DateraNotFoundCache() {
+    }
+
+    /**
+     * @param conn Datera connection
+     * @param uri  URI of the resource
+     * @return true if the resource was found missing less than
+     *         {@link #DEFAULT_TTL_MS} ago
+     */
+    static boolean isMissing(DateraObject.DateraConnection conn, String uri) {
+        String key = getKey(conn, uri);
+        Long expiresAt = s_missing.get(key);
+
+        if (expiresAt == null) {
+            return false;
+        }
+
+        if (System.currentTimeMillis() < expiresAt) {
+            return true;
+        }
+
+        s_missing.remove(key, expiresAt);
+
+        return false;
+    }
+
+    /**
+     * @return token to pass to {@link #setMissing}, taken before the lookup
+     */
+    static long getGeneration() {
+        return s_generation.get();
+    }
+
+    /**
+     * Records a NotFound answer to a lookup
+     *
+     * @param conn       Datera connection
+     * @param uri        URI of the resource
+     * @param generation {@link #getGeneration()} from before the lookup
+     */
+    static void setMissing(DateraObject.DateraConnection conn, String uri, long generation) {
+        if (s_missing.size() >= MAX_ENTRIES) {
+            purgeExpired();
+
+            if (s_missing.size() >= MAX_ENTRIES) {
+                return;
+            }
+        }
+
+        synchronized (s_missing) {
+            if (s_generation.get() == generation) {
+                s_missing.put(getKey(conn, uri), System.currentTimeMillis() + DEFAULT_TTL_MS);
+            }
+        }
+    }
+
+    /**
+     * Drops the entries {@code request} may create a resource for, if it is a POST
+     *
+     * @param conn    Datera connection
+     * @param request request about to be sent or just completed
+     */
+    static void evict(DateraObject.DateraConnection conn, HttpRequest request) {
+        if (!(request instanceof HttpPost)) {
+            return;
+        }
+
+        String uri = request.getRequestLine().getUri();
+        int query = uri.indexOf('?');
+        String prefix = getKey(conn, query < 0 ? uri : uri.substring(0, query)) + "/";
+
+        synchronized (s_missing) {
+            s_generation.incrementAndGet();
+
+            s_missing.keySet().removeIf(key -> key.startsWith(prefix));
+        }
+    }
+
+    private static void purgeExpired() {
+        long now = System.currentTimeMillis();
+
+        for (Iterator<Long> iterator = s_missing.values().iterator(); iterator.hasNext(); ) {
+            if (iterator.next() <= now) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static String getKey(DateraObject.DateraConnection conn, String uri) {
+        return conn.getManagementIp() + ":" + conn.getManagementPort() + uri;
+    }
+}
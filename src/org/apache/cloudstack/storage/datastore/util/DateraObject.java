@@ -20,6 +20,7 @@ package org.apache.cloudstack.storage.datastore.util;
 import com.cloud.utils.StringUtils;
 import com.google.gson.annotations.SerializedName;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -63,16 +64,47 @@ public class DateraObject {
 
         private int managementPort;
         private String managementIp;
+        private List<String> managementIps;
         private String username;
         private String password;
 
+        private int maxConnectionsPerRoute = DateraConnectionManager.DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+        private int connectTimeoutMs = DateraConnectionManager.DEFAULT_CONNECT_TIMEOUT_MS;
+        private int readTimeoutMs = DateraConnectionManager.DEFAULT_READ_TIMEOUT_MS;
+        private int idleTimeoutMs = DateraConnectionManager.DEFAULT_IDLE_TIMEOUT_MS;
+
+        /**
+         * @param managementIp a management VIP, or a comma separated list of the
+         *                     management VIPs of one cluster
+         */
         public DateraConnection(String managementIp, int managementPort, String username, String password) {
             this.managementPort = managementPort;
-            this.managementIp = managementIp;
+            this.managementIps = new ArrayList<>();
+
+            for (String vip : managementIp.split(DateraUtil.MANAGEMENT_VIP_DELIMITER)) {
+                if (!vip.trim().isEmpty()) {
+                    this.managementIps.add(vip.trim());
+                }
+            }
+
+            if (managementIps.isEmpty()) {
+                managementIps.add(managementIp);
+            }
+
+            // the first VIP identifies the cluster for pools, sessions and limits
+            this.managementIp = managementIps.get(0);
             this.username = username;
             this.password = password;
         }
 
+        public void setHttpSettings(int maxConnectionsPerRoute, int connectTimeoutMs, int readTimeoutMs,
+                int idleTimeoutMs) {
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+            this.connectTimeoutMs = connectTimeoutMs;
+            this.readTimeoutMs = readTimeoutMs;
+            this.idleTimeoutMs = idleTimeoutMs;
+        }
+
         public int getManagementPort() {
             return managementPort;
         }
@@ -81,6 +113,10 @@ public class DateraObject {
             return managementIp;
         }
 
+        public List<String> getManagementIps() {
+            return managementIps;
+        }
+
         public String getUsername() {
             return username;
         }
@@ -88,6 +124,22 @@ public class DateraObject {
         public String getPassword() {
             return password;
         }
+
+        public int getMaxConnectionsPerRoute() {
+            return maxConnectionsPerRoute;
+        }
+
+        public int getConnectTimeoutMs() {
+            return connectTimeoutMs;
+        }
+
+        public int getReadTimeoutMs() {
+            return readTimeoutMs;
+        }
+
+        public int getIdleTimeoutMs() {
+            return idleTimeoutMs;
+        }
     }
 
     public static class DateraLogin {
@@ -110,9 +162,12 @@ public class DateraObject {
         }
     }
 
-    public class Access {
-        private String iqn;
-        private List<String> ips;
+    public static class Access {
+        String iqn;
+        List<String> ips;
+
+        Access() {
+        }
 
         public Access(String iqn, List<String> ips) {
             this.iqn = iqn;
@@ -122,12 +177,37 @@ public class DateraObject {
         public String getIqn() {
             return iqn;
         }
+
+        public List<String> getIps() {
+            return ips;
+        }
+    }
+
+    public static class AclPolicy {
+        List<String> initiators;
+
+        @SerializedName("initiator_groups")
+        List<String> initiatorGroups;
+
+        AclPolicy() {
+        }
+
+        public List<String> getInitiators() {
+            return initiators;
+        }
+
+        public List<String> getInitiatorGroups() {
+            return initiatorGroups;
+        }
     }
 
     public static class PerformancePolicy {
 
         @SerializedName("total_iops_max")
-        private Integer totalIops;
+        Integer totalIops;
+
+        PerformancePolicy() {
+        }
 
         public PerformancePolicy(int totalIops) {
             this.totalIops = totalIops;
@@ -140,21 +220,24 @@ public class DateraObject {
 
     public static class Volume {
 
-        private String name;
-        private String path;
-        private Integer size;
+        String name;
+        String path;
+        Integer size;
 
         @SerializedName("replica_count")
-        private Integer replicaCount;
+        Integer replicaCount;
 
         @SerializedName("performance_policy")
-        private PerformancePolicy performancePolicy;
+        PerformancePolicy performancePolicy;
 
         @SerializedName("placement_mode")
-        private String placementMode;
+        String placementMode;
 
         @SerializedName("op_state")
-        private String opState;
+        String opState;
+
+        Volume() {
+        }
 
         public Volume(int size, int totalIops, int replicaCount) {
             this.name = DEFAULT_VOLUME_NAME;
@@ -203,12 +286,21 @@ public class DateraObject {
     public static class StorageInstance {
 
         private final String name = DEFAULT_STORAGE_NAME;
-        private Map<String, Volume> volumes;
-        private Access access;
-        private String force;
+        Map<String, Volume> volumes;
+        Access access;
+        String force;
 
         @SerializedName("ip_pool")
-        private String ipPool;
+        String ipPool;
+
+        @SerializedName("op_state")
+        String opState;
+
+        @SerializedName("acl_policy")
+        AclPolicy aclPolicy;
+
+        StorageInstance() {
+        }
 
         public StorageInstance(int size, int totalIops, int replicaCount) {
             Volume volume = new Volume(size, totalIops, replicaCount);
@@ -247,27 +339,38 @@ public class DateraObject {
             return this.force;
         }
 
+        public String getOpState() {
+            return opState;
+        }
+
+        public AclPolicy getAclPolicy() {
+            return aclPolicy;
+        }
+
     }
 
     public static class AppInstance {
 
-        private String name;
+        String name;
 
         @SerializedName("access_control_mode")
-        private String accessControlMode;
+        String accessControlMode;
 
         @SerializedName("create_mode")
-        private String createMode;
+        String createMode;
 
         @SerializedName("storage_instances")
-        private Map<String, StorageInstance> storageInstances;
+        Map<String, StorageInstance> storageInstances;
 
         @SerializedName("clone_src")
-        private String cloneSrc;
+        String cloneSrc;
 
         @SerializedName("admin_state")
-        private String adminState;
-        private Boolean force;
+        String adminState;
+        Boolean force;
+
+        AppInstance() {
+        }
 
         public AppInstance(String name, int size, int totalIops, int replicaCount) {
             this.name = name;
@@ -305,7 +408,11 @@ public class DateraObject {
 
         public int getTotalIops() {
             StorageInstance storageInstance = storageInstances.get(DEFAULT_STORAGE_NAME);
-            return storageInstance.getVolume().getPerformancePolicy().getTotalIops();
+            PerformancePolicy performancePolicy = storageInstance.getVolume().getPerformancePolicy();
+
+            // no performance policy means the volume is not limited
+            return performancePolicy != null && performancePolicy.getTotalIops() != null
+                    ? performancePolicy.getTotalIops() : 0;
         }
 
         public String getName() {
@@ -326,6 +433,10 @@ public class DateraObject {
             StorageInstance storageInstance = storageInstances.get(DEFAULT_STORAGE_NAME);
             return storageInstance.getVolume().getOpState();
         }
+
+        public StorageInstance getStorageInstance() {
+            return storageInstances != null ? storageInstances.get(DEFAULT_STORAGE_NAME) : null;
+        }
     }
 
     public static class AccessNetworkIpPool {
@@ -354,6 +465,10 @@ public class DateraObject {
             this.op = op.toString();
         }
 
+        public String getId() {
+            return id;
+        }
+
         public String getPath() {
             return path;
         }
@@ -361,10 +476,13 @@ public class DateraObject {
 
     public static class InitiatorGroup {
 
-        private String name;
-        private List<String> members;
-        private String path;
-        private String op;
+        String name;
+        List<String> members;
+        String path;
+        String op;
+
+        InitiatorGroup() {
+        }
 
         public InitiatorGroup(String name, List<String> members) {
             this.name = name;
@@ -391,12 +509,15 @@ public class DateraObject {
 
     public static class VolumeSnapshot {
 
-        private String uuid;
-        private String timestamp;
-        private String path;
+        String uuid;
+        String timestamp;
+        String path;
 
         @SerializedName("op_state")
-        private String opState;
+        String opState;
+
+        VolumeSnapshot() {
+        }
 
         VolumeSnapshot(String uuid) {
             this.uuid = uuid;
@@ -465,5 +586,9 @@ public class DateraObject {
         public String getName() {
             return name;
         }
+
+        public int getCode() {
+            return code;
+        }
     }
 }
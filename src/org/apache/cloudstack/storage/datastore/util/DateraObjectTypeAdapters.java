@@ -0,0 +1,425 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.storage.datastore.util;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming Gson readers for the {@link DateraObject} model. Reading only binds
+ * the fields the driver looks at and skips everything else Datera returns,
+ * without reflection. Request bodies are small and written by reflective
+ * binding, a hand-written writer allocated more for no gain.
+ */
+public final class DateraObjectTypeAdapters {
+
+    static final Reader<DateraObject.PerformancePolicy> PERFORMANCE_POLICY = new PerformancePolicyReader();
+    static final Reader<DateraObject.Volume> VOLUME = new VolumeReader();
+    static final Reader<DateraObject.StorageInstance> STORAGE_INSTANCE = new StorageInstanceReader();
+    static final Reader<DateraObject.AppInstance> APP_INSTANCE = new AppInstanceReader();
+    static final Reader<DateraObject.InitiatorGroup> INITIATOR_GROUP = new InitiatorGroupReader();
+    static final Reader<DateraObject.VolumeSnapshot> VOLUME_SNAPSHOT = new VolumeSnapshotReader();
+
+    private static final Map<Class<?>, Reader<?>> READERS = new HashMap<>();
+
+    static {
+        READERS.put(DateraObject.PerformancePolicy.class, PERFORMANCE_POLICY);
+        READERS.put(DateraObject.Volume.class, VOLUME);
+        READERS.put(DateraObject.StorageInstance.class, STORAGE_INSTANCE);
+        READERS.put(DateraObject.AppInstance.class, APP_INSTANCE);
+        READERS.put(DateraObject.InitiatorGroup.class, INITIATOR_GROUP);
+        READERS.put(DateraObject.VolumeSnapshot.class, VOLUME_SNAPSHOT);
+    }
+
+    private DateraObjectTypeAdapters() {
+    }
+
+    /**
+     * Registers the readers on {@code builder}
+     *
+     * @param builder Gson builder
+     * @return the same builder
+     */
+    public static GsonBuilder register(GsonBuilder builder) {
+        return builder.registerTypeAdapterFactory(new ReaderFactory());
+    }
+
+    interface Reader<T> {
+
+        T read(JsonReader in) throws IOException;
+    }
+
+    /**
+     * Pairs the reader of a model class with the reflective adapter Gson would
+     * use without this factory, which writes it
+     */
+    private static class ReaderFactory implements TypeAdapterFactory {
+
+        @Override
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            @SuppressWarnings("unchecked")
+            Reader<T> reader = (Reader<T>) READERS.get(type.getRawType());
+
+            if (reader == null) {
+                return null;
+            }
+
+            TypeAdapter<T> writer = gson.getDelegateAdapter(this, type);
+
+            return new TypeAdapter<T>() {
+                @Override
+                public void write(JsonWriter out, T value) throws IOException {
+                    writer.write(out, value);
+                }
+
+                @Override
+                public T read(JsonReader in) throws IOException {
+                    return reader.read(in);
+                }
+            };
+        }
+    }
+
+    private static class PerformancePolicyReader implements Reader<DateraObject.PerformancePolicy> {
+
+        @Override
+        public DateraObject.PerformancePolicy read(JsonReader in) throws IOException {
+            if (isNull(in)) {
+                return null;
+            }
+
+            DateraObject.PerformancePolicy policy = new DateraObject.PerformancePolicy();
+
+            in.beginObject();
+
+            while (in.hasNext()) {
+                if ("total_iops_max".equals(in.nextName())) {
+                    policy.totalIops = readInteger(in);
+                } else {
+                    in.skipValue();
+                }
+            }
+
+            in.endObject();
+
+            return policy;
+        }
+    }
+
+    private static class VolumeReader implements Reader<DateraObject.Volume> {
+
+        @Override
+        public DateraObject.Volume read(JsonReader in) throws IOException {
+            if (isNull(in)) {
+                return null;
+            }
+
+            DateraObject.Volume volume = new DateraObject.Volume();
+
+            in.beginObject();
+
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "name":
+                        volume.name = readString(in);
+                        break;
+                    case "path":
+                        volume.path = readString(in);
+                        break;
+                    case "size":
+                        volume.size = readInteger(in);
+                        break;
+                    case "performance_policy":
+                        volume.performancePolicy = PERFORMANCE_POLICY.read(in);
+                        break;
+                    case "placement_mode":
+                        volume.placementMode = readString(in);
+                        break;
+                    case "op_state":
+                        volume.opState = readString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+
+            in.endObject();
+
+            return volume;
+        }
+    }
+
+    private static class StorageInstanceReader implements Reader<DateraObject.StorageInstance> {
+
+        @Override
+        public DateraObject.StorageInstance read(JsonReader in) throws IOException {
+            if (isNull(in)) {
+                return null;
+            }
+
+            DateraObject.StorageInstance storageInstance = new DateraObject.StorageInstance();
+
+            in.beginObject();
+
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "volumes":
+                        storageInstance.volumes = readMap(in, VOLUME);
+                        break;
+                    case "access":
+                        storageInstance.access = readAccess(in);
+                        break;
+                    case "op_state":
+                        storageInstance.opState = readString(in);
+                        break;
+                    case "acl_policy":
+                        storageInstance.aclPolicy = readAclPolicy(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+
+            in.endObject();
+
+            return storageInstance;
+        }
+
+        private static DateraObject.Access readAccess(JsonReader in) throws IOException {
+            if (isNull(in)) {
+                return null;
+            }
+
+            DateraObject.Access access = new DateraObject.Access();
+
+            in.beginObject();
+
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "iqn":
+                        access.iqn = readString(in);
+                        break;
+                    case "ips":
+                        access.ips = readStringList(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+
+            in.endObject();
+
+            return access;
+        }
+
+        private static DateraObject.AclPolicy readAclPolicy(JsonReader in) throws IOException {
+            if (isNull(in)) {
+                return null;
+            }
+
+            DateraObject.AclPolicy aclPolicy = new DateraObject.AclPolicy();
+
+            in.beginObject();
+
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "initiators":
+                        aclPolicy.initiators = readStringList(in);
+                        break;
+                    case "initiator_groups":
+                        aclPolicy.initiatorGroups = readStringList(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+
+            in.endObject();
+
+            return aclPolicy;
+        }
+    }
+
+    private static class AppInstanceReader implements Reader<DateraObject.AppInstance> {
+
+        @Override
+        public DateraObject.AppInstance read(JsonReader in) throws IOException {
+            if (isNull(in)) {
+                return null;
+            }
+
+            DateraObject.AppInstance appInstance = new DateraObject.AppInstance();
+
+            in.beginObject();
+
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "name":
+                        appInstance.name = readString(in);
+                        break;
+                    case "storage_instances":
+                        appInstance.storageInstances = readMap(in, STORAGE_INSTANCE);
+                        break;
+                    case "admin_state":
+                        appInstance.adminState = readString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+
+            in.endObject();
+
+            return appInstance;
+        }
+    }
+
+    private static class InitiatorGroupReader implements Reader<DateraObject.InitiatorGroup> {
+
+        @Override
+        public DateraObject.InitiatorGroup read(JsonReader in) throws IOException {
+            if (isNull(in)) {
+                return null;
+            }
+
+            DateraObject.InitiatorGroup group = new DateraObject.InitiatorGroup();
+
+            in.beginObject();
+
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "name":
+                        group.name = readString(in);
+                        break;
+                    case "members":
+                        group.members = readStringList(in);
+                        break;
+                    case "path":
+                        group.path = readString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+
+            in.endObject();
+
+            return group;
+        }
+    }
+
+    private static class VolumeSnapshotReader implements Reader<DateraObject.VolumeSnapshot> {
+
+        @Override
+        public DateraObject.VolumeSnapshot read(JsonReader in) throws IOException {
+            if (isNull(in)) {
+                return null;
+            }
+
+            DateraObject.VolumeSnapshot snapshot = new DateraObject.VolumeSnapshot();
+
+            in.beginObject();
+
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "timestamp":
+                        snapshot.timestamp = readString(in);
+                        break;
+                    case "path":
+                        snapshot.path = readString(in);
+                        break;
+                    case "op_state":
+                        snapshot.opState = readString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+
+            in.endObject();
+
+            return snapshot;
+        }
+    }
+
+    private static boolean isNull(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return true;
+        }
+
+        return false;
+    }
+
+    private static String readString(JsonReader in) throws IOException {
+        return isNull(in) ? null : in.nextString();
+    }
+
+    private static Integer readInteger(JsonReader in) throws IOException {
+        return isNull(in) ? null : in.nextInt();
+    }
+
+    private static List<String> readStringList(JsonReader in) throws IOException {
+        if (isNull(in)) {
+            return null;
+        }
+
+        List<String> values = new ArrayList<>();
+
+        in.beginArray();
+
+        while (in.hasNext()) {
+            values.add(readString(in));
+        }
+
+        in.endArray();
+
+        return values;
+    }
+
+    private static <T> Map<String, T> readMap(JsonReader in, Reader<T> valueReader) throws IOException {
+        if (isNull(in)) {
+            return null;
+        }
+
+        Map<String, T> values = new HashMap<>();
+
+        in.beginObject();
+
+        while (in.hasNext()) {
+            String key = in.nextName();
+            values.put(key, valueReader.read(in));
+        }
+
+        in.endObject();
+
+        return values;
+    }
+}
@@ -0,0 +1,150 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.storage.datastore.util;
+
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.exception.CloudRuntimeException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Waits for asynchronous operations on the array (volumes becoming available,
+ * snapshots completing, ACLs being applied) without parking a thread per
+ * operation.
+ *
+ * A check is first run after {@link #INITIAL_INTERVAL_MS}; the interval then
+ * grows by {@link #BACKOFF_FACTOR} up to {@link DateraUtil#POLL_TIMEOUT_MS}, so
+ * quick operations are noticed quickly while slow ones are not polled hard.
+ * All pending polls share one small scheduler and the checks themselves are
+ * non-blocking requests of {@link DateraAsyncClient}.
+ */
+public class DateraPoller {
+
+    public static final long INITIAL_INTERVAL_MS = 100;
+    public static final double BACKOFF_FACTOR = 1.5;
+    public static final long MAX_INTERVAL_MS = DateraUtil.POLL_TIMEOUT_MS;
+
+    // the same overall budget the fixed interval polls had
+    public static final long DEFAULT_TIMEOUT_MS = (long) DateraUtil.POLL_TIMEOUT_MS * DateraUtil.DEFAULT_RETRIES;
+
+    private static final int SCHEDULER_THREADS = 2;
+
+    private static final ScheduledExecutorService s_scheduler = Executors.newScheduledThreadPool(SCHEDULER_THREADS,
+            new NamedThreadFactory("DateraPoller"));
+
+    private DateraPoller() {
+    }
+
+    public static <T> CompletableFuture<T> poll(Supplier<CompletableFuture<T>> check, Predicate<T> done) {
+        return poll(check, done, DEFAULT_TIMEOUT_MS);
+    }
+
+    /**
+     * Re-runs {@code check} with a growing interval until {@code done} holds or
+     * {@code timeoutMs} has passed
+     *
+     * @param check     non-blocking check of the operation
+     * @param done      tells whether the operation completed
+     * @param timeoutMs how long to keep polling
+     * @return the first result {@code done} holds for, or the last result once
+     *         the time is up; failed if a check fails
+     */
+    public static <T> CompletableFuture<T> poll(Supplier<CompletableFuture<T>> check, Predicate<T> done,
+            long timeoutMs) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+
+        schedule(check, done, INITIAL_INTERVAL_MS, System.currentTimeMillis() + timeoutMs, result);
+
+        return result;
+    }
+
+    private static <T> void schedule(Supplier<CompletableFuture<T>> check, Predicate<T> done, long intervalMs,
+            long deadline, CompletableFuture<T> result) {
+
+        s_scheduler.schedule(() -> {
+            CompletableFuture<T> value;
+
+            try {
+                value = check.get();
+            } catch (RuntimeException e) {
+                value = DateraAsyncClient.failedFuture(e);
+            }
+
+            value.whenComplete((current, throwable) -> {
+                if (throwable != null) {
+                    result.completeExceptionally(DateraAsyncClient.unwrap(throwable));
+                    return;
+                }
+
+                long remaining = deadline - System.currentTimeMillis();
+
+                if (done.test(current) || remaining <= 0) {
+                    result.complete(current);
+                    return;
+                }
+
+                long next = Math.min(MAX_INTERVAL_MS, (long) (intervalMs * BACKOFF_FACTOR));
+
+                schedule(check, done, Math.min(next, remaining), deadline, result);
+            });
+        }, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs {@code task} on the shared poll scheduler, for pollers which batch
+     * their checks themselves. The task must not block.
+     */
+    static void schedule(Runnable task, long delayMs) {
+        s_scheduler.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Waits for a poll, for the blocking callers in {@link DateraUtil} and the
+     * driver
+     *
+     * @param poll future returned by {@link #poll}
+     * @return the result of the poll
+     * @throws DateraObject.DateraError if a check failed with one
+     */
+    public static <T> T await(CompletableFuture<T> poll) throws DateraObject.DateraError {
+        try {
+            return poll.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CloudRuntimeException("Interrupted while waiting for Datera");
+        } catch (ExecutionException e) {
+            Throwable cause = DateraAsyncClient.unwrap(e.getCause());
+
+            if (cause instanceof DateraObject.DateraError) {
+                throw (DateraObject.DateraError) cause;
+            }
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            throw new CloudRuntimeException("Error while waiting for Datera. Error " + cause.getMessage(), cause);
+        }
+    }
+}
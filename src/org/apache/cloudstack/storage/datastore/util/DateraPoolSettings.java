@@ -0,0 +1,198 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.storage.datastore.util;
+
+import org.apache.cloudstack.storage.datastore.db.StoragePoolDetailsDao;
+import org.apache.log4j.Logger;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Settings of a Datera primary storage pool, read from its storage pool
+ * details.
+ *
+ * The details are loaded with a single query the first time a pool is used and
+ * kept per pool id, together with the {@link DateraObject.DateraConnection}
+ * built from them. The lifecycle invalidates a pool when its details are
+ * updated or the pool is removed; entries are also reloaded after
+ * {@link #RELOAD_INTERVAL_MS} to pick up details changed behind its back.
+ */
+public final class DateraPoolSettings {
+
+    private static final Logger s_logger = Logger.getLogger(DateraPoolSettings.class);
+
+    public static final long RELOAD_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final Map<Long, DateraPoolSettings> s_settings = new ConcurrentHashMap<>();
+
+    // bumped on every invalidation, loads started before a bump are not kept
+    private static final AtomicLong s_generation = new AtomicLong();
+
+    private final long storagePoolId;
+    private final long loadedAt;
+
+    private final DateraObject.DateraConnection connection;
+
+    private final long defaultMinIops;
+    private final long defaultMaxIops;
+    private final int numReplicas;
+    private final String volPlacement;
+    private final String ipPool;
+    private final int aclReadyTimeoutMs;
+
+    DateraPoolSettings(long storagePoolId, Map<String, String> details) {
+        this.storagePoolId = storagePoolId;
+        this.loadedAt = System.currentTimeMillis();
+
+        connection = new DateraObject.DateraConnection(details.get(DateraUtil.MANAGEMENT_VIP),
+                Integer.parseInt(details.get(DateraUtil.MANAGEMENT_PORT)),
+                details.get(DateraUtil.CLUSTER_ADMIN_USERNAME), details.get(DateraUtil.CLUSTER_ADMIN_PASSWORD));
+
+        connection.setHttpSettings(
+                getIntDetail(details, DateraUtil.HTTP_MAX_CONNECTIONS,
+                        DateraConnectionManager.DEFAULT_MAX_CONNECTIONS_PER_ROUTE),
+                getIntDetail(details, DateraUtil.HTTP_CONNECT_TIMEOUT,
+                        DateraConnectionManager.DEFAULT_CONNECT_TIMEOUT_MS),
+                getIntDetail(details, DateraUtil.HTTP_READ_TIMEOUT, DateraConnectionManager.DEFAULT_READ_TIMEOUT_MS),
+                getIntDetail(details, DateraUtil.HTTP_IDLE_TIMEOUT, DateraConnectionManager.DEFAULT_IDLE_TIMEOUT_MS));
+
+        defaultMinIops = getLongDetail(details, DateraUtil.CLUSTER_DEFAULT_MIN_IOPS,
+                DateraUtil.DEFAULT_CLUSTER_MIN_IOPS);
+        defaultMaxIops = getLongDetail(details, DateraUtil.CLUSTER_DEFAULT_MAX_IOPS,
+                DateraUtil.DEFAULT_CLUSTER_MAX_IOPS);
+        numReplicas = getIntDetail(details, DateraUtil.NUM_REPLICAS, DateraUtil.DEFAULT_NUM_REPLICAS);
+
+        String volPlacement = details.get(DateraUtil.VOL_PLACEMENT);
+        this.volPlacement = volPlacement != null ? volPlacement : DateraUtil.DEFAULT_VOL_PLACEMENT;
+
+        String ipPool = details.get(DateraUtil.IP_POOL);
+        this.ipPool = ipPool != null ? ipPool : DateraUtil.DEFAULT_IP_POOL;
+
+        aclReadyTimeoutMs = getIntDetail(details, DateraUtil.ACL_READY_TIMEOUT,
+                DateraUtil.DEFAULT_ACL_READY_TIMEOUT_MS);
+    }
+
+    /**
+     * Returns the settings of a pool, loading them if they are not cached or
+     * are due for a reload
+     *
+     * @param storagePoolId         the primary storage
+     * @param storagePoolDetailsDao DAO to load the details with
+     * @return settings of the pool
+     */
+    public static DateraPoolSettings get(long storagePoolId, StoragePoolDetailsDao storagePoolDetailsDao) {
+        DateraPoolSettings settings = s_settings.get(storagePoolId);
+
+        if (settings != null && System.currentTimeMillis() - settings.loadedAt < RELOAD_INTERVAL_MS) {
+            return settings;
+        }
+
+        long generation = s_generation.get();
+
+        settings = new DateraPoolSettings(storagePoolId, storagePoolDetailsDao.listDetailsKeyPairs(storagePoolId));
+
+        synchronized (s_settings) {
+            // details read before an invalidation may already be stale
+            if (s_generation.get() == generation) {
+                s_settings.put(storagePoolId, settings);
+            }
+        }
+
+        return settings;
+    }
+
+    /**
+     * Drops the cached settings of a pool, the next {@link #get} reloads them
+     *
+     * @param storagePoolId the primary storage
+     */
+    public static void invalidate(long storagePoolId) {
+        synchronized (s_settings) {
+            s_generation.incrementAndGet();
+            s_settings.remove(storagePoolId);
+        }
+    }
+
+    public long getStoragePoolId() {
+        return storagePoolId;
+    }
+
+    /**
+     * @return connection to the cluster of the pool, shared by all its users
+     */
+    public DateraObject.DateraConnection getConnection() {
+        return connection;
+    }
+
+    public long getDefaultMinIops() {
+        return defaultMinIops;
+    }
+
+    public long getDefaultMaxIops() {
+        return defaultMaxIops;
+    }
+
+    public int getNumReplicas() {
+        return numReplicas;
+    }
+
+    public String getVolPlacement() {
+        return volPlacement;
+    }
+
+    public String getIpPool() {
+        return ipPool;
+    }
+
+    public int getAclReadyTimeoutMs() {
+        return aclReadyTimeoutMs;
+    }
+
+    private static int getIntDetail(Map<String, String> details, String key, int defaultValue) {
+        String value = details.get(key);
+
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException ex) {
+            s_logger.warn("Cannot parse the setting of " + key + ", using default value: " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private static long getLongDetail(Map<String, String> details, String key, long defaultValue) {
+        String value = details.get(key);
+
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException ex) {
+            s_logger.warn("Cannot parse the setting of " + key + ", using default value: " + defaultValue);
+            return defaultValue;
+        }
+    }
+}
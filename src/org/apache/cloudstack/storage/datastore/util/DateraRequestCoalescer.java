@@ -0,0 +1,224 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.storage.datastore.util;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.log4j.Logger;
+
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight for Datera GETs. While a GET for a resource is in flight on a
+ * connection, identical GETs wait for its result instead of sending their own
+ * request; the decoded object (or the error) is handed to every waiter. The
+ * synchronous and asynchronous clients share the same in-flight table.
+ *
+ * Every write detaches the in-flight GETs it may affect, both when it is sent
+ * and when it completes, so a GET issued after a write never joins an
+ * exchange which may have been answered before it.
+ */
+final class DateraRequestCoalescer {
+
+    private static final Logger s_logger = Logger.getLogger(DateraRequestCoalescer.class);
+
+    private static final Map<Key, CompletableFuture<Object>> s_inFlight = new ConcurrentHashMap<>();
+
+    interface Request<T> {
+        T execute() throws DateraObject.DateraError;
+    }
+
+    private DateraRequestCoalescer() {
+    }
+
+    /**
+     * Runs {@code request} unless an identical GET is already in flight, in which
+     * case its result is awaited and returned instead
+     *
+     * @param conn         Datera connection
+     * @param uri          request URI
+     * @param responseType type the response is decoded into, null if discarded
+     * @param request      the actual exchange
+     * @return decoded response, shared with any concurrent identical GET
+     * @throws DateraObject.DateraError if the shared exchange failed
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T coalesce(DateraObject.DateraConnection conn, String uri, Type responseType, Request<T> request)
+            throws DateraObject.DateraError {
+
+        Key key = new Key(conn, uri, responseType);
+
+        CompletableFuture<Object> inFlight = new CompletableFuture<>();
+        CompletableFuture<Object> leader = s_inFlight.putIfAbsent(key, inFlight);
+
+        if (leader != null) {
+            s_logger.debug("Joining in-flight Datera GET " + uri);
+            return (T) await(leader);
+        }
+
+        T result;
+
+        try {
+            result = request.execute();
+        } catch (DateraObject.DateraError | RuntimeException e) {
+            s_inFlight.remove(key, inFlight);
+            inFlight.completeExceptionally(e);
+            throw e;
+        }
+
+        s_inFlight.remove(key, inFlight);
+        inFlight.complete(result);
+
+        return result;
+    }
+
+    /**
+     * Non blocking variant of {@link #coalesce}
+     */
+    @SuppressWarnings("unchecked")
+    static <T> CompletableFuture<T> coalesceAsync(DateraObject.DateraConnection conn, String uri, Type responseType,
+            Supplier<CompletableFuture<T>> request) {
+
+        Key key = new Key(conn, uri, responseType);
+
+        CompletableFuture<Object> inFlight = new CompletableFuture<>();
+        CompletableFuture<Object> leader = s_inFlight.putIfAbsent(key, inFlight);
+
+        if (leader != null) {
+            s_logger.debug("Joining in-flight Datera GET " + uri);
+            return leader.thenApply(result -> (T) result);
+        }
+
+        CompletableFuture<T> response;
+
+        try {
+            response = request.get();
+        } catch (RuntimeException e) {
+            response = DateraAsyncClient.failedFuture(e);
+        }
+
+        response.whenComplete((result, throwable) -> {
+            s_inFlight.remove(key, inFlight);
+
+            if (throwable != null) {
+                inFlight.completeExceptionally(DateraAsyncClient.unwrap(throwable));
+            } else {
+                inFlight.complete(result);
+            }
+        });
+
+        return inFlight.thenApply(result -> (T) result);
+    }
+
+    private static Object await(CompletableFuture<Object> leader) throws DateraObject.DateraError {
+        try {
+            return leader.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CloudRuntimeException("Interrupted while waiting for a Datera request");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof DateraObject.DateraError) {
+                throw (DateraObject.DateraError) cause;
+            }
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            throw new CloudRuntimeException("Error while sending request to Datera. Error " + cause.getMessage());
+        }
+    }
+
+    /**
+     * Detaches the in-flight GETs of the resource {@code request} writes to,
+     * of the resources below it and of the resources and collections holding
+     * it; GETs issued afterwards start a new exchange
+     *
+     * @param conn    Datera connection
+     * @param request request about to be sent or just completed
+     */
+    static void evict(DateraObject.DateraConnection conn, HttpRequest request) {
+        if (request instanceof HttpGet) {
+            return;
+        }
+
+        String connection = getConnectionKey(conn);
+        String path = getPath(request.getRequestLine().getUri());
+
+        s_inFlight.keySet().removeIf(key -> key.connection.equals(connection)
+                && (isSameOrBelow(key.path, path) || isSameOrBelow(path, key.path)));
+    }
+
+    private static boolean isSameOrBelow(String path, String parent) {
+        return path.startsWith(parent) && (path.length() == parent.length() || path.charAt(parent.length()) == '/');
+    }
+
+    private static String getPath(String uri) {
+        int query = uri.indexOf('?');
+
+        return query < 0 ? uri : uri.substring(0, query);
+    }
+
+    private static String getConnectionKey(DateraObject.DateraConnection conn) {
+        return conn.getManagementIp() + ":" + conn.getManagementPort() + ":" + conn.getUsername();
+    }
+
+    private static final class Key {
+
+        private final String connection;
+        private final String uri;
+        private final String path;
+        private final String type;
+
+        Key(DateraObject.DateraConnection conn, String uri, Type responseType) {
+            this.connection = getConnectionKey(conn);
+            this.uri = uri;
+            this.path = getPath(uri);
+            this.type = responseType != null ? responseType.getTypeName() : "";
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) o;
+
+            return connection.equals(other.connection) && uri.equals(other.uri) && type.equals(other.type);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(connection, uri, type);
+        }
+    }
+}
@@ -0,0 +1,402 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.storage.datastore.util;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.StatusLine;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Streams the body of a Datera response into the JSON decoder instead of
+ * buffering it whole.
+ *
+ * The buffer is sized from the Content-Length of the body, or starts at
+ * {@link #INITIAL_BUFFER_SIZE} and doubles when the length is not known, and
+ * holds at most {@link #BUFFER_SIZE} bytes. A body which fits is decoded on
+ * the decode executor once it is complete, without a thread waiting for it.
+ * A larger body is decoded while it arrives on the stream executor, so that
+ * waiting for it does not hold up the completion of other requests, and the
+ * connection stops reading from the socket while the buffer is full.
+ *
+ * The result of the consumer is the status line of the response, the decoded
+ * body or Datera error completes {@link #getDecoded()} on the decode executor.
+ */
+final class DateraResponseConsumer<T> extends AbstractAsyncResponseConsumer<StatusLine> {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+    static final int INITIAL_BUFFER_SIZE = 4 * 1024;
+
+    private final Type responseType;
+    private final Executor decodeExecutor;
+    private final Executor streamExecutor;
+    private final CompletableFuture<T> decoded = new CompletableFuture<>();
+    private final AtomicBoolean decoding = new AtomicBoolean();
+
+    private volatile StatusLine status;
+    private volatile ContentType contentType;
+    private volatile ContentPipe pipe;
+
+    /**
+     * @param responseType   type to decode the body into, null to discard it
+     * @param decodeExecutor executor decoding complete bodies and completing
+     *                       {@link #getDecoded()}
+     * @param streamExecutor executor decoding bodies larger than the buffer,
+     *                       blocks on the body arriving
+     */
+    DateraResponseConsumer(Type responseType, Executor decodeExecutor, Executor streamExecutor) {
+        this.responseType = responseType;
+        this.decodeExecutor = decodeExecutor;
+        this.streamExecutor = streamExecutor;
+    }
+
+    /**
+     * @return future of the decoded body, failed with the Datera error if the
+     *         response is not a 200
+     */
+    CompletableFuture<T> getDecoded() {
+        return decoded;
+    }
+
+    @Override
+    protected void onResponseReceived(HttpResponse response) {
+        status = response.getStatusLine();
+    }
+
+    @Override
+    protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) {
+        this.contentType = contentType;
+        pipe = new ContentPipe(getInitialCapacity(entity.getContentLength()), BUFFER_SIZE);
+    }
+
+    /**
+     * @param contentLength length of the body, negative if not known
+     * @return initial size of the buffer, one byte more than a body of known
+     *         length so that it never fills up
+     */
+    static int getInitialCapacity(long contentLength) {
+        if (contentLength < 0) {
+            return INITIAL_BUFFER_SIZE;
+        }
+
+        return (int) Math.min(contentLength + 1, BUFFER_SIZE);
+    }
+
+    /**
+     * @return current size of the buffer, 0 before the body arrived
+     */
+    int getBufferCapacity() {
+        ContentPipe body = pipe;
+
+        return body != null ? body.capacity() : 0;
+    }
+
+    @Override
+    protected void onContentReceived(ContentDecoder decoder, IOControl ioctrl) throws IOException {
+        while (!pipe.suspendIfFull(ioctrl)) {
+            if (pipe.fill(decoder) <= 0) {
+                return;
+            }
+        }
+
+        // the body does not fit, decode it while the rest arrives
+        startDecoding(streamExecutor, true);
+    }
+
+    @Override
+    protected StatusLine buildResult(HttpContext context) {
+        if (pipe != null) {
+            pipe.finish();
+        }
+
+        startDecoding(decodeExecutor, false);
+
+        return status;
+    }
+
+    @Override
+    protected void releaseResources() {
+        if (getResult() != null) {
+            return;
+        }
+
+        Exception e = getException();
+        Throwable failure = e != null
+                ? new CloudRuntimeException("Error while sending request to Datera. Error " + e.getMessage(), e)
+                : new CancellationException();
+
+        if (pipe != null) {
+            pipe.fail(failure);
+        }
+
+        // failures complete on the decode executor too, keeping callers off the reactor
+        if (decoding.compareAndSet(false, true)) {
+            decodeExecutor.execute(() -> decoded.completeExceptionally(failure));
+        }
+    }
+
+    private void startDecoding(Executor executor, boolean streaming) {
+        if (decoding.compareAndSet(false, true)) {
+            executor.execute(() -> decode(streaming));
+        }
+    }
+
+    private void decode(boolean streaming) {
+        ContentPipe body = pipe;
+        T value = null;
+        Throwable failure = null;
+
+        try {
+            HttpEntity entity = null;
+
+            if (body != null) {
+                BasicHttpEntity bodyEntity = new BasicHttpEntity();
+
+                bodyEntity.setContent(body);
+                bodyEntity.setContentType(contentType != null ? contentType.toString() : null);
+
+                entity = bodyEntity;
+            }
+
+            // the error body is only decoded when the request failed
+            if (status.getStatusCode() != HttpStatus.SC_OK) {
+                throw DateraUtil.readError(status, entity);
+            }
+
+            value = DateraUtil.<T>readEntity(entity, responseType);
+        } catch (Exception e) {
+            failure = body != null ? body.getFailure() : null;
+            failure = failure != null ? failure : e;
+        } finally {
+            if (body != null) {
+                body.close();
+            }
+        }
+
+        if (streaming) {
+            // callers continue on the decode executor, not on the stream executor
+            T streamed = value;
+            Throwable streamFailure = failure;
+
+            decodeExecutor.execute(() -> complete(streamed, streamFailure));
+        } else {
+            complete(value, failure);
+        }
+    }
+
+    private void complete(T value, Throwable failure) {
+        if (failure != null) {
+            decoded.completeExceptionally(failure);
+        } else {
+            decoded.complete(value);
+        }
+    }
+
+    /**
+     * Bounded buffer between the I/O reactor filling it and the decoder
+     * reading it
+     */
+    private static final class ContentPipe extends InputStream {
+
+        private final int maxCapacity;
+
+        private byte[] buffer;
+
+        private int head;
+        private int count;
+        private boolean finished;
+        private boolean closed;
+        private Throwable failure;
+        private IOControl suspended;
+
+        ContentPipe(int capacity, int maxCapacity) {
+            this.buffer = new byte[capacity];
+            this.maxCapacity = maxCapacity;
+        }
+
+        synchronized int capacity() {
+            return buffer.length;
+        }
+
+        /**
+         * Doubles the buffer, up to the max capacity, once it is full
+         */
+        private void growIfFull() {
+            if (count < buffer.length || buffer.length >= maxCapacity) {
+                return;
+            }
+
+            byte[] grown = new byte[Math.min(buffer.length * 2, maxCapacity)];
+            int firstPart = Math.min(count, buffer.length - head);
+
+            System.arraycopy(buffer, head, grown, 0, firstPart);
+            System.arraycopy(buffer, 0, grown, firstPart, count - firstPart);
+
+            buffer = grown;
+            head = 0;
+        }
+
+        /**
+         * Reads what the connection has into the buffer, dropping it if the
+         * decoder is done already
+         *
+         * @return number of bytes read, -1 at the end of the body
+         */
+        synchronized int fill(ContentDecoder decoder) throws IOException {
+            if (closed) {
+                return decoder.read(ByteBuffer.wrap(buffer));
+            }
+
+            growIfFull();
+
+            int tail = (head + count) % buffer.length;
+            int free = Math.min(buffer.length - count, buffer.length - tail);
+            int read = decoder.read(ByteBuffer.wrap(buffer, tail, free));
+
+            if (read > 0) {
+                count += read;
+                notifyAll();
+            }
+
+            return read;
+        }
+
+        /**
+         * Stops reading from the connection while the buffer is full, reading
+         * resumes once the decoder drained half of it
+         */
+        synchronized boolean suspendIfFull(IOControl ioctrl) {
+            if (count < buffer.length || buffer.length < maxCapacity) {
+                return false;
+            }
+
+            ioctrl.suspendInput();
+            suspended = ioctrl;
+
+            return true;
+        }
+
+        synchronized void finish() {
+            finished = true;
+            notifyAll();
+        }
+
+        synchronized void fail(Throwable failure) {
+            if (!finished) {
+                this.failure = failure;
+                notifyAll();
+            }
+        }
+
+        synchronized Throwable getFailure() {
+            return failure;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            IOControl resume = null;
+            int read;
+
+            synchronized (this) {
+                while (count == 0 && !finished && failure == null && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while reading Datera response", e);
+                    }
+                }
+
+                if (failure != null) {
+                    throw new IOException(failure.getMessage(), failure);
+                }
+
+                if (count == 0 || closed) {
+                    return -1;
+                }
+
+                read = Math.min(len, Math.min(count, buffer.length - head));
+
+                System.arraycopy(buffer, head, b, off, read);
+                head = (head + read) % buffer.length;
+                count -= read;
+
+                if (suspended != null && count <= buffer.length / 2) {
+                    resume = suspended;
+                    suspended = null;
+                }
+            }
+
+            if (resume != null) {
+                resume.requestInput();
+            }
+
+            return read;
+        }
+
+        @Override
+        public synchronized int available() {
+            return count;
+        }
+
+        @Override
+        public void close() {
+            IOControl resume;
+
+            synchronized (this) {
+                closed = true;
+                count = 0;
+                resume = suspended;
+                suspended = null;
+                notifyAll();
+            }
+
+            // the rest of the body is read and dropped so the connection can be reused
+            if (resume != null) {
+                resume.requestInput();
+            }
+        }
+    }
+}
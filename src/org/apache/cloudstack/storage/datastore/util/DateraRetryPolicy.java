@@ -0,0 +1,310 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.storage.datastore.util;
+
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Decides whether a failed Datera request may be sent again and how long to
+ * wait before doing so.
+ *
+ * Idempotent requests (GET, PUT) are retried on any transient failure: I/O
+ * errors, 5xx responses and the Datera errors the array reports for a
+ * temporarily unavailable cluster. POST and DELETE are only retried when the
+ * array cannot have acted on them, i.e. the connection was never established
+ * or the request was explicitly turned away with a 429/503. So are the PUTs
+ * adding a member to or removing it from a list ({"op": "add"|"remove"} on
+ * initiator group members and ACL policies), which the array answers with an
+ * error when they are applied a second time.
+ *
+ * Delays grow exponentially from {@link #DEFAULT_BASE_DELAY_MS} up to
+ * {@link #DEFAULT_MAX_DELAY_MS} with full jitter, and no retry is started once
+ * {@link #DEFAULT_DEADLINE_MS} has passed since the first attempt.
+ */
+public class DateraRetryPolicy {
+
+    private static final Logger s_logger = Logger.getLogger(DateraRetryPolicy.class);
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    public static final long DEFAULT_BASE_DELAY_MS = 200;
+    public static final long DEFAULT_MAX_DELAY_MS = 5000;
+    public static final long DEFAULT_DEADLINE_MS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+
+    // lists updated relatively, by PUTting {"op": "add"|"remove"} for one member
+    private static final String[] RELATIVE_UPDATE_PATHS = {"/members", "/acl_policy/initiator_groups",
+            "/acl_policy/initiators"};
+
+    // errors the array reports while a node or its database is unavailable
+    private static final Set<String> TRANSIENT_ERRORS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            DateraObject.DateraErrorTypes.NotConnectedError.name(),
+            DateraObject.DateraErrorTypes.DatabaseError.name(),
+            DateraObject.DateraErrorTypes.InternalError.name())));
+
+    private static final DateraRetryPolicy s_default = new DateraRetryPolicy(DEFAULT_MAX_ATTEMPTS,
+            DEFAULT_BASE_DELAY_MS, DEFAULT_MAX_DELAY_MS, DEFAULT_DEADLINE_MS);
+
+    private static final ScheduledExecutorService s_retryScheduler = Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("DateraRetry"));
+
+    private final int maxAttempts;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final long deadlineMs;
+
+    interface Attempt<T> {
+        T execute() throws DateraObject.DateraError;
+    }
+
+    DateraRetryPolicy(int maxAttempts, long baseDelayMs, long maxDelayMs, long deadlineMs) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.deadlineMs = deadlineMs;
+    }
+
+    public static DateraRetryPolicy getDefault() {
+        return s_default;
+    }
+
+    /**
+     * @return true if sending {@code request} twice has the same effect as sending it once
+     */
+    public static boolean isIdempotent(HttpRequest request) {
+        if (request instanceof HttpPut) {
+            return !isRelativeUpdate(request);
+        }
+
+        return request instanceof HttpGet || request instanceof HttpHead;
+    }
+
+    /**
+     * @return true if {@code request} adds a member to or removes it from a
+     *         list rather than setting the list
+     */
+    static boolean isRelativeUpdate(HttpRequest request) {
+        String uri = request.getRequestLine().getUri();
+        int query = uri.indexOf('?');
+        String path = query < 0 ? uri : uri.substring(0, query);
+
+        for (String relativeUpdatePath : RELATIVE_UPDATE_PATHS) {
+            if (path.endsWith(relativeUpdatePath)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @param failure    what the last attempt failed with
+     * @param idempotent true if the request may safely be applied twice
+     * @return true if the request should be sent again
+     */
+    public boolean isRetryable(Throwable failure, boolean idempotent) {
+        Throwable cause = DateraAsyncClient.unwrap(failure);
+
+        if (cause instanceof DateraObject.DateraError) {
+            DateraObject.DateraError error = (DateraObject.DateraError) cause;
+
+            if (isRejected(error.getCode())) {
+                return true;
+            }
+
+            return idempotent && (TRANSIENT_ERRORS.contains(error.getName()) || isServerError(error.getCode()));
+        }
+
+        IOException ioException = getIOException(cause);
+
+        if (ioException == null) {
+            // bulkhead rejections, decoding errors and the like
+            return false;
+        }
+
+        if (ioException instanceof HttpResponseException) {
+            int statusCode = ((HttpResponseException) ioException).getStatusCode();
+
+            return isRejected(statusCode) || (idempotent && isServerError(statusCode));
+        }
+
+        // the request never left, so even a POST is safe to send again
+        if (ioException instanceof ConnectException || ioException instanceof ConnectTimeoutException
+                || ioException instanceof NoRouteToHostException || ioException instanceof UnknownHostException) {
+            return true;
+        }
+
+        return idempotent;
+    }
+
+    /**
+     * Full jitter: a uniformly random delay between zero and the capped
+     * exponential backoff for {@code retry}
+     *
+     * @param retry number of the retry, starting at 1
+     * @return milliseconds to wait before the retry
+     */
+    long getBackoffMs(int retry) {
+        long ceiling = baseDelayMs << Math.min(retry - 1, 20);
+
+        return ThreadLocalRandom.current().nextLong(Math.min(maxDelayMs, ceiling) + 1);
+    }
+
+    /**
+     * Runs {@code attempt}, sending it again after a backoff for as long as it
+     * fails in a retryable way and attempts and time are left
+     *
+     * @param request    the request, for logging
+     * @param idempotent true if the request may safely be applied twice
+     * @param attempt    one exchange with the array
+     * @return the result of the first successful attempt
+     * @throws DateraObject.DateraError the error of the last attempt
+     */
+    <T> T execute(HttpRequest request, boolean idempotent, Attempt<T> attempt) throws DateraObject.DateraError {
+        long deadline = System.currentTimeMillis() + deadlineMs;
+
+        for (int attemptNumber = 1; ; attemptNumber++) {
+            try {
+                return attempt.execute();
+            } catch (DateraObject.DateraError | RuntimeException e) {
+                long delay = getRetryDelay(request, idempotent, e, attemptNumber, deadline);
+
+                if (delay < 0) {
+                    throw e;
+                }
+
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Non blocking variant of {@link #execute}, the backoff is waited out on a
+     * shared scheduler
+     */
+    <T> CompletableFuture<T> executeAsync(HttpRequest request, boolean idempotent,
+            Supplier<CompletableFuture<T>> attempt) {
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+
+        executeAsync(request, idempotent, attempt, 1, System.currentTimeMillis() + deadlineMs, result);
+
+        return result;
+    }
+
+    private <T> void executeAsync(HttpRequest request, boolean idempotent, Supplier<CompletableFuture<T>> attempt,
+            int attemptNumber, long deadline, CompletableFuture<T> result) {
+
+        CompletableFuture<T> response;
+
+        try {
+            response = attempt.get();
+        } catch (RuntimeException e) {
+            response = DateraAsyncClient.failedFuture(e);
+        }
+
+        response.whenComplete((value, throwable) -> {
+            if (throwable == null) {
+                result.complete(value);
+                return;
+            }
+
+            long delay = getRetryDelay(request, idempotent, throwable, attemptNumber, deadline);
+
+            if (delay < 0) {
+                result.completeExceptionally(DateraAsyncClient.unwrap(throwable));
+                return;
+            }
+
+            s_retryScheduler.schedule(() -> executeAsync(request, idempotent, attempt, attemptNumber + 1, deadline,
+                    result), delay, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    /**
+     * @return milliseconds to wait before the next attempt, -1 to give up
+     */
+    private long getRetryDelay(HttpRequest request, boolean idempotent, Throwable failure, int attemptNumber,
+            long deadline) {
+
+        if (attemptNumber >= maxAttempts || !isRetryable(failure, idempotent)) {
+            return -1;
+        }
+
+        long delay = getBackoffMs(attemptNumber);
+
+        if (System.currentTimeMillis() + delay >= deadline) {
+            return -1;
+        }
+
+        s_logger.debug("Retrying Datera request " + request.getRequestLine() + " in " + delay + " ms after attempt "
+                + attemptNumber + " failed: " + DateraAsyncClient.unwrap(failure).getMessage());
+
+        return delay;
+    }
+
+    private static boolean isRejected(int statusCode) {
+        return statusCode == SC_TOO_MANY_REQUESTS || statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE;
+    }
+
+    private static boolean isServerError(int statusCode) {
+        return statusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR && statusCode != HttpStatus.SC_NOT_IMPLEMENTED;
+    }
+
+    private static IOException getIOException(Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                return (IOException) cause;
+            }
+
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+
+        return null;
+    }
+}
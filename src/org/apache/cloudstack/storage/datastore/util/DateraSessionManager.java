@@ -0,0 +1,220 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.storage.datastore.util;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+import org.apache.log4j.Logger;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches Datera auth tokens per (management VIP, port, username, password). A
+ * token is only refreshed when it expires or the array rejects it, and
+ * concurrent callers that find no valid token share a single login request.
+ * The password is part of the key as a hash, so a changed password logs in
+ * again rather than reusing the session of the old one.
+ */
+public class DateraSessionManager {
+
+    private static final Logger s_logger = Logger.getLogger(DateraSessionManager.class);
+
+    public static final long SESSION_TTL_MS = TimeUnit.MINUTES.toMillis(30);
+
+    private static final Map<String, Session> s_sessions = new ConcurrentHashMap<>();
+
+    private DateraSessionManager() {
+    }
+
+    /**
+     * Returns a valid auth token for {@code conn}, logging in if there is none
+     * cached or the cached one has expired
+     *
+     * @param conn Datera connection
+     * @return auth token to send in the auth-token header
+     * @throws DateraObject.DateraError if the login is rejected
+     */
+    public static String getAuthToken(DateraObject.DateraConnection conn) throws DateraObject.DateraError {
+        return await(getSession(conn).acquire(conn, () -> {
+            CompletableFuture<String> login = new CompletableFuture<>();
+
+            try {
+                login.complete(DateraUtil.login(conn));
+            } catch (DateraObject.DateraError | UnsupportedEncodingException | RuntimeException e) {
+                login.completeExceptionally(e);
+            }
+
+            return login;
+        }));
+    }
+
+    /**
+     * Non blocking variant of {@link #getAuthToken(DateraObject.DateraConnection)},
+     * the login, if any, is sent through {@link DateraAsyncClient}
+     *
+     * @param conn Datera connection
+     * @return future completed with the auth token
+     */
+    public static CompletableFuture<String> getAuthTokenAsync(DateraObject.DateraConnection conn) {
+        return getSession(conn).acquire(conn, () -> DateraAsyncClient.login(conn));
+    }
+
+    /**
+     * Drops {@code authToken} from the cache after the array rejected it. A token
+     * which has already been replaced by another caller is left alone.
+     *
+     * @param conn      Datera connection
+     * @param authToken the rejected token
+     */
+    public static void invalidate(DateraObject.DateraConnection conn, String authToken) {
+        getSession(conn).invalidate(authToken);
+    }
+
+    /**
+     * @param dateraError error returned by the array
+     * @return true if the error means the auth token is no longer accepted
+     */
+    public static boolean isAuthError(DateraObject.DateraError dateraError) {
+        return DateraObject.DateraErrorTypes.AuthFailedError.equals(dateraError)
+                || DateraObject.DateraErrorTypes.InvalidSessionKeyError.equals(dateraError);
+    }
+
+    private static Session getSession(DateraObject.DateraConnection conn) {
+        String key = conn.getManagementIp() + ":" + conn.getManagementPort() + ":" + conn.getUsername() + ":"
+                + hash(conn.getPassword());
+
+        Session session = s_sessions.get(key);
+
+        if (session == null) {
+            Session newSession = new Session();
+
+            session = s_sessions.putIfAbsent(key, newSession);
+
+            if (session == null) {
+                session = newSession;
+            }
+        }
+
+        return session;
+    }
+
+    private static String hash(String password) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(String.valueOf(password).getBytes(StandardCharsets.UTF_8));
+
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new CloudRuntimeException("Unable to hash Datera password", e);
+        }
+    }
+
+    private static String await(CompletableFuture<String> login) throws DateraObject.DateraError {
+        try {
+            return login.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CloudRuntimeException("Interrupted while logging in to Datera");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof DateraObject.DateraError) {
+                throw (DateraObject.DateraError) cause;
+            }
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            throw new CloudRuntimeException("Unable to login to Datera " + cause.getMessage());
+        }
+    }
+
+    interface LoginCall {
+        CompletableFuture<String> login();
+    }
+
+    static class Session {
+
+        private String authToken;
+        private long expiresAt;
+        private CompletableFuture<String> pendingLogin;
+
+        CompletableFuture<String> acquire(DateraObject.DateraConnection conn, LoginCall loginCall) {
+            final CompletableFuture<String> login;
+
+            synchronized (this) {
+                if (authToken != null && System.currentTimeMillis() < expiresAt) {
+                    return CompletableFuture.completedFuture(authToken);
+                }
+
+                if (pendingLogin != null) {
+                    return pendingLogin;
+                }
+
+                pendingLogin = new CompletableFuture<>();
+                login = pendingLogin;
+            }
+
+            loginCall.login().whenComplete((token, throwable) -> {
+                if (throwable == null && token == null) {
+                    throwable = new CloudRuntimeException("Unable to login to Datera: error getting auth token ");
+                }
+
+                synchronized (this) {
+                    if (throwable == null) {
+                        authToken = token;
+                        expiresAt = System.currentTimeMillis() + SESSION_TTL_MS;
+                    }
+
+                    pendingLogin = null;
+                }
+
+                if (throwable == null) {
+                    s_logger.debug("Logged in to Datera " + conn.getManagementIp() + " as " + conn.getUsername());
+                    login.complete(token);
+                } else {
+                    login.completeExceptionally(throwable instanceof CompletionException
+                            ? throwable.getCause() : throwable);
+                }
+            });
+
+            return login;
+        }
+
+        synchronized void invalidate(String rejectedToken) {
+            if (authToken != null && authToken.equals(rejectedToken)) {
+                authToken = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+
+package org.apache.cloudstack.storage.datastore.util;
+
+import org.apache.cloudstack.storage.datastore.db.StoragePoolDetailsDao;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Running total of the bytes used on a Datera primary storage pool by
+ * volumes, snapshots and templates.
+ *
+ * The driver applies the size change of every create, delete, resize and
+ * snapshot with {@link #add}, in the same place it records the size in the
+ * database.
+ */
+public class DateraUsedBytesLedger extends DateraLedger<Long> {
+
+    // storage pool detail holding the change counter of the pool
+    public static final String VERSION_DETAIL = "DateraUsedBytesVersion";
+
+    private static final Map<Long, DateraUsedBytesLedger> s_ledgers = new ConcurrentHashMap<>();
+
+    private long usedBytes;
+
+    DateraUsedBytesLedger(long storagePoolId, DateraLedgerVersion persistedVersion) {
+        super(storagePoolId, persistedVersion, "Used bytes");
+    }
+
+    public static DateraUsedBytesLedger getLedger(long storagePoolId, StoragePoolDetailsDao storagePoolDetailsDao) {
+        DateraUsedBytesLedger ledger = s_ledgers.get(storagePoolId);
+
+        if (ledger == null) {
+            DateraUsedBytesLedger newLedger = new DateraUsedBytesLedger(storagePoolId,
+                    new DateraLedgerVersion(storagePoolId, VERSION_DETAIL, storagePoolDetailsDao));
+
+            ledger = s_ledgers.putIfAbsent(storagePoolId, newLedger);
+
+            if (ledger == null) {
+                ledger = newLedger;
+            }
+        }
+
+        return ledger;
+    }
+
+    /**
+     * Forgets a pool, e.g. once it has been deleted
+     */
+    public static void remove(long storagePoolId) {
+        s_ledgers.remove(storagePoolId);
+    }
+
+    /**
+     * @param count full count of the bytes used on the pool
+     * @return bytes used on the pool
+     */
+    public long getUsedBytes(LongSupplier count) {
+        return Math.max(0, read(count::getAsLong));
+    }
+
+    /**
+     * Applies the size change of an object on the pool
+     *
+     * @param deltaBytes bytes added, negative for bytes freed
+     */
+    public synchronized void add(long deltaBytes) {
+        if (change()) {
+            usedBytes += deltaBytes;
+        }
+    }
+
+    @Override
+    protected void replace(Long figures) {
+        usedBytes = figures;
+    }
+
+    @Override
+    protected long getTotal() {
+        return usedBytes;
+    }
+
+    @Override
+    protected long getTotal(Long figures) {
+        return figures;
+    }
+}
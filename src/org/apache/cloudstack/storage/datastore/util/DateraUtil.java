@@ -24,8 +24,9 @@ import com.cloud.utils.exception.CloudRuntimeException;
 import com.google.common.base.Preconditions;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
 import com.google.gson.reflect.TypeToken;
-import org.apache.cloudstack.storage.datastore.db.StoragePoolDetailVO;
+import com.google.gson.stream.JsonReader;
 import org.apache.cloudstack.storage.datastore.db.StoragePoolDetailsDao;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
@@ -33,27 +34,37 @@ import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.StatusLine;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 
 public class DateraUtil {
 
@@ -63,12 +74,13 @@ public class DateraUtil {
     public static final String PROVIDER_NAME = "Datera";
     public static final String DRIVER_VERSION = "4.11.2-v2.0.3";
 
-    private static final String HEADER_AUTH_TOKEN = "auth-token";
-    private static final String HEADER_CONTENT_TYPE = "Content-type";
-    private static final String HEADER_VALUE_JSON = "application/json";
+    static final String HEADER_AUTH_TOKEN = "auth-token";
+    static final String HEADER_CONTENT_TYPE = "Content-type";
+    static final String HEADER_VALUE_JSON = "application/json";
 
     public static final String MANAGEMENT_VIP = "mVip";
     public static final String STORAGE_VIP = "sVip";
+    public static final String MANAGEMENT_VIP_DELIMITER = ",";
 
     public static final String MANAGEMENT_PORT = "mPort";
     public static final String STORAGE_PORT = "sPort";
@@ -76,11 +88,11 @@ public class DateraUtil {
 
     private static final int DEFAULT_MANAGEMENT_PORT = 7717;
     private static final int DEFAULT_STORAGE_PORT = 3260;
-    private static final int DEFAULT_NUM_REPLICAS = 3;
+    static final int DEFAULT_NUM_REPLICAS = 3;
 
     private static final long ONEGIB_BYTES = 1073741824;
 
-    private static final String DEFAULT_VOL_PLACEMENT = "hybrid";
+    static final String DEFAULT_VOL_PLACEMENT = "hybrid";
 
     public static final String CLUSTER_ADMIN_USERNAME = "clusterAdminUsername";
     public static final String CLUSTER_ADMIN_PASSWORD = "clusterAdminPassword";
@@ -90,6 +102,9 @@ public class DateraUtil {
     public static final String NUM_REPLICAS = "numReplicas";
     public static final String VOL_PLACEMENT = "volPlacement";
 
+    public static final long DEFAULT_CLUSTER_MIN_IOPS = 100;
+    public static final long DEFAULT_CLUSTER_MAX_IOPS = 15000;
+
     public static final String STORAGE_POOL_ID = "DateraStoragePoolId";
     public static final String VOLUME_SIZE = "DateraVolumeSize";
     public static final String VOLUME_ID = "DateraVolumeId";
@@ -97,6 +112,14 @@ public class DateraUtil {
     public static final String TEMP_VOLUME_ID = "tempVolumeId";
     public static final String IP_POOL = "ipPool";
 
+    public static final String HTTP_MAX_CONNECTIONS = "httpMaxConnections";
+    public static final String HTTP_CONNECT_TIMEOUT = "httpConnectTimeoutMs";
+    public static final String HTTP_READ_TIMEOUT = "httpReadTimeoutMs";
+    public static final String HTTP_IDLE_TIMEOUT = "httpIdleTimeoutMs";
+    public static final String ACL_READY_TIMEOUT = "aclReadyTimeoutMs";
+
+    public static final int DEFAULT_ACL_READY_TIMEOUT_MS = 15000;
+
     public static final int MAX_IOPS = 10000; // max IOPS that can be assigned to a volume
 
     public static final String INITIATOR_GROUP_PREFIX = "CS-InitiatorGroup";
@@ -111,14 +134,17 @@ public class DateraUtil {
     public static final String STATE_AVAILABLE = "available";
     public static final int DEFAULT_RETRIES = 10;
 
-    private static Gson gson = new GsonBuilder().create();
+    // single member updates outstanding at a time when a group can not be updated in one request
+    public static final int MAX_CONCURRENT_MEMBER_UPDATES = 16;
+
+    private static Gson gson = DateraObjectTypeAdapters.register(new GsonBuilder()).create();
 
     private int managementPort;
     private String managementIp;
     private String username;
     private String password;
 
-    private static final String SCHEME_HTTP = "http";
+    static final String SCHEME_HTTP = "http";
     private static final int UUID_LENGTH = 8;
 
     public DateraUtil(String managementIp, int managementPort, String username, String password) {
@@ -128,6 +154,10 @@ public class DateraUtil {
         this.password = password;
     }
 
+    static Gson getGson() {
+        return gson;
+    }
+
     public static String login(DateraObject.DateraConnection conn)
             throws UnsupportedEncodingException, DateraObject.DateraError {
 
@@ -137,8 +167,7 @@ public class DateraUtil {
         StringEntity jsonParams = new StringEntity(gson.toJson(loginParams));
         loginReq.setEntity(jsonParams);
 
-        String response = executeHttp(conn, loginReq);
-        DateraObject.DateraLoginResponse loginResponse = gson.fromJson(response,
+        DateraObject.DateraLoginResponse loginResponse = executeHttp(conn, loginReq,
                 DateraObject.DateraLoginResponse.class);
 
         return loginResponse.getKey();
@@ -149,27 +178,89 @@ public class DateraUtil {
             throws DateraObject.DateraError {
 
         HttpGet getAppInstancesReq = new HttpGet(generateApiUrl("app_instances"));
-        String response = null;
-
-        response = executeApiRequest(conn, getAppInstancesReq);
 
         Type responseType = new TypeToken<Map<String, DateraObject.AppInstance>>() {
         }.getType();
 
-        return gson.fromJson(response, responseType);
+        return executeApiRequest(conn, getAppInstancesReq, responseType);
+    }
+
+    /**
+     * Streams the app instances of the cluster one at a time instead of building
+     * the whole listing in memory. The returned iterator holds the HTTP response
+     * open and must be closed by the caller.
+     *
+     * @param conn Datera connection
+     * @return iterator over the app instances
+     * @throws DateraObject.DateraError
+     */
+    public static DateraListIterator<DateraObject.AppInstance> iterateAppInstances(
+            DateraObject.DateraConnection conn) throws DateraObject.DateraError {
+        return iterate(conn, "app_instances", DateraObject.AppInstance.class);
+    }
+
+    /**
+     * Streams the initiators of the cluster, see {@link #iterateAppInstances}
+     */
+    public static DateraListIterator<DateraObject.Initiator> iterateInitiators(DateraObject.DateraConnection conn)
+            throws DateraObject.DateraError {
+        return iterate(conn, "initiators", DateraObject.Initiator.class);
+    }
+
+    /**
+     * Streams the initiator groups of the cluster, see {@link #iterateAppInstances}
+     */
+    public static DateraListIterator<DateraObject.InitiatorGroup> iterateInitiatorGroups(
+            DateraObject.DateraConnection conn) throws DateraObject.DateraError {
+        return iterate(conn, "initiator_groups", DateraObject.InitiatorGroup.class);
+    }
+
+    private static <T> DateraListIterator<T> iterate(DateraObject.DateraConnection conn, String resource,
+            Type elementType) throws DateraObject.DateraError {
+
+        HttpGet listReq = new HttpGet(generateApiUrl(resource));
+
+        CloseableHttpResponse httpResponse = openApiRequest(conn, listReq);
+
+        try {
+            return new DateraListIterator<>(httpResponse, newJsonReader(httpResponse.getEntity()), gson,
+                    elementType);
+        } catch (IOException e) {
+            closeQuietly(httpResponse);
+            throw new CloudRuntimeException("Error while reading listing from Datera. Error " + e.getMessage());
+        }
     }
 
     public static DateraObject.AppInstance getAppInstance(DateraObject.DateraConnection conn, String name)
             throws DateraObject.DateraError {
 
-        HttpGet url = new HttpGet(generateApiUrl("app_instances", name));
+        DateraAppInstanceCache cache = DateraAppInstanceCache.getCache();
+
+        DateraObject.AppInstance appInstance = cache.get(conn, name);
+
+        if (appInstance != null) {
+            return appInstance;
+        }
+
+        String uri = generateApiUrl("app_instances", name);
+
+        if (DateraNotFoundCache.isMissing(conn, uri)) {
+            return null;
+        }
+
+        long generation = cache.getGeneration();
+        long missingGeneration = DateraNotFoundCache.getGeneration();
+
+        HttpGet url = new HttpGet(uri);
 
-        String response = null;
         try {
-            response = executeApiRequest(conn, url);
-            return gson.fromJson(response, DateraObject.AppInstance.class);
+            appInstance = executeApiRequest(conn, url, DateraObject.AppInstance.class);
+            cache.put(conn, name, appInstance, generation);
+
+            return appInstance;
         } catch (DateraObject.DateraError dateraError) {
             if (DateraObject.DateraErrorTypes.NotFoundError.equals(dateraError)) {
+                DateraNotFoundCache.setMissing(conn, uri, missingGeneration);
                 return null;
             } else {
                 throw dateraError;
@@ -184,8 +275,7 @@ public class DateraUtil {
                 DateraObject.DEFAULT_STORAGE_NAME, "volumes", DateraObject.DEFAULT_VOLUME_NAME, "performance_policy"));
 
         try {
-            String response = executeApiRequest(conn, url);
-            return gson.fromJson(response, DateraObject.PerformancePolicy.class);
+            return executeApiRequest(conn, url, DateraObject.PerformancePolicy.class);
         } catch (DateraObject.DateraError dateraError) {
             if (DateraObject.DateraErrorTypes.NotFoundError.equals(dateraError)) {
                 return null;
@@ -206,9 +296,7 @@ public class DateraUtil {
 
         url.setEntity(new StringEntity(gson.toJson(performancePolicy)));
 
-        String response = executeApiRequest(conn, url);
-
-        return gson.fromJson(response, DateraObject.PerformancePolicy.class);
+        return executeApiRequest(conn, url, DateraObject.PerformancePolicy.class);
     }
 
     public static void updateAppInstanceIops(DateraObject.DateraConnection conn, String appInstance, int totalIops)
@@ -258,7 +346,6 @@ public class DateraUtil {
         HttpPost createAppInstance = new HttpPost(generateApiUrl("app_instances"));
         HttpGet getAppInstance = new HttpGet(generateApiUrl("app_instances", name));
         createAppInstance.setEntity(appInstanceEntity);
-        String response = null;
 
         executeApiRequest(conn, createAppInstance);
 
@@ -322,20 +409,7 @@ public class DateraUtil {
 
     public static DateraObject.AppInstance pollAppInstanceAvailable(DateraObject.DateraConnection conn,
             String appInstanceName) throws DateraObject.DateraError {
-
-        int retries = DateraUtil.DEFAULT_RETRIES;
-        DateraObject.AppInstance appInstance = null;
-        do {
-            appInstance = getAppInstance(conn, appInstanceName);
-            try {
-                Thread.sleep(DateraUtil.POLL_TIMEOUT_MS);
-            } catch (InterruptedException e) {
-                return null;
-            }
-            retries--;
-        } while ((appInstance != null && !Objects.equals(appInstance.getVolumeOpState(), DateraUtil.STATE_AVAILABLE))
-                && retries > 0);
-        return appInstance;
+        return DateraPoller.await(DateraAsyncClient.pollAppInstanceAvailable(conn, appInstanceName));
     }
 
     public static DateraObject.Initiator createInitiator(DateraObject.DateraConnection conn, String name, String iqn)
@@ -347,18 +421,65 @@ public class DateraUtil {
         StringEntity httpEntity = new StringEntity(gson.toJson(initiator));
         req.setEntity(httpEntity);
 
-        return gson.fromJson(executeApiRequest(conn, req), DateraObject.Initiator.class);
+        DateraObject.Initiator created = executeApiRequest(conn, req, DateraObject.Initiator.class);
+        DateraInitiatorIndex.getIndex(conn).putInitiator(created);
+
+        return created;
+    }
+
+    /**
+     * Creates an initiator, or reads it back if another management server
+     * created it in the meantime
+     *
+     * @return path of the initiator
+     */
+    private static String createInitiatorIfMissing(DateraObject.DateraConnection conn, String name, String iqn)
+            throws DateraObject.DateraError, UnsupportedEncodingException {
+
+        try {
+            DateraObject.Initiator created = createInitiator(conn, name, iqn);
+
+            Preconditions.checkNotNull(created);
+
+            s_logger.debug("Initiator " + name + " with " + iqn + " added");
+
+            return created.getPath();
+        } catch (DateraObject.DateraError dateraError) {
+            if (!DateraObject.DateraErrorTypes.ConflictError.equals(dateraError)) {
+                throw dateraError;
+            }
+
+            DateraObject.Initiator existing = getInitiator(conn, iqn);
+
+            if (existing == null) {
+                throw dateraError;
+            }
+
+            return existing.getPath();
+        }
     }
 
     public static DateraObject.Initiator getInitiator(DateraObject.DateraConnection conn, String iqn)
             throws DateraObject.DateraError {
 
+        String uri = generateApiUrl("initiators", iqn);
+
+        if (DateraNotFoundCache.isMissing(conn, uri)) {
+            return null;
+        }
+
+        long missingGeneration = DateraNotFoundCache.getGeneration();
+
         try {
-            HttpGet getReq = new HttpGet(generateApiUrl("initiators", iqn));
-            String response = executeApiRequest(conn, getReq);
-            return gson.fromJson(response, DateraObject.Initiator.class);
+            HttpGet getReq = new HttpGet(uri);
+            DateraObject.Initiator initiator = executeApiRequest(conn, getReq, DateraObject.Initiator.class);
+            DateraInitiatorIndex.getIndex(conn).putInitiator(initiator);
+
+            return initiator;
         } catch (DateraObject.DateraError dateraError) {
             if (DateraObject.DateraErrorTypes.NotFoundError.equals(dateraError)) {
+                DateraNotFoundCache.setMissing(conn, uri, missingGeneration);
+                DateraInitiatorIndex.getIndex(conn).removeInitiator(iqn);
                 return null;
             } else {
                 throw dateraError;
@@ -370,6 +491,7 @@ public class DateraUtil {
 
         HttpDelete req = new HttpDelete(generateApiUrl("initiators", iqn));
         executeApiRequest(conn, req);
+        DateraInitiatorIndex.getIndex(conn).removeInitiator(iqn);
     }
 
     public static DateraObject.InitiatorGroup createInitiatorGroup(DateraObject.DateraConnection conn, String name)
@@ -382,25 +504,40 @@ public class DateraUtil {
         StringEntity httpEntity = new StringEntity(gson.toJson(group));
         createReq.setEntity(httpEntity);
 
-        String response = executeApiRequest(conn, createReq);
-        return gson.fromJson(response, DateraObject.InitiatorGroup.class);
+        DateraObject.InitiatorGroup created = executeApiRequest(conn, createReq, DateraObject.InitiatorGroup.class);
+        DateraInitiatorIndex.getIndex(conn).putGroup(created);
+
+        return created;
     }
 
     public static void deleteInitatorGroup(DateraObject.DateraConnection conn, String name)
             throws DateraObject.DateraError {
         HttpDelete delReq = new HttpDelete(generateApiUrl("initiator_groups", name));
         executeApiRequest(conn, delReq);
+        DateraInitiatorIndex.getIndex(conn).removeGroup(name);
     }
 
     public static DateraObject.InitiatorGroup getInitiatorGroup(DateraObject.DateraConnection conn, String name)
             throws DateraObject.DateraError {
+        String uri = generateApiUrl("initiator_groups", name);
+
+        if (DateraNotFoundCache.isMissing(conn, uri)) {
+            return null;
+        }
+
+        long missingGeneration = DateraNotFoundCache.getGeneration();
+
         try {
-            HttpGet getReq = new HttpGet(generateApiUrl("initiator_groups", name));
-            String response = executeApiRequest(conn, getReq);
-            return gson.fromJson(response, DateraObject.InitiatorGroup.class);
+            HttpGet getReq = new HttpGet(uri);
+            DateraObject.InitiatorGroup initiatorGroup = executeApiRequest(conn, getReq,
+                    DateraObject.InitiatorGroup.class);
+            DateraInitiatorIndex.getIndex(conn).putGroup(initiatorGroup);
 
+            return initiatorGroup;
         } catch (DateraObject.DateraError dateraError) {
             if (DateraObject.DateraErrorTypes.NotFoundError.equals(dateraError)) {
+                DateraNotFoundCache.setMissing(conn, uri, missingGeneration);
+                DateraInitiatorIndex.getIndex(conn).removeGroup(name);
                 return null;
             } else {
                 throw dateraError;
@@ -411,9 +548,9 @@ public class DateraUtil {
     public static void updateInitiatorGroup(DateraObject.DateraConnection conn, String initiatorPath, String groupName,
             DateraObject.DateraOperation op) throws DateraObject.DateraError, UnsupportedEncodingException {
 
-        DateraObject.InitiatorGroup initiatorGroup = getInitiatorGroup(conn, groupName);
-
-        if (initiatorGroup == null) {
+        // the group is only looked up on the array if the index does not know it
+        if (DateraInitiatorIndex.getIndex(conn).getMembers(conn, groupName) == null
+                && getInitiatorGroup(conn, groupName) == null) {
             throw new CloudRuntimeException("Unable to find initiator group by name " + groupName);
         }
 
@@ -423,6 +560,12 @@ public class DateraUtil {
 
         addReq.setEntity(new StringEntity(gson.toJson(initiator)));
         executeApiRequest(conn, addReq);
+
+        if (op == DateraObject.DateraOperation.ADD) {
+            DateraInitiatorIndex.getIndex(conn).addMember(groupName, initiatorPath);
+        } else {
+            DateraInitiatorIndex.getIndex(conn).removeMember(groupName, initiatorPath);
+        }
     }
 
     public static void addInitiatorToGroup(DateraObject.DateraConnection conn, String initiatorPath, String groupName)
@@ -435,24 +578,183 @@ public class DateraUtil {
         updateInitiatorGroup(conn, initiatorPath, groupName, DateraObject.DateraOperation.REMOVE);
     }
 
+    /**
+     * Brings the members of an initiator group in line with a set of hosts.
+     * Initiators missing on the array are created, and initiator paths are
+     * read from {@link DateraInitiatorIndex} rather than fetched per host.
+     *
+     * The member list is replaced as a whole, so it is built from the group
+     * as read from the array: the index may not have seen members added by
+     * another management server yet. Callers hold the lock of the group.
+     *
+     * @param conn         Datera connection
+     * @param groupName    initiator group
+     * @param initiators   initiator name by IQN of the hosts which must be members
+     * @param removeOthers true to also remove members which are not among
+     *                     {@code initiators}
+     * @throws DateraObject.DateraError
+     * @throws UnsupportedEncodingException
+     */
+    public static void updateInitiatorGroupMembers(DateraObject.DateraConnection conn, String groupName,
+            Map<String, String> initiators, boolean removeOthers)
+            throws DateraObject.DateraError, UnsupportedEncodingException {
+
+        DateraInitiatorIndex index = DateraInitiatorIndex.getIndex(conn);
+
+        try {
+            DateraObject.InitiatorGroup initiatorGroup = getInitiatorGroup(conn, groupName);
+
+            if (initiatorGroup == null) {
+                throw new CloudRuntimeException("Initator group " + groupName + " not found ");
+            }
+
+            Set<String> members = initiatorGroup.getMembers() != null ? new HashSet<>(initiatorGroup.getMembers())
+                    : new HashSet<>();
+
+            Set<String> wanted = new HashSet<>();
+
+            for (Map.Entry<String, String> initiator : initiators.entrySet()) {
+                String initiatorPath = index.getInitiatorPath(conn, initiator.getKey());
+
+                // the index may not have seen an initiator created elsewhere yet, ask the array
+                if (initiatorPath == null) {
+                    DateraObject.Initiator existing = getInitiator(conn, initiator.getKey());
+
+                    initiatorPath = existing != null ? existing.getPath() : null;
+                }
+
+                // initiator can not be found, create it
+                if (initiatorPath == null) {
+                    initiatorPath = createInitiatorIfMissing(conn, initiator.getValue(), initiator.getKey());
+                }
+
+                wanted.add(initiatorPath);
+            }
+
+            Set<String> toAdd = new HashSet<>(wanted);
+            toAdd.removeAll(members);
+
+            Set<String> toRemove = new HashSet<>();
+
+            if (removeOthers) {
+                toRemove.addAll(members);
+                toRemove.removeAll(wanted);
+            }
+
+            updateInitiatorGroupMembers(conn, groupName, members, toAdd, toRemove);
+        } catch (DateraObject.DateraError | RuntimeException e) {
+            // the index may be out of date with the array, rebuild it on the next attempt
+            index.invalidate();
+            throw e;
+        }
+    }
+
+    /**
+     * Applies a change set to the members of an initiator group with a single
+     * PUT of the resulting member list. Arrays which reject the member list
+     * get one update per initiator instead, at most
+     * {@link #MAX_CONCURRENT_MEMBER_UPDATES} of them outstanding at a time.
+     *
+     * @param conn      Datera connection
+     * @param groupName initiator group
+     * @param members   current members of the group
+     * @param toAdd     initiator paths to add
+     * @param toRemove  initiator paths to remove
+     * @throws DateraObject.DateraError
+     * @throws UnsupportedEncodingException
+     */
+    private static void updateInitiatorGroupMembers(DateraObject.DateraConnection conn, String groupName,
+            Set<String> members, Set<String> toAdd, Set<String> toRemove)
+            throws DateraObject.DateraError, UnsupportedEncodingException {
+
+        if (toAdd.isEmpty() && toRemove.isEmpty()) {
+            return;
+        }
+
+        s_logger.debug("Update " + groupName + ": add " + toAdd + ", remove " + toRemove);
+
+        Set<String> updated = new HashSet<>(members);
+        updated.addAll(toAdd);
+        updated.removeAll(toRemove);
+
+        DateraObject.InitiatorGroup initiatorGroup = new DateraObject.InitiatorGroup(groupName,
+                new ArrayList<>(updated));
+
+        HttpPut updateReq = new HttpPut(generateApiUrl("initiator_groups", groupName));
+        updateReq.setEntity(new StringEntity(gson.toJson(initiatorGroup)));
+
+        try {
+            executeApiRequest(conn, updateReq);
+
+            DateraInitiatorIndex.getIndex(conn).putGroup(initiatorGroup);
+
+            return;
+        } catch (DateraObject.DateraError dateraError) {
+            if (!DateraObject.DateraErrorTypes.ValidationFailedError.equals(dateraError)
+                    && !DateraObject.DateraErrorTypes.InvalidRequestError.equals(dateraError)) {
+                throw dateraError;
+            }
+
+            s_logger.debug("Member list of " + groupName + " rejected, updating one initiator at a time: "
+                    + dateraError.getMessage());
+        }
+
+        Map<String, DateraObject.DateraOperation> changes = new HashMap<>();
+
+        for (String initiatorPath : toAdd) {
+            changes.put(initiatorPath, DateraObject.DateraOperation.ADD);
+        }
+
+        for (String initiatorPath : toRemove) {
+            changes.put(initiatorPath, DateraObject.DateraOperation.REMOVE);
+        }
+
+        Map<String, CompletableFuture<Void>> results = DateraAsyncClient.runBounded(changes.keySet(),
+                MAX_CONCURRENT_MEMBER_UPDATES, initiatorPath -> DateraAsyncClient.updateInitiatorGroupMember(conn,
+                        groupName, initiatorPath, changes.get(initiatorPath)));
+
+        // every update is waited for before the first failure is reported
+        DateraObject.DateraError dateraError = null;
+        RuntimeException runtimeException = null;
+
+        for (CompletableFuture<Void> result : results.values()) {
+            try {
+                DateraPoller.await(result);
+            } catch (DateraObject.DateraError e) {
+                dateraError = dateraError != null ? dateraError : e;
+            } catch (RuntimeException e) {
+                runtimeException = runtimeException != null ? runtimeException : e;
+            }
+        }
+
+        if (dateraError != null) {
+            throw dateraError;
+        }
+
+        if (runtimeException != null) {
+            throw runtimeException;
+        }
+    }
+
     public static Map<String, DateraObject.InitiatorGroup> getAppInstanceInitiatorGroups(
             DateraObject.DateraConnection conn, String appInstance) throws DateraObject.DateraError {
         HttpGet req = new HttpGet(generateApiUrl("app_instances", appInstance, "storage_instances",
                 DateraObject.DEFAULT_STORAGE_NAME, "acl_policy", "initiator_groups"));
 
-        String response = executeApiRequest(conn, req);
-
-        if (response == null) {
-            return null;
-        }
-
         Type responseType = new TypeToken<Map<String, DateraObject.InitiatorGroup>>() {
         }.getType();
 
-        return gson.fromJson(response, responseType);
+        return executeApiRequest(conn, req, responseType);
     }
 
-    public static void assignGroupToAppInstance(DateraObject.DateraConnection conn, String group, String appInstance)
+    /**
+     * Adds an initiator group to the ACL of an app instance, unless it already
+     * is in it
+     *
+     * @return true if the group was added, false if it was already assigned
+     */
+    public static boolean assignGroupToAppInstance(DateraObject.DateraConnection conn, String group,
+            String appInstance)
             throws DateraObject.DateraError, UnsupportedEncodingException {
 
         DateraObject.InitiatorGroup initiatorGroup = getInitiatorGroup(conn, group);
@@ -470,7 +772,7 @@ public class DateraUtil {
         for (DateraObject.InitiatorGroup ig : initiatorGroups.values()) {
             if (ig.getName().equals(group)) {
                 // already assigned
-                return;
+                return false;
             }
         }
 
@@ -481,9 +783,16 @@ public class DateraUtil {
                 .toJson(new DateraObject.InitiatorGroup(initiatorGroup.getPath(), DateraObject.DateraOperation.ADD))));
 
         executeApiRequest(conn, url);
+
+        return true;
     }
 
-    public static void removeGroupFromAppInstance(DateraObject.DateraConnection conn, String group, String appInstance)
+    /**
+     * Removes an initiator group from the ACL of an app instance, if it is in it
+     *
+     * @return true if the group was removed, false if it was not assigned
+     */
+    public static boolean removeGroupFromAppInstance(DateraObject.DateraConnection conn, String group, String appInstance)
             throws DateraObject.DateraError, UnsupportedEncodingException {
 
         DateraObject.InitiatorGroup initiatorGroup = getInitiatorGroup(conn, group);
@@ -508,7 +817,7 @@ public class DateraUtil {
         }
 
         if (!groupAssigned) {
-            return; // already removed
+            return false; // already removed
         }
 
         HttpPut url = new HttpPut(generateApiUrl("app_instances", appInstance, "storage_instances",
@@ -518,6 +827,8 @@ public class DateraUtil {
                 new DateraObject.InitiatorGroup(initiatorGroup.getPath(), DateraObject.DateraOperation.REMOVE))));
 
         executeApiRequest(conn, url);
+
+        return true;
     }
 
     public static void updateAppInstanceAdminState(DateraObject.DateraConnection conn, String appInstanceName,
@@ -573,9 +884,8 @@ public class DateraUtil {
                 generateApiUrl("app_instances", appInstanceName, "storage_instances", DateraObject.DEFAULT_STORAGE_NAME,
                         "volumes", DateraObject.DEFAULT_VOLUME_NAME, "snapshots", snapshotTime));
 
-        String resp = executeApiRequest(conn, getSnasphotReq);
-
-        DateraObject.VolumeSnapshot snapshot = gson.fromJson(resp, DateraObject.VolumeSnapshot.class);
+        DateraObject.VolumeSnapshot snapshot = executeApiRequest(conn, getSnasphotReq,
+                DateraObject.VolumeSnapshot.class);
 
         String snapshotPath = snapshot.getPath();
 
@@ -619,8 +929,7 @@ public class DateraUtil {
                 generateApiUrl("app_instances", appInstanceName, "storage_instances", DateraObject.DEFAULT_STORAGE_NAME,
                         "volumes", DateraObject.DEFAULT_VOLUME_NAME, "snapshots", snapshotTime));
 
-        String resp = executeApiRequest(conn, getSnapshotReq);
-        return gson.fromJson(resp, DateraObject.VolumeSnapshot.class);
+        return executeApiRequest(conn, getSnapshotReq, DateraObject.VolumeSnapshot.class);
     }
 
     public static DateraObject.VolumeSnapshot takeVolumeSnapshot(DateraObject.DateraConnection conn,
@@ -633,22 +942,12 @@ public class DateraUtil {
         String snapshotUuid = UUID.randomUUID().toString();
         DateraObject.VolumeSnapshot volumeSnapshot = new DateraObject.VolumeSnapshot(snapshotUuid);
         takeSnasphotReq.setEntity(new StringEntity(gson.toJson(volumeSnapshot)));
-        String snapshotResponse = executeApiRequest(conn, takeSnasphotReq);
-        volumeSnapshot = gson.fromJson(snapshotResponse, DateraObject.VolumeSnapshot.class);
+        volumeSnapshot = executeApiRequest(conn, takeSnasphotReq, DateraObject.VolumeSnapshot.class);
         String snapshotTime = volumeSnapshot.getTimestamp();
 
-        int retries = DateraUtil.DEFAULT_RETRIES;
-
-        do {
-            try {
-                Thread.sleep(DateraUtil.POLL_TIMEOUT_MS);
-            } catch (InterruptedException e) {
-                return null;
-            }
-            volumeSnapshot = getVolumeSnapshot(conn, baseAppInstanceName, snapshotTime);
-        } while ((!Objects.equals(volumeSnapshot.getOpState(), DateraUtil.STATE_AVAILABLE)) && --retries > 0);
-
-        return volumeSnapshot;
+        return DateraPoller.await(DateraPoller.poll(
+                () -> DateraAsyncClient.getVolumeSnapshot(conn, baseAppInstanceName, snapshotTime),
+                snapshot -> Objects.equals(snapshot.getOpState(), DateraUtil.STATE_AVAILABLE)));
     }
 
     public static DateraObject.AppInstance restoreVolumeSnapshot(DateraObject.DateraConnection conn,
@@ -685,65 +984,266 @@ public class DateraUtil {
 
     }
 
-    private static String executeApiRequest(DateraObject.DateraConnection conn, HttpRequest apiReq)
+    private static void executeApiRequest(DateraObject.DateraConnection conn, HttpRequest apiReq)
             throws DateraObject.DateraError {
+        executeApiRequest(conn, apiReq, null);
+    }
+
+    /**
+     * Sends an authenticated request and decodes the response body straight
+     * from the entity stream
+     *
+     * @param responseType type to decode the body into, null to discard the body
+     */
+    private static <T> T executeApiRequest(DateraObject.DateraConnection conn, HttpRequest apiReq, Type responseType)
+            throws DateraObject.DateraError {
+
+        if (apiReq instanceof HttpGet) {
+            // identical concurrent GETs share one exchange
+            return DateraRequestCoalescer.coalesce(conn, apiReq.getRequestLine().getUri(), responseType,
+                    () -> readApiResponse(conn, apiReq, responseType));
+        }
+
+        // cached and in-flight lookups the write affects are dropped before and after it
+        DateraAppInstanceCache cache = DateraAppInstanceCache.getCache();
+
+        cache.invalidate(conn, apiReq);
+        DateraNotFoundCache.evict(conn, apiReq);
+        DateraRequestCoalescer.evict(conn, apiReq);
 
-        // Get the token first
-        String authToken = null;
         try {
-            authToken = login(conn);
-        } catch (UnsupportedEncodingException e) {
-            throw new CloudRuntimeException("Unable to login to Datera " + e.getMessage());
+            return readApiResponse(conn, apiReq, responseType);
+        } finally {
+            cache.invalidate(conn, apiReq);
+            DateraNotFoundCache.evict(conn, apiReq);
+            DateraRequestCoalescer.evict(conn, apiReq);
         }
+    }
 
-        if (authToken == null) {
-            throw new CloudRuntimeException("Unable to login to Datera: error getting auth token ");
+    private static <T> T readApiResponse(DateraObject.DateraConnection conn, HttpRequest apiReq, Type responseType)
+            throws DateraObject.DateraError {
+
+        // closing the response hands the connection back to the pool
+        try (CloseableHttpResponse httpResponse = openApiRequest(conn, apiReq)) {
+            return readEntity(httpResponse.getEntity(), responseType);
+        } catch (IOException | JsonParseException e) {
+            throw new CloudRuntimeException("Error while reading response from Datera. Error " + e.getMessage());
         }
+    }
+
+    private static CloseableHttpResponse openApiRequest(DateraObject.DateraConnection conn, HttpRequest apiReq)
+            throws DateraObject.DateraError {
+
+        return DateraRetryPolicy.getDefault().execute(apiReq, DateraRetryPolicy.isIdempotent(apiReq),
+                () -> openAuthenticatedRequest(conn, apiReq));
+    }
+
+    private static CloseableHttpResponse openAuthenticatedRequest(DateraObject.DateraConnection conn,
+            HttpRequest apiReq) throws DateraObject.DateraError {
 
-        apiReq.addHeader(HEADER_AUTH_TOKEN, authToken);
+        // Reuse the cached session, logging in only if there is none
+        String authToken = DateraSessionManager.getAuthToken(conn);
 
-        return executeHttp(conn, apiReq);
+        apiReq.setHeader(HEADER_AUTH_TOKEN, authToken);
+
+        try {
+            return openHttp(conn, apiReq);
+        } catch (DateraObject.DateraError dateraError) {
+            if (!DateraSessionManager.isAuthError(dateraError)) {
+                throw dateraError;
+            }
+
+            // The session expired on the array, log in again and retry once
+            s_logger.debug("Datera session rejected, logging in again: " + dateraError.getMessage());
+            DateraSessionManager.invalidate(conn, authToken);
+
+            apiReq.setHeader(HEADER_AUTH_TOKEN, DateraSessionManager.getAuthToken(conn));
+
+            return openHttp(conn, apiReq);
+        }
     }
 
-    private static String executeHttp(DateraObject.DateraConnection conn, HttpRequest request)
+    private static <T> T executeHttp(DateraObject.DateraConnection conn, HttpRequest request, Type responseType)
             throws DateraObject.DateraError {
-        CloseableHttpClient httpclient = HttpClientBuilder.create().build();
-        String response = null;
 
-        if (null == httpclient) {
-            throw new CloudRuntimeException("Unable to create httpClient for request");
+        try (CloseableHttpResponse httpResponse = DateraRetryPolicy.getDefault().execute(request,
+                DateraRetryPolicy.isIdempotent(request), () -> openHttp(conn, request))) {
+            return readEntity(httpResponse.getEntity(), responseType);
+        } catch (IOException | JsonParseException e) {
+            throw new CloudRuntimeException("Error while reading response from Datera. Error " + e.getMessage());
         }
+    }
+
+    /**
+     * Sends {@code request} and returns the still unread response if the status
+     * is 200, the caller has to close it
+     */
+    private static CloseableHttpResponse openHttp(DateraObject.DateraConnection conn, HttpRequest request)
+            throws DateraObject.DateraError {
+        DateraEndpointSelector selector = DateraEndpointSelector.getSelector(conn);
+
+        request.setHeader(HEADER_CONTENT_TYPE, HEADER_VALUE_JSON);
+
+        CloseableHttpResponse httpResponse;
+
+        DateraBulkhead bulkhead = DateraBulkhead.getBulkhead(conn);
+        bulkhead.acquire(conn.getReadTimeoutMs());
+
+        long start = System.currentTimeMillis();
 
         try {
+            if (request instanceof HttpGet && selector.hasMultipleEndpoints()) {
+                httpResponse = executeHedged(conn, selector, (HttpGet) request);
+            } else {
+                httpResponse = execute(conn, selector.select(), request);
+            }
+        } catch (IOException e) {
+            bulkhead.release(System.currentTimeMillis() - start, true);
+
+            // the cause tells the retry policy whether the request reached the array
+            throw new CloudRuntimeException("Error while sending request to Datera. Error " + e.getMessage(), e);
+        } catch (RuntimeException e) {
+            bulkhead.release(System.currentTimeMillis() - start, true);
+            throw e;
+        }
 
-            request.setHeader(HEADER_CONTENT_TYPE, HEADER_VALUE_JSON);
+        // the permit is held while the body is streamed, until the response is closed
+        httpResponse = new DateraBulkheadResponse(httpResponse, bulkhead, start,
+                DateraBulkhead.isOverloaded(httpResponse.getStatusLine().getStatusCode()));
 
-            HttpHost target = new HttpHost(conn.getManagementIp(), conn.getManagementPort(), SCHEME_HTTP);
+        StatusLine status = httpResponse.getStatusLine();
 
-            HttpResponse httpResponse = httpclient.execute(target, request);
+        if (status.getStatusCode() == HttpStatus.SC_OK) {
+            return httpResponse;
+        }
 
-            HttpEntity entity = httpResponse.getEntity();
-            StatusLine status = httpResponse.getStatusLine();
-            response = EntityUtils.toString(entity);
+        try {
+            throw readError(status, httpResponse.getEntity());
+        } finally {
+            closeQuietly(httpResponse);
+        }
+    }
 
-            assert response != null;
+    private static CloseableHttpResponse execute(DateraObject.DateraConnection conn,
+            DateraEndpointSelector.Endpoint endpoint, HttpRequest request) throws IOException {
+        HttpHost target = new HttpHost(endpoint.getHost(), conn.getManagementPort(), SCHEME_HTTP);
 
-            if (status.getStatusCode() != HttpStatus.SC_OK) {
-                // check if this is an error
-                DateraObject.DateraError error = gson.fromJson(response, DateraObject.DateraError.class);
-                if (error != null && error.isError()) {
-                    throw error;
-                } else {
-                    throw new CloudRuntimeException("Error while trying to get HTTP object from Datera");
-                }
+        endpoint.begin();
+        boolean failed = true;
+
+        try {
+            CloseableHttpResponse httpResponse = DateraConnectionManager.getHttpClient(conn).execute(target, request);
+            failed = httpResponse.getStatusLine().getStatusCode() >= HttpStatus.SC_INTERNAL_SERVER_ERROR;
+
+            return httpResponse;
+        } finally {
+            endpoint.end(failed);
+        }
+    }
 
+    /**
+     * Races the GET against a second management VIP if the first one is slow,
+     * each attempt blocks a thread of the selector's request executor
+     */
+    private static CloseableHttpResponse executeHedged(DateraObject.DateraConnection conn,
+            DateraEndpointSelector selector, HttpGet request) throws IOException {
+
+        CompletableFuture<CloseableHttpResponse> response = selector.hedge(endpoint -> CompletableFuture.supplyAsync(() -> {
+            // every attempt needs its own request object
+            HttpGet attempt = new HttpGet(request.getURI());
+            attempt.setHeaders(request.getAllHeaders());
+
+            try {
+                return execute(conn, endpoint, attempt);
+            } catch (IOException e) {
+                throw new CompletionException(e);
             }
+        }, DateraEndpointSelector.getRequestExecutor()), DateraUtil::closeQuietly);
 
-        } catch (IOException e) {
-            throw new CloudRuntimeException("Error while sending request to Datera. Error " + e.getMessage());
+        try {
+            return response.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CloudRuntimeException("Interrupted while waiting for a response from Datera");
+        } catch (ExecutionException e) {
+            Throwable cause = DateraAsyncClient.unwrap(e.getCause());
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            throw new CloudRuntimeException("Error while sending request to Datera. Error " + cause.getMessage());
+        }
+    }
+
+    /**
+     * Decodes {@code entity} with a streaming reader, without buffering the body
+     *
+     * @param entity       response entity, may be null
+     * @param responseType type to decode into, null to discard the body
+     * @return the decoded object, null for an empty body
+     * @throws IOException if reading the body fails
+     */
+    static <T> T readEntity(HttpEntity entity, Type responseType) throws IOException {
+        if (entity == null) {
+            return null;
+        }
+
+        if (responseType == null) {
+            EntityUtils.consume(entity);
+            return null;
+        }
+
+        try (JsonReader reader = newJsonReader(entity)) {
+            return gson.fromJson(reader, responseType);
+        }
+    }
+
+    /**
+     * Turns the body of a non 200 response into the error reported by Datera
+     *
+     * @param status status line of the response
+     * @param entity response entity, may be null
+     * @return the error to throw
+     * @throws CloudRuntimeException if the body holds no Datera error
+     */
+    static DateraObject.DateraError readError(StatusLine status, HttpEntity entity) {
+        DateraObject.DateraError error = null;
+
+        try {
+            error = readEntity(entity, DateraObject.DateraError.class);
+        } catch (IOException | JsonParseException e) {
+            s_logger.debug("Unable to read error response from Datera: " + e.getMessage());
+        }
+
+        if (error != null && error.isError()) {
+            return error;
+        } else if (status.getStatusCode() == HttpStatus.SC_UNAUTHORIZED) {
+            return new DateraObject.DateraError(DateraObject.DateraErrorTypes.AuthFailedError.name(),
+                    status.getStatusCode(), null, status.getReasonPhrase());
         }
 
-        return response;
+        throw new CloudRuntimeException("Error while trying to get HTTP object from Datera",
+                new HttpResponseException(status.getStatusCode(), status.getReasonPhrase()));
+    }
+
+    private static JsonReader newJsonReader(HttpEntity entity) throws IOException {
+        Charset charset = ContentType.getOrDefault(entity).getCharset();
+
+        return new JsonReader(new InputStreamReader(entity.getContent(),
+                charset != null ? charset : StandardCharsets.UTF_8));
+    }
+
+    private static void closeQuietly(CloseableHttpResponse httpResponse) {
+        try {
+            httpResponse.close();
+        } catch (IOException e) {
+            s_logger.debug("Error closing Datera response", e);
+        }
     }
 
     protected static String generateApiUrl(String... args) {
@@ -755,8 +1255,20 @@ public class DateraUtil {
         return StringUtils.join(urlList, "/");
     }
 
+    /**
+     * @return the management VIP, or the comma separated management VIPs of the
+     *         cluster, without ports
+     */
     public static String getManagementVip(String url) {
-        return getVip(DateraUtil.MANAGEMENT_VIP, url);
+        List<String> vips = new ArrayList<>();
+
+        for (String vip : getValue(DateraUtil.MANAGEMENT_VIP, url).split(MANAGEMENT_VIP_DELIMITER)) {
+            if (!vip.trim().isEmpty()) {
+                vips.add(getVip(vip.trim()));
+            }
+        }
+
+        return StringUtils.join(vips, MANAGEMENT_VIP_DELIMITER);
     }
 
     public static String getStorageVip(String url) {
@@ -764,7 +1276,14 @@ public class DateraUtil {
     }
 
     public static int getManagementPort(String url) {
-        return getPort(DateraUtil.MANAGEMENT_VIP, url, DEFAULT_MANAGEMENT_PORT);
+        // all management VIPs of a cluster share the port, take the first one given
+        for (String vip : getValue(DateraUtil.MANAGEMENT_VIP, url).split(MANAGEMENT_VIP_DELIMITER)) {
+            if (vip.indexOf(':') != -1) {
+                return getPort(vip.trim(), DEFAULT_MANAGEMENT_PORT);
+            }
+        }
+
+        return DEFAULT_MANAGEMENT_PORT;
     }
 
     public static int getStoragePort(String url) {
@@ -799,31 +1318,150 @@ public class DateraUtil {
         }
     }
 
+    public static int getHttpSetting(String keyToMatch, String url, int defaultValue) {
+        String value = getValue(keyToMatch, url, false);
+
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid URL format (" + keyToMatch + " is not an integer)");
+        }
+    }
+
+    public static int getAclReadyTimeoutMs(String url) {
+        return getHttpSetting(ACL_READY_TIMEOUT, url, DEFAULT_ACL_READY_TIMEOUT_MS);
+    }
+
+    public static int getAclReadyTimeoutMs(long storagePoolId, StoragePoolDetailsDao storagePoolDetailsDao) {
+        return DateraPoolSettings.get(storagePoolId, storagePoolDetailsDao).getAclReadyTimeoutMs();
+    }
+
+    /**
+     * @return true if the array reports the operational and ACL state of the
+     *         storage instance, older releases do not
+     */
+    public static boolean isAclStateReported(DateraObject.StorageInstance storageInstance) {
+        return storageInstance != null && storageInstance.getOpState() != null
+                && storageInstance.getAclPolicy() != null;
+    }
+
+    /**
+     * @return true if the storage instance is available, exported on the access
+     *         network and its ACL lists the initiator group
+     */
+    public static boolean isAclReady(DateraObject.StorageInstance storageInstance, String initiatorGroupName) {
+        if (!isAclStateReported(storageInstance)
+                || !Objects.equals(storageInstance.getOpState(), DateraUtil.STATE_AVAILABLE)) {
+            return false;
+        }
+
+        DateraObject.Access access = storageInstance.getAccess();
+
+        if (access == null || access.getIps() == null || access.getIps().isEmpty()) {
+            return false;
+        }
+
+        return isInitiatorGroupInAcl(storageInstance, initiatorGroupName);
+    }
+
+    /**
+     * Finds which of the given app instances have the initiator group in their
+     * ACL, reading a single app_instances listing instead of one ACL per app
+     * instance
+     *
+     * @param conn               Datera connection
+     * @param initiatorGroupName initiator group to look for
+     * @param appInstanceNames   app instances to check
+     * @return names of the app instances whose ACL lists the group, null if the
+     *         array does not report ACLs in the listing
+     * @throws DateraObject.DateraError
+     */
+    public static Set<String> getAppInstancesInAcl(DateraObject.DateraConnection conn, String initiatorGroupName,
+            Set<String> appInstanceNames) throws DateraObject.DateraError {
+
+        Set<String> inAcl = new HashSet<>();
+        int found = 0;
+
+        try (DateraListIterator<DateraObject.AppInstance> appInstances = iterateAppInstances(conn)) {
+            // stop reading once every app instance is found
+            while (found < appInstanceNames.size() && appInstances.hasNext()) {
+                DateraObject.AppInstance appInstance = appInstances.next();
+
+                if (!appInstanceNames.contains(appInstance.getName())) {
+                    continue;
+                }
+
+                found++;
+
+                DateraObject.StorageInstance storageInstance = appInstance.getStorageInstance();
+
+                if (storageInstance == null || storageInstance.getAclPolicy() == null) {
+                    return null;
+                }
+
+                if (isInitiatorGroupInAcl(storageInstance, initiatorGroupName)) {
+                    inAcl.add(appInstance.getName());
+                }
+            }
+        } catch (IOException e) {
+            throw new CloudRuntimeException("Unable to list app instances. Error " + e.getMessage(), e);
+        }
+
+        return inAcl;
+    }
+
+    private static boolean isInitiatorGroupInAcl(DateraObject.StorageInstance storageInstance,
+            String initiatorGroupName) {
+
+        List<String> initiatorGroups = storageInstance.getAclPolicy().getInitiatorGroups();
+
+        if (initiatorGroups == null) {
+            return false;
+        }
+
+        // the ACL refers to groups by path, /initiator_groups/<name>
+        for (String initiatorGroupPath : initiatorGroups) {
+            if (initiatorGroupPath.endsWith("/" + initiatorGroupName)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     private static String getVip(String keyToMatch, String url) {
-        String delimiter = ":";
+        return getVip(getValue(keyToMatch, url));
+    }
 
-        String storageVip = getValue(keyToMatch, url);
+    private static String getVip(String value) {
+        String delimiter = ":";
 
-        int index = storageVip.indexOf(delimiter);
+        int index = value.indexOf(delimiter);
 
         if (index != -1) {
-            return storageVip.substring(0, index);
+            return value.substring(0, index);
         }
 
-        return storageVip;
+        return value;
     }
 
     private static int getPort(String keyToMatch, String url, int defaultPortNumber) {
-        String delimiter = ":";
+        return getPort(getValue(keyToMatch, url), defaultPortNumber);
+    }
 
-        String storageVip = getValue(keyToMatch, url);
+    private static int getPort(String value, int defaultPortNumber) {
+        String delimiter = ":";
 
-        int index = storageVip.indexOf(delimiter);
+        int index = value.indexOf(delimiter);
 
         int portNumber = defaultPortNumber;
 
         if (index != -1) {
-            String port = storageVip.substring(index + delimiter.length());
+            String port = value.substring(index + delimiter.length());
 
             try {
                 portNumber = Integer.parseInt(port);
@@ -896,24 +1534,7 @@ public class DateraUtil {
 
     public static DateraObject.DateraConnection getDateraConnection(long storagePoolId,
             StoragePoolDetailsDao storagePoolDetailsDao) {
-        StoragePoolDetailVO storagePoolDetail = storagePoolDetailsDao.findDetail(storagePoolId,
-                DateraUtil.MANAGEMENT_VIP);
-
-        String mVip = storagePoolDetail.getValue();
-
-        storagePoolDetail = storagePoolDetailsDao.findDetail(storagePoolId, DateraUtil.MANAGEMENT_PORT);
-
-        int mPort = Integer.parseInt(storagePoolDetail.getValue());
-
-        storagePoolDetail = storagePoolDetailsDao.findDetail(storagePoolId, DateraUtil.CLUSTER_ADMIN_USERNAME);
-
-        String clusterAdminUsername = storagePoolDetail.getValue();
-
-        storagePoolDetail = storagePoolDetailsDao.findDetail(storagePoolId, DateraUtil.CLUSTER_ADMIN_PASSWORD);
-
-        String clusterAdminPassword = storagePoolDetail.getValue();
-
-        return new DateraObject.DateraConnection(mVip, mPort, clusterAdminUsername, clusterAdminPassword);
+        return DateraPoolSettings.get(storagePoolId, storagePoolDetailsDao).getConnection();
     }
 
     public static boolean hostsSupport_iScsi(List<HostVO> hosts) {
@@ -943,22 +1564,30 @@ public class DateraUtil {
     }
 
     /**
-     * Checks wether a host initiator is present in an initiator group
-     *
-     * @param initiator      Host initiator to check
-     * @param initiatorGroup the initiator group
-     * @return true if host initiator is in the group, false otherwise
+     * Name of the lock serializing changes to an initiator group. Group names
+     * do not include the primary storage, so every pool on the same array
+     * shares the lock of a cluster's group.
      */
-    public static boolean isInitiatorPresentInGroup(DateraObject.Initiator initiator,
-            DateraObject.InitiatorGroup initiatorGroup) {
+    public static String getInitiatorGroupLockName(DateraObject.DateraConnection conn, String initiatorGroupName) {
+        return conn.getManagementIp() + "-" + initiatorGroupName;
+    }
 
-        for (String memberPath : initiatorGroup.getMembers()) {
-            if (memberPath.equals(initiator.getPath())) {
-                return true;
+    /**
+     * @param hosts hosts of a cluster
+     * @return initiator name to use on Datera by IQN, for the hosts with an IQN
+     */
+    public static Map<String, String> getHostInitiators(List<HostVO> hosts) {
+        Map<String, String> initiators = new HashMap<>();
+
+        if (hosts != null) {
+            for (HostVO host : hosts) {
+                if (hostSupport_iScsi(host)) {
+                    initiators.put(host.getStorageUrl(), INITIATOR_PREFIX + "-" + host.getUuid());
+                }
             }
         }
 
-        return false;
+        return initiators;
     }
 
     public static int bytesToGib(long volumeSizeBytes) {
@@ -0,0 +1,525 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.storage.datastore.driver;
+
+import com.cloud.agent.api.to.DataObjectType;
+import com.cloud.dc.ClusterDetailsDao;
+import com.cloud.dc.ClusterVO;
+import com.cloud.dc.dao.ClusterDao;
+import com.cloud.host.Host;
+import com.cloud.host.HostVO;
+import com.cloud.host.dao.HostDao;
+import com.cloud.storage.dao.VolumeDao;
+import com.cloud.utils.db.GlobalLock;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.cloudstack.engine.subsystem.api.storage.DataObject;
+import org.apache.cloudstack.engine.subsystem.api.storage.DataStore;
+import org.apache.cloudstack.engine.subsystem.api.storage.VolumeInfo;
+import org.apache.cloudstack.storage.datastore.db.StoragePoolDetailsDao;
+import org.apache.cloudstack.storage.datastore.util.DateraObject;
+import org.apache.cloudstack.storage.datastore.util.DateraPoolSettings;
+import org.apache.cloudstack.storage.datastore.util.DateraUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.powermock.reflect.Whitebox;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Drives the batch grantAccess and revokeAccess through mocked DAOs, with the
+ * connection of the pool pointing at an in-memory array served over HTTP
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(GlobalLock.class)
+@PowerMockIgnore({"javax.management.*", "javax.net.ssl.*", "com.sun.*", "sun.*", "org.apache.log4j.*"})
+public class DateraPrimaryDataStoreDriverTest {
+
+    private static final long STORAGE_POOL_ID = 1;
+    private static final long CLUSTER_ID = 2;
+    private static final String CLUSTER_UUID = "4d5b4c0e-4bd5-4cc9-8a2f-7b1c1bd3f5b1";
+    private static final String INITIATOR_GROUP = DateraUtil.INITIATOR_GROUP_PREFIX + "-" + CLUSTER_UUID;
+    private static final String IQN = "iqn.1994-05.com.redhat:host-1";
+
+    private FakeArray array;
+    private DateraPrimaryDataStoreDriver driver;
+    private Host host;
+    private DataStore dataStore;
+
+    @Before
+    public void setUp() throws Exception {
+        array = new FakeArray();
+        array.addInitiator(IQN);
+        array.addInitiatorGroup(INITIATOR_GROUP, IQN);
+
+        Map<String, String> details = new HashMap<>();
+        details.put(DateraUtil.MANAGEMENT_VIP, "127.0.0.1");
+        details.put(DateraUtil.MANAGEMENT_PORT, String.valueOf(array.getPort()));
+        details.put(DateraUtil.CLUSTER_ADMIN_USERNAME, "admin");
+        details.put(DateraUtil.CLUSTER_ADMIN_PASSWORD, "password");
+
+        StoragePoolDetailsDao storagePoolDetailsDao = mock(StoragePoolDetailsDao.class);
+        when(storagePoolDetailsDao.listDetailsKeyPairs(STORAGE_POOL_ID)).thenReturn(details);
+
+        ClusterVO cluster = mock(ClusterVO.class);
+        when(cluster.getId()).thenReturn(CLUSTER_ID);
+        when(cluster.getUuid()).thenReturn(CLUSTER_UUID);
+
+        ClusterDao clusterDao = mock(ClusterDao.class);
+        when(clusterDao.findById(CLUSTER_ID)).thenReturn(cluster);
+
+        HostVO hostVO = mock(HostVO.class);
+        when(hostVO.getClusterId()).thenReturn(CLUSTER_ID);
+        when(hostVO.getStorageUrl()).thenReturn(IQN);
+
+        HostDao hostDao = mock(HostDao.class);
+        when(hostDao.findByClusterId(CLUSTER_ID)).thenReturn(Collections.singletonList(hostVO));
+
+        host = hostVO;
+
+        dataStore = mock(DataStore.class);
+        when(dataStore.getId()).thenReturn(STORAGE_POOL_ID);
+
+        // the app instance locks live in the database
+        GlobalLock lock = mock(GlobalLock.class);
+        when(lock.lock(anyInt())).thenReturn(true);
+
+        PowerMockito.mockStatic(GlobalLock.class);
+        when(GlobalLock.getInternLock(anyString())).thenReturn(lock);
+
+        driver = new DateraPrimaryDataStoreDriver();
+        Whitebox.setInternalState(driver, "_storagePoolDetailsDao", storagePoolDetailsDao);
+        Whitebox.setInternalState(driver, "_clusterDao", clusterDao);
+        Whitebox.setInternalState(driver, "_clusterDetailsDao", mock(ClusterDetailsDao.class));
+        Whitebox.setInternalState(driver, "_hostDao", hostDao);
+        Whitebox.setInternalState(driver, "_volumeDao", mock(VolumeDao.class));
+
+        DateraPoolSettings.invalidate(STORAGE_POOL_ID);
+    }
+
+    @After
+    public void tearDown() {
+        array.stop();
+        DateraPoolSettings.invalidate(STORAGE_POOL_ID);
+    }
+
+    private static VolumeInfo volume(long id) {
+        VolumeInfo volume = mock(VolumeInfo.class);
+        when(volume.getId()).thenReturn(id);
+        when(volume.getType()).thenReturn(DataObjectType.VOLUME);
+        when(volume.getName()).thenReturn("vol-" + id);
+        when(volume.getUuid()).thenReturn("uuid-" + id);
+
+        return volume;
+    }
+
+    private static String appInstanceName(long volumeId) {
+        return DateraUtil.APPINSTANCE_PREFIX + "-V-vol-" + volumeId + "-uuid-" + volumeId;
+    }
+
+    @Test
+    public void testGrantAccessToSeveralVolumes() {
+        VolumeInfo unassigned = volume(1);
+        VolumeInfo assigned = volume(2);
+        VolumeInfo missing = volume(3);
+
+        array.addAppInstance(appInstanceName(1));
+        array.addAppInstance(appInstanceName(2), INITIATOR_GROUP);
+
+        Map<DataObject, Boolean> granted = driver.grantAccess(Arrays.<DataObject>asList(unassigned, assigned, missing),
+                host, dataStore);
+
+        assertEquals(Arrays.<DataObject>asList(unassigned, assigned, missing), new ArrayList<>(granted.keySet()));
+        assertTrue(granted.get(unassigned));
+        assertTrue(granted.get(assigned));
+        assertFalse(granted.get(missing));
+
+        assertEquals(Collections.singletonList("/initiator_groups/" + INITIATOR_GROUP),
+                array.getAcl(appInstanceName(1)));
+        assertEquals(Collections.singletonList("/initiator_groups/" + INITIATOR_GROUP),
+                array.getAcl(appInstanceName(2)));
+
+        // the group already lists the host, only the ACL of the unassigned volume is changed
+        assertEquals(Collections.singletonList("PUT " + aclUri(appInstanceName(1))), array.getUpdates());
+    }
+
+    @Test
+    public void testGrantAccessToNoVolumes() {
+        assertTrue(driver.grantAccess(Collections.<DataObject>emptyList(), host, dataStore).isEmpty());
+        assertEquals(0, array.getRequestCount());
+    }
+
+    @Test
+    public void testRevokeAccessConfirmedWithOneListing() {
+        VolumeInfo first = volume(1);
+        VolumeInfo second = volume(2);
+        VolumeInfo unassigned = volume(3);
+
+        array.addAppInstance(appInstanceName(1), INITIATOR_GROUP);
+        array.addAppInstance(appInstanceName(2), INITIATOR_GROUP);
+        array.addAppInstance(appInstanceName(3));
+
+        Map<DataObject, Boolean> revoked = driver.revokeAccess(Arrays.<DataObject>asList(first, second, unassigned),
+                host, dataStore);
+
+        assertTrue(revoked.get(first));
+        assertTrue(revoked.get(second));
+        assertTrue(revoked.get(unassigned));
+
+        for (long volumeId = 1; volumeId <= 3; volumeId++) {
+            assertTrue(array.getAcl(appInstanceName(volumeId)).isEmpty());
+
+            // read once before the update, the removal is confirmed from the listing
+            assertEquals(1, array.count("GET " + aclUri(appInstanceName(volumeId))));
+        }
+
+        assertEquals(Arrays.asList("PUT " + aclUri(appInstanceName(1)), "PUT " + aclUri(appInstanceName(2))),
+                array.getUpdates());
+        assertEquals(1, array.count("GET /v2/app_instances"));
+    }
+
+    @Test
+    public void testRevokeAccessPollsEachAppInstanceWithoutAclsInListing() {
+        VolumeInfo first = volume(1);
+        VolumeInfo second = volume(2);
+
+        array.addAppInstance(appInstanceName(1), INITIATOR_GROUP);
+        array.addAppInstance(appInstanceName(2), INITIATOR_GROUP);
+        array.setAclStateReported(false);
+
+        Map<DataObject, Boolean> revoked = driver.revokeAccess(Arrays.<DataObject>asList(first, second), host,
+                dataStore);
+
+        assertTrue(revoked.get(first));
+        assertTrue(revoked.get(second));
+
+        // the listing leaves the ACLs out, so the removal is confirmed per app instance
+        assertEquals(1, array.count("GET /v2/app_instances"));
+
+        for (long volumeId = 1; volumeId <= 2; volumeId++) {
+            assertTrue(array.getAcl(appInstanceName(volumeId)).isEmpty());
+            assertEquals(2, array.count("GET " + aclUri(appInstanceName(volumeId))));
+        }
+    }
+
+    @Test
+    public void testRevokeAccessWithoutInitiatorGroup() {
+        VolumeInfo volume = volume(1);
+
+        array.removeInitiatorGroup(INITIATOR_GROUP);
+        array.addAppInstance(appInstanceName(1), "CS-InitiatorGroup-other");
+
+        // without the group of its cluster the host has no access to revoke
+        Map<DataObject, Boolean> revoked = driver.revokeAccess(Arrays.<DataObject>asList(volume, volume(2)), host,
+                dataStore);
+
+        assertEquals(2, revoked.size());
+        assertTrue(revoked.get(volume));
+        assertTrue(array.getUpdates().isEmpty());
+        assertEquals(Collections.singletonList("/initiator_groups/CS-InitiatorGroup-other"),
+                array.getAcl(appInstanceName(1)));
+    }
+
+    private static String aclUri(String appInstanceName) {
+        return "/v2/app_instances/" + appInstanceName + "/storage_instances/" + DateraObject.DEFAULT_STORAGE_NAME
+                + "/acl_policy/initiator_groups";
+    }
+
+    /**
+     * Initiators, initiator groups and app instance ACLs of one Datera
+     * cluster, answering the requests the access paths of the driver send
+     */
+    private static class FakeArray {
+
+        private final Gson gson = new Gson();
+
+        private final HttpServer server;
+        private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        private final Map<String, String> initiators = new LinkedHashMap<>();
+        private final Map<String, List<String>> initiatorGroups = new LinkedHashMap<>();
+        private final Map<String, List<String>> acls = new LinkedHashMap<>();
+
+        // whether storage instances carry their op_state and acl_policy, older releases leave them out
+        private volatile boolean aclStateReported = true;
+
+        private final List<String> requests = new ArrayList<>();
+
+        FakeArray() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/", this::handle);
+            server.setExecutor(executor);
+            server.start();
+        }
+
+        int getPort() {
+            return server.getAddress().getPort();
+        }
+
+        void stop() {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+
+        synchronized void addInitiator(String iqn) {
+            initiators.put(iqn, "/initiators/" + iqn);
+        }
+
+        synchronized void addInitiatorGroup(String name, String... iqns) {
+            List<String> members = new ArrayList<>();
+
+            for (String iqn : iqns) {
+                members.add(initiators.get(iqn));
+            }
+
+            initiatorGroups.put(name, members);
+        }
+
+        synchronized void removeInitiatorGroup(String name) {
+            initiatorGroups.remove(name);
+        }
+
+        synchronized void addAppInstance(String name, String... initiatorGroupNames) {
+            List<String> acl = new ArrayList<>();
+
+            for (String initiatorGroupName : initiatorGroupNames) {
+                acl.add("/initiator_groups/" + initiatorGroupName);
+            }
+
+            acls.put(name, acl);
+        }
+
+        void setAclStateReported(boolean aclStateReported) {
+            this.aclStateReported = aclStateReported;
+        }
+
+        synchronized List<String> getAcl(String appInstanceName) {
+            return new ArrayList<>(acls.get(appInstanceName));
+        }
+
+        synchronized int getRequestCount() {
+            return requests.size();
+        }
+
+        synchronized int count(String request) {
+            return Collections.frequency(requests, request);
+        }
+
+        /**
+         * @return every request changing the array, login aside, in the order received
+         */
+        synchronized List<String> getUpdates() {
+            List<String> updates = new ArrayList<>();
+
+            for (String request : requests) {
+                if (!request.startsWith("GET ") && !request.endsWith("/login")) {
+                    updates.add(request);
+                }
+            }
+
+            return updates;
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+
+            JsonObject body = null;
+
+            if (!"GET".equals(method)) {
+                body = gson.fromJson(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8),
+                        JsonObject.class);
+            }
+
+            Object response;
+
+            synchronized (this) {
+                requests.add(method + " " + path);
+                response = respond(method, path.substring("/v2/".length()).split("/"), body);
+            }
+
+            byte[] content = gson.toJson(response).getBytes(StandardCharsets.UTF_8);
+
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(response instanceof NotFound ? 404 : 200, content.length);
+
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(content);
+            }
+        }
+
+        private Object respond(String method, String[] path, JsonObject body) {
+            switch (path[0]) {
+            case "login":
+                return Collections.singletonMap("key", "session");
+
+            case "initiators":
+                Map<String, Object> initiatorListing = new LinkedHashMap<>();
+
+                for (Map.Entry<String, String> initiator : initiators.entrySet()) {
+                    initiatorListing.put(initiator.getKey(), toInitiator(initiator.getKey()));
+                }
+
+                return initiatorListing;
+
+            case "initiator_groups":
+                if (path.length == 1) {
+                    Map<String, Object> groupListing = new LinkedHashMap<>();
+
+                    for (String name : initiatorGroups.keySet()) {
+                        groupListing.put(name, toInitiatorGroup(name));
+                    }
+
+                    return groupListing;
+                }
+
+                return initiatorGroups.containsKey(path[1]) ? toInitiatorGroup(path[1]) : new NotFound();
+
+            case "app_instances":
+                if (path.length == 1) {
+                    Map<String, Object> appInstanceListing = new LinkedHashMap<>();
+
+                    for (String name : acls.keySet()) {
+                        appInstanceListing.put(name, toAppInstance(name));
+                    }
+
+                    return appInstanceListing;
+                }
+
+                List<String> acl = acls.get(path[1]);
+
+                if (acl == null) {
+                    return new NotFound();
+                }
+
+                if (path.length == 4) {
+                    return toStorageInstance(path[1]);
+                }
+
+                // storage_instances/storage-1/acl_policy/initiator_groups
+                if ("PUT".equals(method)) {
+                    String initiatorGroupPath = body.get("path").getAsString();
+
+                    if ("add".equals(body.get("op").getAsString())) {
+                        acl.add(initiatorGroupPath);
+                    } else {
+                        acl.remove(initiatorGroupPath);
+                    }
+
+                    return Collections.emptyMap();
+                }
+
+                Map<String, Object> assignedGroups = new LinkedHashMap<>();
+
+                for (String initiatorGroupPath : acl) {
+                    String name = initiatorGroupPath.substring(initiatorGroupPath.lastIndexOf('/') + 1);
+
+                    assignedGroups.put(name, toInitiatorGroup(name));
+                }
+
+                return assignedGroups;
+
+            default:
+                return new NotFound();
+            }
+        }
+
+        private Map<String, Object> toInitiator(String iqn) {
+            Map<String, Object> initiator = new LinkedHashMap<>();
+            initiator.put("id", iqn);
+            initiator.put("name", iqn);
+            initiator.put("path", initiators.get(iqn));
+
+            return initiator;
+        }
+
+        private Map<String, Object> toInitiatorGroup(String name) {
+            Map<String, Object> initiatorGroup = new LinkedHashMap<>();
+            initiatorGroup.put("name", name);
+            initiatorGroup.put("members", initiatorGroups.get(name));
+            initiatorGroup.put("path", "/initiator_groups/" + name);
+
+            return initiatorGroup;
+        }
+
+        private Map<String, Object> toStorageInstance(String appInstanceName) {
+            Map<String, Object> storageInstance = new LinkedHashMap<>();
+            storageInstance.put("name", DateraObject.DEFAULT_STORAGE_NAME);
+
+            if (aclStateReported) {
+                Map<String, Object> access = new LinkedHashMap<>();
+                access.put("iqn", "iqn.2013-05.com.daterainc:tc:01:" + appInstanceName);
+                access.put("ips", Collections.singletonList("172.28.41.9"));
+
+                storageInstance.put("op_state", DateraUtil.STATE_AVAILABLE);
+                storageInstance.put("access", access);
+                storageInstance.put("acl_policy", Collections.singletonMap("initiator_groups",
+                        new ArrayList<>(acls.get(appInstanceName))));
+            }
+
+            return storageInstance;
+        }
+
+        private Map<String, Object> toAppInstance(String name) {
+            Map<String, Object> appInstance = new LinkedHashMap<>();
+            appInstance.put("name", name);
+            appInstance.put("storage_instances", Collections.singletonMap(DateraObject.DEFAULT_STORAGE_NAME,
+                    toStorageInstance(name)));
+
+            return appInstance;
+        }
+
+        /**
+         * Error body of a missing resource
+         */
+        private static class NotFound {
+            final String name = "NotFoundError";
+            final int code = 404;
+            final String message = "Resource not found";
+        }
+    }
+}
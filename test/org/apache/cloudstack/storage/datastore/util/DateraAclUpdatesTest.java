@@ -0,0 +1,140 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.storage.datastore.util;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DateraAclUpdatesTest {
+
+    private static Map<Long, String> appInstanceNames(String... names) {
+        Map<Long, String> appInstanceNames = new LinkedHashMap<>();
+
+        for (int i = 0; i < names.length; i++) {
+            appInstanceNames.put((long) i, names[i]);
+        }
+
+        return appInstanceNames;
+    }
+
+    private static <T> CompletableFuture<T> failed(RuntimeException e) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
+    @Test
+    public void testResultsKeepVolumeOrder() {
+        Map<Long, String> appInstanceNames = appInstanceNames("CS-V-c", "CS-V-a", "CS-V-b");
+
+        DateraAclUpdates.Results<Long, String> results = DateraAclUpdates.run(appInstanceNames, 2,
+                appInstanceName -> CompletableFuture.completedFuture(appInstanceName + "-done"));
+
+        assertEquals(Arrays.asList(0L, 1L, 2L), new ArrayList<>(results.getValues().keySet()));
+        assertEquals("CS-V-c-done", results.getValues().get(0L));
+        assertEquals("CS-V-a-done", results.getValues().get(1L));
+        assertEquals("CS-V-b-done", results.getValues().get(2L));
+        assertTrue(results.getFailures().isEmpty());
+    }
+
+    @Test
+    public void testPartialFailureDoesNotStopTheOthers() {
+        Map<Long, String> appInstanceNames = appInstanceNames("CS-V-a", "CS-V-b", "CS-V-c", "CS-V-d");
+        CloudRuntimeException error = new CloudRuntimeException("ACL update failed");
+        AtomicInteger started = new AtomicInteger();
+
+        DateraAclUpdates.Results<Long, Boolean> results = DateraAclUpdates.run(appInstanceNames, 1,
+                appInstanceName -> {
+                    started.incrementAndGet();
+
+                    return "CS-V-b".equals(appInstanceName) ? failed(error)
+                            : CompletableFuture.completedFuture(true);
+                });
+
+        assertEquals(4, started.get());
+
+        assertTrue(results.isSuccess(0L));
+        assertFalse(results.isSuccess(1L));
+        assertTrue(results.isSuccess(2L));
+        assertTrue(results.isSuccess(3L));
+
+        assertEquals(1, results.getFailures().size());
+        assertSame(error, results.getFailures().get(1L));
+        assertFalse(results.getValues().containsKey(1L));
+    }
+
+    @Test
+    public void testMapValuesKeepsFailures() {
+        Map<Long, String> appInstanceNames = appInstanceNames("CS-V-a", "CS-V-b", "CS-V-c");
+        CloudRuntimeException error = new CloudRuntimeException("ACL update failed");
+
+        DateraAclUpdates.Results<Long, Boolean> removed = DateraAclUpdates.run(appInstanceNames, 3,
+                appInstanceName -> "CS-V-c".equals(appInstanceName) ? failed(error)
+                        : CompletableFuture.completedFuture(true));
+
+        // CS-V-b still lists the group once the time is up
+        DateraAclUpdates.Results<Long, Boolean> revoked = removed.mapValues(
+                (volumeId, wasRemoved) -> !"CS-V-b".equals(appInstanceNames.get(volumeId)));
+
+        assertEquals(Boolean.TRUE, revoked.getValues().get(0L));
+        assertEquals(Boolean.FALSE, revoked.getValues().get(1L));
+        assertFalse(revoked.isSuccess(2L));
+        assertSame(error, revoked.getFailures().get(2L));
+    }
+
+    @Test
+    public void testLocksAreTakenOnceInNameOrder() {
+        List<String> taken = new ArrayList<>();
+
+        List<String> locks = DateraAclUpdates.lockInOrder(
+                Arrays.asList("CS-V-c", "CS-V-a", "CS-V-b", "CS-V-a"), appInstanceName -> {
+                    taken.add(appInstanceName);
+                    return "lock-" + appInstanceName;
+                });
+
+        assertEquals(Arrays.asList("CS-V-a", "CS-V-b", "CS-V-c"), taken);
+        assertEquals(Arrays.asList("lock-CS-V-a", "lock-CS-V-b", "lock-CS-V-c"), locks);
+    }
+
+    @Test
+    public void testOverlappingBatchesLockInTheSameOrder() {
+        List<String> first = DateraAclUpdates.lockInOrder(Arrays.asList("CS-V-b", "CS-V-a", "CS-V-c"),
+                appInstanceName -> appInstanceName);
+        List<String> second = DateraAclUpdates.lockInOrder(Arrays.asList("CS-V-c", "CS-V-b"),
+                appInstanceName -> appInstanceName);
+
+        // the app instances both batches lock come in the same relative order
+        List<String> shared = new ArrayList<>(first);
+        shared.retainAll(second);
+
+        assertEquals(second, shared);
+    }
+}
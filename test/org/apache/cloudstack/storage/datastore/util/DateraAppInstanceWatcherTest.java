@@ -0,0 +1,112 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.storage.datastore.util;
+
+import com.google.gson.stream.JsonReader;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DateraAppInstanceWatcherTest {
+
+    private final DateraObject.DateraConnection conn = new DateraObject.DateraConnection("10.0.0.1", 7717, "admin",
+            "password");
+
+    @Test
+    public void testCompletesOnceAvailable() throws Exception {
+        AtomicInteger listings = new AtomicInteger();
+
+        DateraAppInstanceWatcher watcher = new DateraAppInstanceWatcher(conn,
+                c -> listing(appInstance("CS-1", listings.incrementAndGet() < 3 ? "unavailable" : "available")),
+                10000);
+
+        DateraObject.AppInstance appInstance = watcher.register(conn, "CS-1").get(10, TimeUnit.SECONDS);
+
+        assertEquals("available", appInstance.getVolumeOpState());
+        assertEquals(3, listings.get());
+    }
+
+    @Test
+    public void testWaiterTimesOut() throws Exception {
+        DateraAppInstanceWatcher watcher = new DateraAppInstanceWatcher(conn,
+                c -> listing(appInstance("CS-1", "unavailable")), 300);
+
+        long start = System.currentTimeMillis();
+
+        DateraObject.AppInstance appInstance = watcher.register(conn, "CS-1").get(10, TimeUnit.SECONDS);
+
+        // the last state seen is handed back once the time is up
+        assertEquals("unavailable", appInstance.getVolumeOpState());
+        assertTrue(System.currentTimeMillis() - start >= 300);
+    }
+
+    @Test
+    public void testMissingAppInstanceCompletesWithNull() throws Exception {
+        DateraAppInstanceWatcher watcher = new DateraAppInstanceWatcher(conn,
+                c -> listing(appInstance("CS-2", "available")), 10000);
+
+        assertNull(watcher.register(conn, "CS-1").get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testListingErrorFailsWaiters() throws Exception {
+        DateraObject.DateraError error = new DateraObject.DateraError("InternalError", 500, null, "failed");
+
+        DateraAppInstanceWatcher watcher = new DateraAppInstanceWatcher(conn, c -> {
+            throw error;
+        }, 10000);
+
+        try {
+            watcher.register(conn, "CS-1").get(10, TimeUnit.SECONDS);
+            fail("waiter should fail with the listing");
+        } catch (ExecutionException e) {
+            assertSame(error, e.getCause());
+        }
+    }
+
+    private static String appInstance(String name, String opState) {
+        return "\"" + name + "\":{\"name\":\"" + name + "\",\"storage_instances\":{\"storage-1\":{"
+                + "\"volumes\":{\"volume-1\":{\"size\":10,\"op_state\":\"" + opState + "\"}}}}}";
+    }
+
+    private static DateraListIterator<DateraObject.AppInstance> listing(String... appInstances) {
+        CloseableHttpResponse response = (CloseableHttpResponse) Proxy.newProxyInstance(
+                DateraAppInstanceWatcherTest.class.getClassLoader(), new Class<?>[] {CloseableHttpResponse.class},
+                (proxy, method, args) -> null);
+
+        try {
+            return new DateraListIterator<>(response,
+                    new JsonReader(new StringReader("{" + String.join(",", appInstances) + "}")),
+                    DateraUtil.getGson(), DateraObject.AppInstance.class);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.storage.datastore.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DateraAsyncClientTest {
+
+    @Test
+    public void testRunBoundedLimitsOutstandingOperations() {
+        Map<Integer, CompletableFuture<Integer>> started = new HashMap<>();
+        AtomicInteger outstanding = new AtomicInteger();
+        AtomicInteger maxOutstanding = new AtomicInteger();
+
+        List<Integer> items = Arrays.asList(1, 2, 3, 4, 5, 6, 7);
+
+        Map<Integer, CompletableFuture<Integer>> results = DateraAsyncClient.runBounded(items, 3, item -> {
+            maxOutstanding.accumulateAndGet(outstanding.incrementAndGet(), Math::max);
+
+            CompletableFuture<Integer> operation = new CompletableFuture<>();
+            started.put(item, operation);
+
+            return operation.whenComplete((value, throwable) -> outstanding.decrementAndGet());
+        });
+
+        assertEquals(new ArrayList<>(items), new ArrayList<>(results.keySet()));
+        assertEquals(3, started.size());
+
+        // completing one operation starts the next item
+        for (int item : items) {
+            started.get(item).complete(item * 10);
+        }
+
+        assertEquals(3, maxOutstanding.get());
+
+        for (int item : items) {
+            assertEquals(item * 10, (int) results.get(item).join());
+        }
+    }
+
+    @Test
+    public void testRunBoundedContinuesAfterFailure() {
+        List<Integer> items = Arrays.asList(1, 2, 3, 4);
+
+        Map<Integer, CompletableFuture<Integer>> results = DateraAsyncClient.runBounded(items, 1, item -> {
+            if (item == 2) {
+                return DateraAsyncClient.failedFuture(new IllegalStateException("failed " + item));
+            }
+
+            if (item == 3) {
+                throw new IllegalStateException("thrown " + item);
+            }
+
+            return CompletableFuture.completedFuture(item);
+        });
+
+        assertEquals(1, (int) results.get(1).join());
+        assertTrue(results.get(2).isCompletedExceptionally());
+        assertTrue(results.get(3).isCompletedExceptionally());
+        assertFalse(results.get(4).isCompletedExceptionally());
+        assertEquals(4, (int) results.get(4).join());
+    }
+
+    @Test
+    public void testRunBoundedWithNoItems() {
+        assertTrue(DateraAsyncClient.runBounded(new ArrayList<Integer>(), 4,
+                CompletableFuture::completedFuture).isEmpty());
+    }
+}
@@ -0,0 +1,227 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.storage.datastore.util;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DateraBulkheadTest {
+
+    @Test
+    public void testAcquireTimesOut() {
+        DateraBulkhead bulkhead = new DateraBulkhead("test", 1, 4);
+
+        bulkhead.acquire(1000);
+
+        try {
+            bulkhead.acquire(50);
+            fail("acquire should time out while the only slot is taken");
+        } catch (CloudRuntimeException e) {
+            // expected
+        }
+
+        assertEquals(0, bulkhead.getQueueDepth());
+
+        bulkhead.release(10, false);
+
+        assertEquals(0, bulkhead.getInFlight());
+    }
+
+    @Test
+    public void testGrantRacingTimeoutKeepsCount() throws Exception {
+        DateraBulkhead bulkhead = new DateraBulkhead("test", 1, 4);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            for (int i = 0; i < 200; i++) {
+                bulkhead.acquire(1000);
+
+                CountDownLatch waiting = new CountDownLatch(1);
+
+                CompletableFuture<Boolean> acquired = CompletableFuture.supplyAsync(() -> {
+                    waiting.countDown();
+
+                    try {
+                        bulkhead.acquire(5);
+                        return true;
+                    } catch (CloudRuntimeException e) {
+                        return false;
+                    }
+                }, executor);
+
+                // hand the slot over around the time the waiter gives up
+                waiting.await();
+                Thread.sleep(i % 10);
+                bulkhead.release(1, false);
+
+                if (acquired.get(5, TimeUnit.SECONDS)) {
+                    bulkhead.release(1, false);
+                }
+
+                assertEquals("slot leaked in round " + i, 0, bulkhead.getInFlight());
+                assertEquals(0, bulkhead.getQueueDepth());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testQueueFullRejects() {
+        DateraBulkhead bulkhead = new DateraBulkhead("test", 1, 1);
+
+        assertTrue(bulkhead.acquireAsync().isDone());
+
+        CompletableFuture<Void> queued = bulkhead.acquireAsync();
+        CompletableFuture<Void> rejected = bulkhead.acquireAsync();
+
+        assertFalse(queued.isDone());
+        assertTrue(rejected.isCompletedExceptionally());
+        assertEquals(1, bulkhead.getRejectedRequests());
+
+        bulkhead.release(10, false);
+
+        assertTrue(queued.isDone());
+        assertEquals(1, bulkhead.getInFlight());
+    }
+
+    @Test
+    public void testLimitShrinksAndRecovers() {
+        DateraBulkhead bulkhead = new DateraBulkhead("test", 8, 16);
+
+        bulkhead.acquireAsync();
+        bulkhead.release(10, true);
+
+        assertEquals(4, bulkhead.getLimit());
+
+        // backs off at most once per interval
+        bulkhead.acquireAsync();
+        bulkhead.release(10, true);
+
+        assertEquals(4, bulkhead.getLimit());
+
+        int rounds = 0;
+
+        while (bulkhead.getLimit() < 8 && rounds++ < 100) {
+            bulkhead.acquireAsync();
+            bulkhead.release(10, false);
+        }
+
+        assertEquals(8, bulkhead.getLimit());
+
+        // never grows past the maximum
+        bulkhead.acquireAsync();
+        bulkhead.release(10, false);
+
+        assertEquals(8, bulkhead.getLimit());
+    }
+
+    @Test
+    public void testShrunkLimitQueuesRequests() {
+        DateraBulkhead bulkhead = new DateraBulkhead("test", 2, 16);
+
+        bulkhead.acquireAsync();
+        bulkhead.release(10, true);
+
+        assertEquals(1, bulkhead.getLimit());
+        assertTrue(bulkhead.acquireAsync().isDone());
+        assertFalse(bulkhead.acquireAsync().isDone());
+    }
+
+    @Test
+    public void testSetMaxLimitGrantsWaiters() {
+        DateraBulkhead bulkhead = new DateraBulkhead("test", 1, 16);
+
+        bulkhead.acquireAsync();
+
+        CompletableFuture<Void> queued = bulkhead.acquireAsync();
+
+        bulkhead.setMaxLimit(2);
+
+        assertTrue(queued.isDone());
+        assertEquals(2, bulkhead.getLimit());
+        assertEquals(2, bulkhead.getInFlight());
+    }
+
+    private static class ClosingResponse extends BasicHttpResponse implements CloseableHttpResponse {
+
+        private int closed;
+
+        ClosingResponse(int statusCode) {
+            super(HttpVersion.HTTP_1_1, statusCode, null);
+        }
+
+        @Override
+        public void close() {
+            closed++;
+        }
+    }
+
+    @Test
+    public void testResponseHoldsPermitUntilClosed() throws Exception {
+        DateraBulkhead bulkhead = new DateraBulkhead("test", 1, 16);
+
+        bulkhead.acquire(1000);
+
+        ClosingResponse httpResponse = new ClosingResponse(200);
+        DateraBulkheadResponse response = new DateraBulkheadResponse(httpResponse, bulkhead,
+                System.currentTimeMillis(), false);
+
+        // the body is still being read
+        assertEquals(1, bulkhead.getInFlight());
+        assertFalse(bulkhead.acquireAsync().isDone());
+
+        response.close();
+        response.close();
+
+        assertEquals(2, httpResponse.closed);
+        // the queued request got the only permit, a second close did not hand back another one
+        assertEquals(1, bulkhead.getInFlight());
+    }
+
+    @Test
+    public void testOverloadedResponseShrinksLimitOnClose() throws Exception {
+        DateraBulkhead bulkhead = new DateraBulkhead("test", 4, 16);
+
+        bulkhead.acquire(1000);
+
+        DateraBulkheadResponse response = new DateraBulkheadResponse(new ClosingResponse(503), bulkhead,
+                System.currentTimeMillis(), true);
+
+        assertEquals(4, bulkhead.getLimit());
+
+        response.close();
+
+        assertEquals(2, bulkhead.getLimit());
+        assertEquals(0, bulkhead.getInFlight());
+    }
+}
@@ -0,0 +1,120 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.storage.datastore.util;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import org.junit.Test;
+
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class DateraObjectTypeAdaptersTest {
+
+    private static final Type APP_INSTANCES_TYPE = new TypeToken<Map<String, DateraObject.AppInstance>>() {
+    }.getType();
+
+    private final Gson gson = DateraUtil.getGson();
+    private final Gson reflectiveGson = new GsonBuilder().create();
+
+    @Test
+    public void testAppInstanceRoundTrip() {
+        DateraObject.AppInstance appInstance = new DateraObject.AppInstance("CS-test", 100, 1000, 3, "hybrid",
+                "default");
+        appInstance.adminState = "online";
+
+        DateraObject.AppInstance decoded = gson.fromJson(gson.toJson(appInstance), DateraObject.AppInstance.class);
+
+        assertEquals("CS-test", decoded.getName());
+        assertEquals("online", decoded.adminState);
+        assertEquals(100, decoded.getSize());
+        assertEquals(1000, decoded.getTotalIops());
+        assertEquals("hybrid", decoded.getStorageInstance().getVolume().getPlacementMode());
+    }
+
+    @Test
+    public void testInitiatorGroupRoundTrip() {
+        DateraObject.InitiatorGroup group = new DateraObject.InitiatorGroup("CS-InitiatorGroup-1",
+                Arrays.asList("/initiators/iqn.1", "/initiators/iqn.2"));
+
+        DateraObject.InitiatorGroup decoded = gson.fromJson(gson.toJson(group), DateraObject.InitiatorGroup.class);
+
+        assertEquals("CS-InitiatorGroup-1", decoded.getName());
+        assertEquals(group.getMembers(), decoded.getMembers());
+        assertNull(decoded.getPath());
+    }
+
+    @Test
+    public void testWriteMatchesReflectiveBinding() {
+        DateraObject.AppInstance appInstance = new DateraObject.AppInstance("CS-test", 100, 1000, 3, "hybrid",
+                "default");
+        DateraObject.InitiatorGroup group = new DateraObject.InitiatorGroup("/initiator_groups/CS-InitiatorGroup-1",
+                DateraObject.DateraOperation.ADD);
+
+        assertEquals(reflectiveGson.toJson(appInstance), gson.toJson(appInstance));
+        assertEquals(reflectiveGson.toJson(group), gson.toJson(group));
+        assertEquals(reflectiveGson.toJson(new DateraObject.Volume(200)), gson.toJson(new DateraObject.Volume(200)));
+    }
+
+    @Test
+    public void testReadListingSkipsUnknownFields() {
+        String json = "{\"CS-test\":{\"name\":\"CS-test\",\"id\":\"CS-test-id\",\"descr\":\"\","
+                + "\"admin_state\":\"offline\",\"storage_instances\":{\"storage-1\":{\"name\":\"storage-1\","
+                + "\"op_state\":\"available\",\"access\":{\"iqn\":\"iqn.2013-05.com.daterainc:tc:01\","
+                + "\"ips\":[\"172.28.41.9\"],\"path\":\"/access\"},"
+                + "\"acl_policy\":{\"initiators\":[],\"initiator_groups\":[\"/initiator_groups/CS-1\"]},"
+                + "\"volumes\":{\"volume-1\":{\"name\":\"volume-1\",\"size\":100,\"capacity_in_use\":12,"
+                + "\"op_state\":\"available\",\"path\":\"/volume-1\",\"snapshots\":{},"
+                + "\"performance_policy\":{\"total_iops_max\":1000,\"read_iops_max\":0}}}}}}}";
+
+        Map<String, DateraObject.AppInstance> appInstances = gson.fromJson(json, APP_INSTANCES_TYPE);
+        DateraObject.AppInstance appInstance = appInstances.get("CS-test");
+        DateraObject.StorageInstance storageInstance = appInstance.getStorageInstance();
+
+        assertEquals("offline", appInstance.adminState);
+        assertEquals("iqn.2013-05.com.daterainc:tc:01", appInstance.getIqn());
+        assertEquals(Collections.singletonList("172.28.41.9"), storageInstance.getAccess().getIps());
+        assertEquals("available", storageInstance.getOpState());
+        assertEquals(Collections.singletonList("/initiator_groups/CS-1"),
+                storageInstance.getAclPolicy().getInitiatorGroups());
+        assertEquals(100, appInstance.getSize());
+        assertEquals(1000, appInstance.getTotalIops());
+        assertEquals("/volume-1", appInstance.getVolumePath());
+        assertEquals("available", appInstance.getVolumeOpState());
+    }
+
+    @Test
+    public void testReadNulls() {
+        String json = "{\"name\":null,\"storage_instances\":{\"storage-1\":{\"access\":null,\"acl_policy\":null,"
+                + "\"volumes\":{\"volume-1\":{\"size\":10,\"performance_policy\":null}}}}}";
+
+        DateraObject.AppInstance appInstance = gson.fromJson(json, DateraObject.AppInstance.class);
+
+        assertNull(appInstance.getName());
+        assertNull(appInstance.getStorageInstance().getAccess());
+        assertNull(appInstance.getStorageInstance().getAclPolicy());
+        assertEquals(0, appInstance.getTotalIops());
+        assertNull(gson.fromJson("null", DateraObject.AppInstance.class));
+    }
+}
@@ -0,0 +1,87 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.storage.datastore.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DateraPollerTest {
+
+    @Test
+    public void testPollsUntilDone() throws Exception {
+        AtomicInteger checks = new AtomicInteger();
+
+        CompletableFuture<Integer> poll = DateraPoller.poll(
+                () -> CompletableFuture.completedFuture(checks.incrementAndGet()), count -> count == 3, 10000);
+
+        assertEquals(3, (int) poll.get(10, TimeUnit.SECONDS));
+        assertEquals(3, checks.get());
+    }
+
+    @Test
+    public void testTimeoutReturnsLastResult() throws Exception {
+        AtomicInteger checks = new AtomicInteger();
+
+        long start = System.currentTimeMillis();
+
+        CompletableFuture<Integer> poll = DateraPoller.poll(
+                () -> CompletableFuture.completedFuture(checks.incrementAndGet()), count -> false, 300);
+
+        int last = poll.get(10, TimeUnit.SECONDS);
+
+        assertEquals(checks.get(), last);
+        assertTrue(System.currentTimeMillis() - start >= 300);
+    }
+
+    @Test
+    public void testFailedCheckFailsPoll() throws Exception {
+        DateraObject.DateraError error = new DateraObject.DateraError("NotFoundError", 404, null, "gone");
+
+        CompletableFuture<Object> poll = DateraPoller.poll(() -> DateraAsyncClient.failedFuture(error),
+                value -> true, 10000);
+
+        try {
+            DateraPoller.await(poll);
+            fail("poll should fail with the check");
+        } catch (DateraObject.DateraError e) {
+            assertSame(error, e);
+        }
+    }
+
+    @Test
+    public void testThrowingCheckFailsPoll() {
+        CompletableFuture<Object> poll = DateraPoller.poll(() -> {
+            throw new IllegalStateException("broken check");
+        }, value -> true, 10000);
+
+        try {
+            DateraPoller.await(poll);
+            fail("poll should fail with the check");
+        } catch (IllegalStateException | DateraObject.DateraError e) {
+            assertEquals("broken check", e.getMessage());
+        }
+    }
+}
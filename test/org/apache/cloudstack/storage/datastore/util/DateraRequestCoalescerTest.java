@@ -0,0 +1,149 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.storage.datastore.util;
+
+import org.apache.http.client.methods.HttpPut;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DateraRequestCoalescerTest {
+
+    private final DateraObject.DateraConnection conn = new DateraObject.DateraConnection("10.0.0.1", 7717, "admin",
+            "password");
+
+    @Test
+    public void testFollowersShareResult() {
+        CompletableFuture<String> exchange = new CompletableFuture<>();
+        AtomicInteger sent = new AtomicInteger();
+
+        List<CompletableFuture<String>> results = new ArrayList<>();
+
+        for (int i = 0; i < 3; i++) {
+            results.add(DateraRequestCoalescer.coalesceAsync(conn, "/v2/app_instances/shared", String.class, () -> {
+                sent.incrementAndGet();
+                return exchange;
+            }));
+        }
+
+        exchange.complete("app-instance");
+
+        assertEquals(1, sent.get());
+
+        for (CompletableFuture<String> result : results) {
+            assertEquals("app-instance", result.join());
+        }
+    }
+
+    @Test
+    public void testFollowersFailWithLeader() {
+        CompletableFuture<String> exchange = new CompletableFuture<>();
+        DateraObject.DateraError error = new DateraObject.DateraError("InternalError", 500, null, "failed");
+
+        List<CompletableFuture<String>> results = new ArrayList<>();
+
+        for (int i = 0; i < 3; i++) {
+            results.add(DateraRequestCoalescer.coalesceAsync(conn, "/v2/app_instances/failing", String.class,
+                    () -> exchange));
+        }
+
+        exchange.completeExceptionally(error);
+
+        for (CompletableFuture<String> result : results) {
+            try {
+                result.join();
+                fail("follower should fail with the leader");
+            } catch (CompletionException e) {
+                assertSame(error, e.getCause());
+            }
+        }
+
+        // the failed exchange is not shared with later requests
+        CompletableFuture<String> retry = DateraRequestCoalescer.coalesceAsync(conn, "/v2/app_instances/failing",
+                String.class, () -> CompletableFuture.completedFuture("retried"));
+
+        assertEquals("retried", retry.join());
+    }
+
+    @Test
+    public void testSyncFollowerFailsWithLeader() throws Exception {
+        DateraObject.DateraError error = new DateraObject.DateraError("InternalError", 500, null, "failed");
+        CompletableFuture<String> exchange = new CompletableFuture<>();
+
+        CompletableFuture<String> leader = DateraRequestCoalescer.coalesceAsync(conn, "/v2/app_instances/sync",
+                String.class, () -> exchange);
+
+        CompletableFuture<Throwable> follower = CompletableFuture.supplyAsync(() -> {
+            try {
+                DateraRequestCoalescer.coalesce(conn, "/v2/app_instances/sync", String.class, () -> "own request");
+                return null;
+            } catch (DateraObject.DateraError e) {
+                return e;
+            }
+        });
+
+        // wait for the follower to block on the shared exchange
+        Thread.sleep(100);
+        exchange.completeExceptionally(error);
+
+        assertTrue(leader.isCompletedExceptionally());
+        assertSame(error, follower.get());
+    }
+
+    @Test
+    public void testWriteDetachesInFlightGets() {
+        CompletableFuture<String> exchange = new CompletableFuture<>();
+
+        CompletableFuture<String> before = DateraRequestCoalescer.coalesceAsync(conn, "/v2/app_instances/written",
+                String.class, () -> exchange);
+
+        DateraRequestCoalescer.evict(conn, new HttpPut("/v2/app_instances/written/storage_instances/storage-1"));
+
+        CompletableFuture<String> after = DateraRequestCoalescer.coalesceAsync(conn, "/v2/app_instances/written",
+                String.class, () -> CompletableFuture.completedFuture("fresh"));
+
+        exchange.complete("stale");
+
+        assertEquals("stale", before.join());
+        assertEquals("fresh", after.join());
+    }
+
+    @Test
+    public void testWriteKeepsUnrelatedGets() {
+        CompletableFuture<String> exchange = new CompletableFuture<>();
+
+        DateraRequestCoalescer.coalesceAsync(conn, "/v2/app_instances/other", String.class, () -> exchange);
+        DateraRequestCoalescer.evict(conn, new HttpPut("/v2/app_instances/other-2"));
+
+        CompletableFuture<String> joined = DateraRequestCoalescer.coalesceAsync(conn, "/v2/app_instances/other",
+                String.class, () -> CompletableFuture.completedFuture("own request"));
+
+        exchange.complete("shared");
+
+        assertEquals("shared", joined.join());
+    }
+}
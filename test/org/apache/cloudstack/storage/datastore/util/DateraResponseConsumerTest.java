@@ -0,0 +1,229 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.storage.datastore.util;
+
+import com.google.gson.reflect.TypeToken;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.protocol.BasicHttpContext;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DateraResponseConsumerTest {
+
+    private static final Type LIST_TYPE = new TypeToken<List<String>>() {
+    }.getType();
+
+    private final ExecutorService decodePool = Executors.newFixedThreadPool(2);
+    private final ExecutorService streamPool = Executors.newFixedThreadPool(2);
+
+    private final AtomicInteger decodeTasks = new AtomicInteger();
+    private final AtomicInteger streamTasks = new AtomicInteger();
+
+    private final Executor decodeExecutor = task -> {
+        decodeTasks.incrementAndGet();
+        decodePool.execute(task);
+    };
+
+    private final Executor streamExecutor = task -> {
+        streamTasks.incrementAndGet();
+        streamPool.execute(task);
+    };
+
+    @After
+    public void tearDown() {
+        decodePool.shutdownNow();
+        streamPool.shutdownNow();
+    }
+
+    /**
+     * Hands a body to the consumer the way the I/O reactor does, stopping
+     * while input is suspended
+     */
+    private static class Body implements ContentDecoder, IOControl {
+
+        private final byte[] content;
+        private int position;
+
+        private final Semaphore input = new Semaphore(0);
+        private volatile boolean suspended;
+
+        Body(byte[] content) {
+            this.content = content;
+        }
+
+        @Override
+        public synchronized int read(ByteBuffer dst) {
+            if (position >= content.length) {
+                return -1;
+            }
+
+            int read = Math.min(dst.remaining(), content.length - position);
+            dst.put(content, position, read);
+            position += read;
+
+            return read;
+        }
+
+        @Override
+        public synchronized boolean isCompleted() {
+            return position >= content.length;
+        }
+
+        @Override
+        public void suspendInput() {
+            suspended = true;
+        }
+
+        @Override
+        public void requestInput() {
+            suspended = false;
+            input.release();
+        }
+
+        @Override
+        public void requestOutput() {
+        }
+
+        @Override
+        public void suspendOutput() {
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        void feed(DateraResponseConsumer<?> consumer) throws Exception {
+            while (!isCompleted()) {
+                consumer.consumeContent(this, this);
+
+                while (suspended) {
+                    assertTrue("input was not requested again", input.tryAcquire(5, TimeUnit.SECONDS));
+                }
+            }
+
+            consumer.responseCompleted(new BasicHttpContext());
+        }
+    }
+
+    private static byte[] listing(int entries) {
+        StringBuilder json = new StringBuilder("[");
+
+        for (int i = 0; i < entries; i++) {
+            json.append(i > 0 ? "," : "").append("\"CS-V-").append(i).append("\"");
+        }
+
+        return json.append("]").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private DateraResponseConsumer<List<String>> receive(byte[] content, boolean contentLength) throws Exception {
+        DateraResponseConsumer<List<String>> consumer = new DateraResponseConsumer<>(LIST_TYPE, decodeExecutor,
+                streamExecutor);
+
+        BasicHttpEntity entity = new BasicHttpEntity();
+        entity.setContent(new ByteArrayInputStream(content));
+        entity.setContentType("application/json");
+        entity.setContentLength(contentLength ? content.length : -1);
+
+        BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.setEntity(entity);
+
+        consumer.responseReceived(response);
+
+        return consumer;
+    }
+
+    @Test
+    public void testInitialCapacityFollowsContentLength() {
+        assertEquals(DateraResponseConsumer.INITIAL_BUFFER_SIZE, DateraResponseConsumer.getInitialCapacity(-1));
+        assertEquals(1, DateraResponseConsumer.getInitialCapacity(0));
+        assertEquals(1201, DateraResponseConsumer.getInitialCapacity(1200));
+        assertEquals(DateraResponseConsumer.BUFFER_SIZE,
+                DateraResponseConsumer.getInitialCapacity(10L * DateraResponseConsumer.BUFFER_SIZE));
+    }
+
+    @Test
+    public void testSmallBodyIsDecodedOnceComplete() throws Exception {
+        byte[] content = listing(100);
+        DateraResponseConsumer<List<String>> consumer = receive(content, true);
+
+        assertEquals(content.length + 1, consumer.getBufferCapacity());
+
+        new Body(content).feed(consumer);
+
+        List<String> decoded = consumer.getDecoded().get(5, TimeUnit.SECONDS);
+
+        assertEquals(100, decoded.size());
+        assertEquals("CS-V-99", decoded.get(99));
+        assertEquals(1, decodeTasks.get());
+        assertEquals(0, streamTasks.get());
+    }
+
+    @Test
+    public void testBufferGrowsForBodyOfUnknownLength() throws Exception {
+        byte[] content = listing(2000);
+        DateraResponseConsumer<List<String>> consumer = receive(content, false);
+
+        assertEquals(DateraResponseConsumer.INITIAL_BUFFER_SIZE, consumer.getBufferCapacity());
+        assertTrue(content.length > DateraResponseConsumer.INITIAL_BUFFER_SIZE);
+        assertTrue(content.length < DateraResponseConsumer.BUFFER_SIZE);
+
+        new Body(content).feed(consumer);
+
+        assertEquals(2000, consumer.getDecoded().get(5, TimeUnit.SECONDS).size());
+        assertTrue(consumer.getBufferCapacity() > content.length);
+        assertEquals(0, streamTasks.get());
+    }
+
+    @Test
+    public void testLargeBodyIsStreamedOffTheDecodeExecutor() throws Exception {
+        byte[] content = listing(50000);
+        DateraResponseConsumer<List<String>> consumer = receive(content, true);
+
+        assertTrue(content.length > 4 * DateraResponseConsumer.BUFFER_SIZE);
+        assertEquals(DateraResponseConsumer.BUFFER_SIZE, consumer.getBufferCapacity());
+
+        new Body(content).feed(consumer);
+
+        List<String> decoded = consumer.getDecoded().get(5, TimeUnit.SECONDS);
+
+        assertEquals(50000, decoded.size());
+        assertEquals("CS-V-49999", decoded.get(49999));
+        // decoded on the stream executor, completed on the decode executor
+        assertEquals(1, streamTasks.get());
+        assertEquals(1, decodeTasks.get());
+    }
+}
@@ -0,0 +1,73 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.storage.datastore.util;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.junit.Test;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DateraRetryPolicyTest {
+
+    private final DateraRetryPolicy policy = DateraRetryPolicy.getDefault();
+
+    @Test
+    public void testIsIdempotent() {
+        assertTrue(DateraRetryPolicy.isIdempotent(new HttpGet("/v2/app_instances")));
+        assertTrue(DateraRetryPolicy.isIdempotent(new HttpPut("/v2/app_instances/CS-1")));
+        assertTrue(DateraRetryPolicy.isIdempotent(new HttpPut("/v2/initiator_groups/CS-InitiatorGroup-1")));
+        assertFalse(DateraRetryPolicy.isIdempotent(new HttpPost("/v2/app_instances")));
+        assertFalse(DateraRetryPolicy.isIdempotent(new HttpDelete("/v2/app_instances/CS-1")));
+    }
+
+    @Test
+    public void testRelativeUpdatesAreNotIdempotent() {
+        assertFalse(DateraRetryPolicy.isIdempotent(new HttpPut("/v2/initiator_groups/CS-InitiatorGroup-1/members")));
+        assertFalse(DateraRetryPolicy.isIdempotent(new HttpPut(
+                "/v2/app_instances/CS-1/storage_instances/storage-1/acl_policy/initiator_groups")));
+    }
+
+    @Test
+    public void testNonIdempotentOnlyRetriedIfNotSent() {
+        CloudRuntimeException readTimeout = new CloudRuntimeException("read timed out",
+                new SocketTimeoutException("Read timed out"));
+        CloudRuntimeException refused = new CloudRuntimeException("refused", new ConnectException("refused"));
+
+        assertTrue(policy.isRetryable(readTimeout, true));
+        assertFalse(policy.isRetryable(readTimeout, false));
+        assertTrue(policy.isRetryable(refused, false));
+    }
+
+    @Test
+    public void testServerErrorsOnlyRetriedIfIdempotent() {
+        DateraObject.DateraError internal = new DateraObject.DateraError("InternalError", 500, null, "failed");
+        DateraObject.DateraError rejected = new DateraObject.DateraError("ServiceUnavailable", 503, null, "busy");
+
+        assertTrue(policy.isRetryable(internal, true));
+        assertFalse(policy.isRetryable(internal, false));
+        assertTrue(policy.isRetryable(rejected, false));
+    }
+}
@@ -0,0 +1,128 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.storage.datastore.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DateraSessionManagerTest {
+
+    private final DateraObject.DateraConnection conn = new DateraObject.DateraConnection("10.0.0.1", 7717, "admin",
+            "password");
+
+    private final DateraSessionManager.Session session = new DateraSessionManager.Session();
+    private final List<CompletableFuture<String>> logins = new ArrayList<>();
+
+    private CompletableFuture<String> acquire() {
+        return session.acquire(conn, () -> {
+            CompletableFuture<String> login = new CompletableFuture<>();
+            logins.add(login);
+            return login;
+        });
+    }
+
+    @Test
+    public void testConcurrentCallersShareLogin() {
+        CompletableFuture<String> first = acquire();
+        CompletableFuture<String> second = acquire();
+
+        assertEquals(1, logins.size());
+
+        logins.get(0).complete("token-1");
+
+        assertEquals("token-1", first.join());
+        assertEquals("token-1", second.join());
+
+        // cached from now on
+        assertEquals("token-1", acquire().join());
+        assertEquals(1, logins.size());
+    }
+
+    @Test
+    public void testLoginRacedByInvalidate() {
+        acquire();
+        logins.get(0).complete("token-1");
+
+        // the array rejects token-1, one caller logs in again
+        session.invalidate("token-1");
+        CompletableFuture<String> relogin = acquire();
+
+        // a second caller holding token-1 reports it while the login is in flight
+        session.invalidate("token-1");
+        CompletableFuture<String> joined = acquire();
+
+        assertEquals(2, logins.size());
+
+        logins.get(1).complete("token-2");
+
+        assertEquals("token-2", relogin.join());
+        assertEquals("token-2", joined.join());
+
+        // a late report of the old token leaves the new one alone
+        session.invalidate("token-1");
+
+        assertEquals("token-2", acquire().join());
+        assertEquals(2, logins.size());
+
+        session.invalidate("token-2");
+        acquire();
+
+        assertEquals(3, logins.size());
+    }
+
+    @Test
+    public void testFailedLoginIsNotCached() {
+        DateraObject.DateraError error = new DateraObject.DateraError("AuthFailedError", 401, null, "denied");
+
+        CompletableFuture<String> failed = acquire();
+        logins.get(0).completeExceptionally(error);
+
+        try {
+            failed.join();
+            fail("login should fail");
+        } catch (CompletionException e) {
+            assertSame(error, e.getCause());
+        }
+
+        CompletableFuture<String> retried = acquire();
+
+        assertEquals(2, logins.size());
+
+        logins.get(1).complete("token-1");
+
+        assertEquals("token-1", retried.join());
+    }
+
+    @Test
+    public void testEmptyTokenFailsLogin() {
+        CompletableFuture<String> login = acquire();
+
+        logins.get(0).complete(null);
+
+        assertTrue(login.isCompletedExceptionally());
+    }
+}